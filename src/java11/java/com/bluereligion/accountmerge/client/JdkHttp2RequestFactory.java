@@ -0,0 +1,179 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+
+/**
+ * A ClientHttpRequestFactory on the JDK HttpClient, so a RestTemplate can send its requests over HTTP/2.
+ *
+ * Concurrent requests to the same replica are multiplexed as streams over a single connection rather than each
+ * needing a connection of its own. An https url negotiates HTTP/2 with ALPN; a plain http url asks to upgrade its
+ * first request to h2c. A server that does not speak HTTP/2 is answered over HTTP/1.1 instead.
+ *
+ * Needs Java 11 or later. It is compiled from src/java11 and only created reflectively, by PooledHttpClient.
+ *
+ * @see https://openjdk.org/groups/net/httpclient/intro.html
+ */
+public class JdkHttp2RequestFactory
+        implements ClientHttpRequestFactory {
+
+    /**
+     * Set by the HttpClient itself, which refuses them.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient httpClient;
+    private final Duration readTimeout;
+
+
+    /**
+     * @param connectTimeoutMs - How long to wait for a connection to a replica.
+     * @param readTimeoutMs - How long to wait for the response to a request.
+     */
+    public JdkHttp2RequestFactory(int connectTimeoutMs, int readTimeoutMs) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new JdkClientHttpRequest(uri, httpMethod);
+    }
+
+    /**
+     * Buffers the body, which is sent along with the headers when the request is executed.
+     */
+    private class JdkClientHttpRequest
+            extends AbstractClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(0);
+
+        JdkClientHttpRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return this.method;
+        }
+
+        @Override
+        public String getMethodValue() {
+            return this.method.name();
+        }
+
+        @Override
+        public URI getURI() {
+            return this.uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return this.body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            HttpRequest.Builder request = HttpRequest.newBuilder(this.uri).timeout(readTimeout);
+            headers.forEach((name, values) -> {
+                if ( !RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT)) ) values.forEach(value -> request.header(name, value));
+            });
+
+            byte[] bytes = this.body.toByteArray();
+            request.method(this.method.name(), ( bytes.length == 0 ) ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(bytes));
+
+            try {
+                return new JdkClientHttpResponse(httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream()));
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted waiting for %s.", this.uri));
+            }
+        }
+    }
+
+    private static class JdkClientHttpResponse
+            implements ClientHttpResponse {
+
+        private final HttpResponse<InputStream> response;
+        private HttpHeaders headers;
+
+        JdkClientHttpResponse(HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() {
+            return HttpStatus.valueOf(getRawStatusCode());
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return this.response.statusCode();
+        }
+
+        /**
+         * HTTP/2 has no reason phrase, so the standard one for the status code is used.
+         */
+        @Override
+        public String getStatusText() {
+            HttpStatus status = HttpStatus.resolve(getRawStatusCode());
+            return Objects.isNull(status) ? "" : status.getReasonPhrase();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if ( Objects.isNull(this.headers) ) {
+                HttpHeaders headers = new HttpHeaders();
+                this.response.headers().map().forEach(headers::put);
+                this.headers = headers;
+            }
+            return this.headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return this.response.body();
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.response.body().close();
+            }
+            catch (IOException ex) {
+                // The stream is done with either way.
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+
+/**
+ * The pipeline's events on JDK Flight Recorder. Each kind of event is a jdk.jfr.Event that is its own span, committed
+ * by Event.commit(), so recording an event allocates nothing beyond the event itself.
+ *
+ * The events are enabled with no threshold, so every one is committed to a recording that includes them. They show
+ * up under Account Merge in JDK Mission Control, alongside the JVM's own events for the same threads.
+ *
+ * Needs Java 11 or later. It is compiled from src/java11 and only created reflectively, by PipelineEvents.
+ */
+public class JfrPipelineEvents
+        implements PipelineEvents.Recorder {
+
+    @Override
+    public PipelineEvents.Span begin(PipelineEvents.Kind kind) {
+        Event event;
+        switch (kind) {
+            case ROW_BATCH_READ: event = new RowBatchReadEvent(); break;
+            case STATUS_CALL: event = new StatusCallEvent(); break;
+            case QUEUE_WAIT: event = new QueueWaitEvent(); break;
+            default: event = new WriterFlushEvent(); break;
+        }
+        event.begin();
+        return (PipelineEvents.Span) event;
+    }
+
+    @Override
+    public Closeable startRecording(Path file) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        }
+        catch (ParseException ex) {
+            throw new IOException("The default Flight Recorder settings could not be read.", ex);
+        }
+        recording.setName("account-merge");
+        for ( Class<? extends Event> event : List.<Class<? extends Event>>of(RowBatchReadEvent.class, StatusCallEvent.class, QueueWaitEvent.class, WriterFlushEvent.class) ) {
+            recording.enable(event).withoutThreshold();
+        }
+        recording.setDestination(file); // Written when the recording is stopped.
+        recording.start();
+
+        return () -> {
+            try {
+                recording.stop();
+            }
+            finally {
+                recording.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean isRecording() {
+        if ( !FlightRecorder.isInitialized() ) return false; // Nothing has recorded yet, and asking would start Flight Recorder.
+        for ( Recording recording : FlightRecorder.getFlightRecorder().getRecordings() ) {
+            if ( recording.getState() == RecordingState.RUNNING ) return true;
+        }
+        return false;
+    }
+
+    @Name("com.bluereligion.accountmerge.RowBatchRead")
+    @Label("Row Batch Read")
+    @Category({ "Account Merge" })
+    @Description("A batch of rows read from the inbound file, up to putting it on the rows queue.")
+    static class RowBatchReadEvent extends Event implements PipelineEvents.Span {
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Override
+        public PipelineEvents.Span rows(int rows) {
+            this.rows = rows;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+    }
+
+    @Name("com.bluereligion.accountmerge.StatusCall")
+    @Label("Status Call")
+    @Category({ "Account Merge" })
+    @Description("A request to the status API, from sending it until its response has been read.")
+    static class StatusCallEvent extends Event implements PipelineEvents.Span {
+
+        @Label("Account Id")
+        @Description("The account looked up, or 0 for a bulk request.")
+        long accountId;
+
+        @Label("Accounts")
+        int accounts;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Outcome")
+        @Description("SUCCESS, NOT_FOUND, TRANSIENT or FATAL.")
+        String outcome;
+
+        @Label("HTTP Status")
+        @Description("The status code of the response, or 0 when there was none.")
+        int httpStatus;
+
+        @Override
+        public PipelineEvents.Span accountId(long accountId) {
+            this.accountId = accountId;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span accounts(int accounts) {
+            this.accounts = accounts;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span outcome(String outcome) {
+            this.outcome = outcome;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span httpStatus(int httpStatus) {
+            this.httpStatus = httpStatus;
+            return this;
+        }
+    }
+
+    @Name("com.bluereligion.accountmerge.QueueWait")
+    @Label("Queue Wait")
+    @Category({ "Account Merge" })
+    @Description("A stage held up by a full queue ahead of it, or an empty queue behind it.")
+    static class QueueWaitEvent extends Event implements PipelineEvents.Span {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Operation")
+        @Description("put when the queue was full, take when it was empty.")
+        String operation;
+
+        @Override
+        public PipelineEvents.Span queue(String queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        @Override
+        public PipelineEvents.Span operation(String operation) {
+            this.operation = operation;
+            return this;
+        }
+    }
+
+    @Name("com.bluereligion.accountmerge.WriterFlush")
+    @Label("Writer Flush")
+    @Category({ "Account Merge" })
+    @Description("Buffered output of the writer written to the outbound file.")
+    static class WriterFlushEvent extends Event implements PipelineEvents.Span {
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Override
+        public PipelineEvents.Span bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Compares reading a status response into a JsonNode tree and copying the fields from it, the way the responses were
+ * read before, with the StatusResponseDecoder pulling the fields straight from the stream.
+ *  - single - The body of a single lookup, as the API answers it.
+ *  - oversized - The same fields buried after a few KB of fields the client never reads.
+ *  - bulk - The body of a bulk lookup of 25 accounts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusDecodingBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The body of a single lookup.
+     */
+    @State(Scope.Thread)
+    public static class Single {
+
+        @Param({"single", "oversized"})
+        private String body;
+
+        private byte[] bytes;
+        private final Account account = new Account.AccountBuilder().id(23232l).firstName("Tony").build();
+
+        @Setup
+        public void setup() {
+            String status = "\"account_id\":23232,\"status\":\"good\",\"created_on\":\"2011-01-12\"";
+            if ( "oversized".equals(this.body) ) {
+                StringBuilder history = new StringBuilder("{\"history\":[");
+                for (int i = 0; i < 40; i++) {
+                    if ( i > 0 ) history.append(',');
+                    history.append("{\"status\":\"good\",\"created_on\":\"2011-01-12\",\"changed_by\":\"batch-").append(i).append("\",\"tags\":[\"a\",\"b\",\"c\"]}");
+                }
+                this.bytes = history.append("],").append(status).append('}').toString().getBytes(StandardCharsets.UTF_8);
+            }
+            else this.bytes = ("{" + status + "}").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The body of a bulk lookup.
+     */
+    @State(Scope.Thread)
+    public static class Bulk {
+
+        private byte[] bytes;
+        private final Account account = new Account.AccountBuilder().id(23232l).firstName("Tony").build();
+
+        @Setup
+        public void setup() {
+            StringBuilder bulk = new StringBuilder("[");
+            for (int i = 0; i < 25; i++) {
+                if ( i > 0 ) bulk.append(',');
+                bulk.append("{\"account_id\":").append(i).append(",\"status\":\"good\",\"created_on\":\"2011-01-12\"}");
+            }
+            this.bytes = bulk.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static InputStream stream(byte[] body) {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Benchmark
+    public Account tree(Single single) throws IOException {
+        return AccountStatusClient.applyResponse(single.account, MAPPER.readTree(stream(single.bytes)));
+    }
+
+    @Benchmark
+    public Account streaming(Single single) throws IOException {
+        return StatusResponseDecoder.decode(stream(single.bytes)).applyTo(single.account);
+    }
+
+    @Benchmark
+    public int bulkTree(Bulk bulk) throws IOException {
+        int found = 0;
+        for ( JsonNode status : MAPPER.readTree(stream(bulk.bytes)) ) {
+            if ( status.hasNonNull("account_id") ) found += AccountStatusClient.applyResponse(bulk.account, status).getStatus().length();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int bulkStreaming(Bulk bulk) throws IOException {
+        Map<Long, StatusResponseDecoder.Status> statuses = StatusResponseDecoder.decodeBulk(stream(bulk.bytes));
+        int found = 0;
+        for ( StatusResponseDecoder.Status status : statuses.values() ) found += status.applyTo(bulk.account).getStatus().length();
+        return found;
+    }
+
+}
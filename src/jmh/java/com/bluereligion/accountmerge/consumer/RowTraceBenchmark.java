@@ -0,0 +1,114 @@
+package com.bluereligion.accountmerge.consumer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.util.AccountMergeUtils;
+import com.bluereligion.accountmerge.util.RowTrace;
+
+
+/**
+ * Measures what the per-row debug messages cost a row parsed by the row consumers.
+ *  - off - The loggers at INFO, as the app runs by default.
+ *  - sampled - The loggers at DEBUG with the default sampleEvery of 1000.
+ *  - every - The loggers at DEBUG with every row logged.
+ * The messages are formatted but not written anywhere, so only the cost to the row is measured and not the console's.
+ * eagerFormatting is the row as it was before RowTrace, formatting its messages with String.format even with the loggers at INFO.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowTraceBenchmark {
+
+    private static final String ROW = "23232,stark industries,Tony,5-12-2015";
+    private static final String[] LOGGERS = { RowConsumer.class.getName(), AccountMergeUtils.class.getName() };
+
+    /**
+     * Formats each event and drops it.
+     */
+    private static class FormattingAppender extends AppenderBase<ILoggingEvent> {
+        @Override
+        protected void append(ILoggingEvent event) {
+            event.getFormattedMessage();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Trace {
+
+        @Param({"off", "sampled", "every"})
+        private String trace;
+
+        private final FormattingAppender appender = new FormattingAppender();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            this.appender.setContext(((Logger) LoggerFactory.getLogger(LOGGERS[0])).getLoggerContext());
+            this.appender.start();
+            for ( String name : LOGGERS ) {
+                Logger logger = (Logger) LoggerFactory.getLogger(name);
+                logger.setAdditive(false);
+                logger.addAppender(this.appender);
+                logger.setLevel("off".equals(this.trace) ? ch.qos.logback.classic.Level.INFO : ch.qos.logback.classic.Level.DEBUG);
+            }
+            RowTrace.setSampleEvery("every".equals(this.trace) ? 1 : 1000);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            for ( String name : LOGGERS ) {
+                Logger logger = (Logger) LoggerFactory.getLogger(name);
+                logger.detachAppender(this.appender);
+                logger.setAdditive(true);
+                logger.setLevel(null);
+            }
+            this.appender.stop();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Eager {
+
+        private final org.slf4j.Logger logger = LoggerFactory.getLogger(RowTraceBenchmark.class);
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ((Logger) this.logger).setLevel(ch.qos.logback.classic.Level.INFO);
+        }
+    }
+
+    @Benchmark
+    public Account parseRow(Trace trace) {
+        return RowConsumer.parseAccount(ROW);
+    }
+
+    @Benchmark
+    public Account eagerFormatting(Eager eager) {
+        eager.logger.debug(String.format("Creating account using s=%s", ROW));
+        eager.logger.debug(String.format("Parsing Account using%s", ROW));
+        return RowConsumer.parseAccount(ROW);
+    }
+
+}
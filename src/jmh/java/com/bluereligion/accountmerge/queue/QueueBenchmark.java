@@ -0,0 +1,123 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares the queues between the stages: a single producer publishing rows in batches to a number of consumers,
+ * the shape of the handoff from the reader to the row consumers. Each consumer takes one element and then drains
+ * up to a batch more, as RowConsumer and AccountConsumer do.
+ *
+ * BUSY_SPIN is left out because at 32 consumers the spinning threads outnumber the cores and the result only measures the scheduler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueueBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+    private static final int ELEMENTS = BATCH_SIZE * 1600;
+    private static final String END = "--end--";
+
+    @Param({"1", "2", "8", "32"})
+    private int consumers;
+
+    @Param({"LINKED", "RING_BLOCKING", "RING_YIELDING"})
+    private String queue;
+
+    @Param({"1024"})
+    private int capacity;
+
+    private ExecutorService executor;
+    private List<String> batch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.executor = Executors.newFixedThreadPool(this.consumers);
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) this.batch.add("23232,stark industries,Tony,5-12-2015");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private BlockingQueue<String> createQueue() {
+        switch ( this.queue ) {
+            case "RING_BLOCKING":
+                return new RingBuffer<>(this.capacity, WaitStrategy.BLOCKING);
+            case "RING_YIELDING":
+                return new RingBuffer<>(this.capacity, WaitStrategy.YIELDING);
+            default:
+                return new LinkedBlockingQueue<>(this.capacity);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public long handoff() throws Exception {
+        BlockingQueue<String> queue = createQueue();
+        CountDownLatch started = new CountDownLatch(this.consumers);
+
+        List<Future<Long>> results = new ArrayList<>(this.consumers);
+        for (int c = 0; c < this.consumers; c++) {
+            results.add(this.executor.submit(() -> {
+                started.countDown();
+                List<String> drained = new ArrayList<>(BATCH_SIZE);
+                long taken = 0;
+                while ( true ) {
+                    drained.clear();
+                    drained.add(queue.take());
+                    queue.drainTo(drained, BATCH_SIZE - 1);
+                    int markers = 0;
+                    for ( String s : drained ) {
+                        if ( s == END ) markers++;
+                        else taken++;
+                    }
+                    if ( markers > 0 ) {
+                        for (int i = 1; i < markers; i++) queue.put(END); // Hand back the markers drained for the other consumers.
+                        return taken;
+                    }
+                }
+            }));
+        }
+        started.await();
+
+        for (int published = 0; published < ELEMENTS; published += BATCH_SIZE) {
+            BatchingQueue.putAll(queue, this.batch);
+        }
+        for (int c = 0; c < this.consumers; c++) queue.put(END);
+
+        long taken = 0;
+        for ( Future<Long> result : results ) taken += result.get();
+        return taken;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.bluereligion.accountmerge.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Runs the whole pipeline, from the inbound file to the outbound file, against a stubbed status lookup
+ * that answers after a fixed latency. Shows how the consumer count, batching and queue capacity
+ * trade off against the latency of the REST api.
+ *
+ * With the VIRTUAL engine numOfRowConsumers is not used and the lookups outstanding are bounded by maxInFlightLookups instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({"BLOCKING", "VIRTUAL"})
+    private AccountsServiceProvider.StatusEngine statusEngine;
+
+    @Param({"1", "2", "4", "8"})
+    private int numOfRowConsumers;
+
+    @Param({"256"})
+    private int maxInFlightLookups;
+
+    @Param({"0", "200"})
+    private long latencyMicros;
+
+    @Param({"1", "25"})
+    private int statusBatchSize;
+
+    @Param({"50"})
+    private int queueCapacity;
+
+    @Param({"10000"})
+    private int rows;
+
+    private Path inbound;
+    private Path outbound;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.inbound = Files.createTempFile("pipeline-benchmark-in", ".csv");
+        this.outbound = Files.createTempFile("pipeline-benchmark-out", ".csv");
+
+        try ( BufferedWriter writer = Files.newBufferedWriter(this.inbound, StandardCharsets.UTF_8) ) {
+            writer.write("Account ID,Account Name,First Name,Created On");
+            writer.newLine();
+            for (int i = 1; i <= this.rows; i++) {
+                writer.write(i + ",\"stark, industries\",Tony,5-12-2015");
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.inbound);
+        Files.deleteIfExists(this.outbound);
+    }
+
+    @Benchmark
+    public PipelineResult processAccounts() throws Exception {
+        AccountsServiceProvider provider = new AccountsServiceProvider.AccountsServiceProviderBuilder()
+                .inboundFilePath(this.inbound.toString())
+                .outboundFilePath(this.outbound.toString())
+                .characterSet(StandardCharsets.UTF_8)
+                .statusEngine(this.statusEngine)
+                .numOfRowConsumers(this.numOfRowConsumers)
+                .maxInFlightLookups(this.maxInFlightLookups)
+                .statusBatchSize(this.statusBatchSize)
+                .queueCapacity(this.queueCapacity)
+                .accountStatusClient(new StubStatusLookup(TimeUnit.MICROSECONDS.toNanos(this.latencyMicros)))
+                .build();
+        return provider.processAccounts(this.inbound.toString(), this.outbound.toString());
+    }
+
+    /**
+     * Stands in for AccountStatusClient. Every call, single or bulk, takes the configured latency.
+     */
+    private static class StubStatusLookup
+            implements AccountStatusLookup {
+
+        private final long latencyNanos;
+
+        private StubStatusLookup(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Account callService(Account account) {
+            pause();
+            return resolve(account);
+        }
+
+        @Override
+        public List<Account> callServiceInBatch(List<Account> accounts) {
+            pause();
+            for ( Account account : accounts ) resolve(account);
+            return accounts;
+        }
+
+        private void pause() {
+            if ( this.latencyNanos > 0 ) LockSupport.parkNanos(this.latencyNanos);
+        }
+
+        private static Account resolve(Account account) {
+            account.setStatus("good");
+            account.setStatusSetOn("2011-01-12");
+            return account;
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.bluereligion.accountmerge.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Measures the per-row utility methods on the parse and format hot paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountMergeUtilsBenchmark {
+
+    /**
+     * An inbound row. Each shape exercises a different branch of the parser.
+     */
+    @State(Scope.Thread)
+    public static class Row {
+
+        @Param({
+                "23232,stark industries,Tony,5-12-2015",
+                "\"23232\",\"stark industries\",\"Tony\",\"5-12-2015\"",
+                "23232,\"stark,industries\",Tony,5-12-2015",
+                ",,23232,stark\"\"industries,Tony,5-12-2015,,"
+        })
+        private String row;
+
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+    }
+
+    /**
+     * An enriched account ready to be written.
+     */
+    @State(Scope.Thread)
+    public static class Enriched {
+
+        private Account account;
+
+        @Setup
+        public void setup() {
+            this.account = new Account.AccountBuilder()
+                    .id(23232l)
+                    .accountName("stark industries")
+                    .firstName("Tony")
+                    .createdOn("5-12-2015")
+                    .status("good")
+                    .statusSetOn("2011-01-12")
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public String scrubLine(Row row) {
+        return AccountMergeUtils.scrubLine(row.row);
+    }
+
+    @Benchmark
+    public String[] parseLine(Row row) {
+        return AccountMergeUtils.parseLine(row.row);
+    }
+
+    @Benchmark
+    public Account parseAccount(Row row) {
+        return AccountMergeUtils.parseAccount(row.row);
+    }
+
+    @Benchmark
+    public int tokenize(Row row) {
+        return row.tokenizer.tokenize(row.row);
+    }
+
+    @Benchmark
+    public boolean isInboundHeaderRecord(Row row) {
+        return AccountMergeUtils.isInboundHeaderRecord(row.row);
+    }
+
+    @Benchmark
+    public String createDelimintaedRow(Enriched enriched) {
+        return AccountMergeUtils.createDelimintaedRow(enriched.account);
+    }
+
+}
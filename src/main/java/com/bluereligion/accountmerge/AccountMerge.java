@@ -10,6 +10,7 @@ import org.springframework.boot.Banner;
 import org.springframework.boot.WebApplicationType;
 
 import com.bluereligion.accountmerge.service.AccountsService;
+import com.bluereligion.accountmerge.util.CommandLineOptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,11 @@ import org.slf4j.LoggerFactory;
  *  - output filename
  *
  *  Fewer or more arguements with return an exception.
+ *
+ *  Options may be given before or after the arguments:
+ *  - --max-status-age=<duration> - Reuse statuses from the status store fetched within this long, ie 6h.
+ *  - --jfr=<file> - Record the run with JDK Flight Recorder, including the pipeline's own events, to the file.
+ *  - --progress=stderr|<file> - Report the progress and the time left, to stderr or to a status file.
  */
 @SpringBootApplication
 public class AccountMerge
@@ -52,14 +58,26 @@ public class AccountMerge
      */
     public void run(String... args) throws Exception {
 
-        if ( !areArgumentsValid(args) ) {
+        CommandLineOptions options = null;
+        try {
+            options = CommandLineOptions.parse(args);
+            if ( options.has(CommandLineOptions.MAX_STATUS_AGE) ) options.getDurationSeconds(CommandLineOptions.MAX_STATUS_AGE);
+        }
+        catch (IllegalArgumentException ex) {
+            LOGGER.error(ex.getMessage());
+            this.outputUsage();
+            System.exit(1);
+        }
+
+        String[] arguments = options.getPositional().toArray(new String[0]);
+        if ( !areArgumentsValid(arguments) ) {
             LOGGER.debug("Commandline arguments are not valid="+ Arrays.toString(args));
             this.outputUsage();
             System.exit(1);
         }
 
         LOGGER.debug(String.format("Arguments received=%s", Arrays.toString(args)));
-        accountsService.processAccounts(args[0], args[1]);
+        accountsService.processAccounts(arguments[0], arguments[1], options);
     }
 
 
@@ -99,9 +117,13 @@ public class AccountMerge
     private void outputUsage() {
         System.out.println("********************************************************************************");
         System.out.println("\n[Usage]");
-        System.out.println("\taccount_merge <input_file> <output_file>");
+        System.out.println("\taccount_merge [options] <input_file> <output_file>");
         System.out.println("\n\tFor example:");
         System.out.println("\n\t\taccount_merge data/input.csv output.csv");
+        System.out.println("\n[Options]");
+        System.out.println("\t--max-status-age=<duration>\tReuse statuses from the status store fetched within this long. ie 90s, 30m, 6h, 2d");
+        System.out.println("\t--jfr=<file>\t\t\tRecord the run with JDK Flight Recorder to the file. ie run.jfr (Java 11 or later)");
+        System.out.println("\t--progress=stderr|<file>\tReport the progress and the time left every progress.intervalSeconds, to stderr or to a status file.");
         System.out.println("\nNote: The input.csv output.csv file names need to be different\n\n");
         System.out.println("********************************************************************************");
     }
@@ -0,0 +1,129 @@
+package com.bluereligion.accountmerge.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+
+/**
+ * An in-process status cache bounded by size and age.
+ * Statuses older than the time-to-live are treated as missing and the least recently used status is evicted once
+ * the cache is full.
+ *
+ * The statuses are split over segments picked by a hash of the account id, each a LinkedHashMap with its own lock and
+ * an equal share of maxSize, so the consumers only contend when they look up accounts in the same segment. The least
+ * recently used status is evicted from its own segment rather than from the whole cache. A cache too small to give
+ * every segment MIN_SEGMENT_SIZE statuses has fewer segments, down to one.
+ *
+ * @see https://docs.oracle.com/javase/8/docs/api/java/util/LinkedHashMap.html#removeEldestEntry-java.util.Map.Entry-
+ */
+public class LruStatusCache
+        implements StatusCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 1024;
+
+    private final long ttlMillis;
+    private final List<LinkedHashMap<Long, AccountStatus>> segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * Initializes the cache.
+     * @param maxSize - The most statuses held before the least recently used is evicted.
+     * @param ttlSeconds - How long a status may be served after it was fetched.
+     */
+    public LruStatusCache(int maxSize, long ttlSeconds) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+
+        int count = 1;
+        while ( count < MAX_SEGMENTS && (long) count * 2 * MIN_SEGMENT_SIZE <= maxSize ) count *= 2;
+        int segmentSize = ( maxSize + count - 1 ) / count;
+
+        this.segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            this.segments.add(new LinkedHashMap<Long, AccountStatus>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, AccountStatus> eldest) {
+                    if ( size() <= segmentSize ) return false;
+                    evictions.increment();
+                    return true;
+                }
+            });
+        }
+    }
+
+    private LinkedHashMap<Long, AccountStatus> segmentOf(Long accountId) {
+        int h = Objects.hashCode(accountId);
+        h ^= ( h >>> 16 ); // Consecutive ids differ in the low bits, so spread the high bits into them as HashMap does.
+        return this.segments.get(h & ( this.segments.size() - 1 ));
+    }
+
+    @Override
+    public AccountStatus get(Long accountId) {
+        LinkedHashMap<Long, AccountStatus> segment = segmentOf(accountId);
+        AccountStatus status;
+        synchronized (segment) {
+            status = segment.get(accountId);
+            if ( !Objects.isNull(status) && isExpired(status) ) {
+                segment.remove(accountId);
+                status = null;
+            }
+        }
+
+        if ( Objects.isNull(status) ) misses.increment();
+        else hits.increment();
+        return status;
+    }
+
+    @Override
+    public void put(Long accountId, AccountStatus status) {
+        LinkedHashMap<Long, AccountStatus> segment = segmentOf(accountId);
+        synchronized (segment) {
+            segment.put(accountId, status);
+        }
+    }
+
+    private boolean isExpired(AccountStatus status) {
+        return System.currentTimeMillis() - status.getFetchedOn() > this.ttlMillis;
+    }
+
+    @Override
+    public long getHits() { return hits.sum(); }
+
+    @Override
+    public long getMisses() { return misses.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for ( LinkedHashMap<Long, AccountStatus> segment : this.segments ) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "LruStatusCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+}
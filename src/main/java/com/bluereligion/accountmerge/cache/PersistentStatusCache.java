@@ -0,0 +1,291 @@
+package com.bluereligion.accountmerge.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A status cache backed by an append-only log file so that fetched statuses survive between runs.
+ *
+ * The log is memory-mapped and replayed into an in-memory index when the cache is opened, keeping the newest entry
+ * for each account and skipping any older than maxStatusAge. Every status put is appended to the log, which is flushed
+ * every FLUSH_EVERY_RECORDS records or FLUSH_EVERY_MS, whichever comes first, so a run that crashes keeps nearly all of
+ * the statuses it fetched. On close the log is compacted when most of its entries are superseded, stale or evicted.
+ *
+ * The index holds at most maxEntries statuses, evicting the least recently used, so the heap it takes does not grow
+ * with the number of accounts the store has seen. An evicted status is a miss until it is fetched again, and is left
+ * out of the log when it is next compacted.
+ *
+ * Each record is: account id (long), fetched on (long), status and status set on (int length prefixed UTF-8, -1 for null).
+ * A record cut short by a crash is ignored.
+ */
+public class PersistentStatusCache
+        implements StatusCache {
+
+    private static final int MAGIC = 0x414D5343; // "AMSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final long MAX_MAPPED_REGION = 1L << 30;
+    public static final int DEFAULT_MAX_ENTRIES = 1000000;
+    private static final int FLUSH_EVERY_RECORDS = 1000;
+    private static final long FLUSH_EVERY_MS = 1000;
+
+    private final Path file;
+    private final long maxStatusAgeMillis;
+    private final LinkedHashMap<Long, AccountStatus> statuses;
+    private DataOutputStream log;
+    private long recordsInLog;
+    private int unflushedRecords;
+    private long lastFlushMillis = System.currentTimeMillis();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentStatusCache.class);
+
+
+    /**
+     * Opens the cache, replaying the existing log when there is one.
+     * @param file - The log file. It is created when it does not exist.
+     * @param maxStatusAgeSeconds - How long after it was fetched a status may still be served.
+     * @throws IOException
+     */
+    public PersistentStatusCache(Path file, long maxStatusAgeSeconds) throws IOException {
+        this(file, maxStatusAgeSeconds, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Opens the cache, replaying the existing log when there is one.
+     * @param file - The log file. It is created when it does not exist.
+     * @param maxStatusAgeSeconds - How long after it was fetched a status may still be served.
+     * @param maxEntries - The most statuses held in the index before the least recently used is evicted.
+     * @throws IOException
+     */
+    public PersistentStatusCache(Path file, long maxStatusAgeSeconds, int maxEntries) throws IOException {
+        this.file = file;
+        this.maxStatusAgeMillis = TimeUnit.SECONDS.toMillis(maxStatusAgeSeconds);
+        this.statuses = new LinkedHashMap<Long, AccountStatus>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, AccountStatus> eldest) {
+                if ( size() <= maxEntries ) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+
+        if ( Files.exists(file) && Files.size(file) >= HEADER_BYTES ) load();
+        else writeHeader(file);
+
+        this.log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        LOGGER.info(String.format("Status store %s opened with %d fresh statuses of %d stored.", file, size(), this.recordsInLog));
+    }
+
+    @Override
+    public AccountStatus get(Long accountId) {
+        AccountStatus status;
+        synchronized (this.statuses) {
+            status = this.statuses.get(accountId);
+        }
+        if ( Objects.isNull(status) || isExpired(status, System.currentTimeMillis()) ) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return status;
+    }
+
+    @Override
+    public void put(Long accountId, AccountStatus status) {
+        synchronized (this.statuses) {
+            this.statuses.put(accountId, status);
+        }
+        synchronized (this) {
+            try {
+                writeRecord(this.log, accountId, status);
+                this.recordsInLog++;
+                if ( ++this.unflushedRecords >= FLUSH_EVERY_RECORDS || System.currentTimeMillis() - this.lastFlushMillis >= FLUSH_EVERY_MS ) flush();
+            }
+            catch (IOException ex) {
+                LOGGER.warn(String.format("Unable to append the status of account %d to the status store.", accountId), ex);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records to the log file.
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        this.log.flush();
+        this.unflushedRecords = 0;
+        this.lastFlushMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Flushes the log, compacting it first when fewer than half of its records are still fresh and in the index.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.log.close();
+
+        long now = System.currentTimeMillis();
+        synchronized (this.statuses) {
+            this.statuses.values().removeIf(status -> isExpired(status, now));
+
+            if ( this.recordsInLog > 2L * this.statuses.size() ) {
+                Path compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+                writeHeader(compacted);
+                try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted, StandardOpenOption.APPEND))) ) {
+                    for ( Map.Entry<Long, AccountStatus> entry : this.statuses.entrySet() ) {
+                        writeRecord(out, entry.getKey(), entry.getValue());
+                    }
+                }
+                Files.move(compacted, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.info(String.format("Status store %s compacted from %d to %d statuses.", this.file, this.recordsInLog, this.statuses.size()));
+            }
+        }
+    }
+
+    /**
+     * Replays the log into the index. The file is mapped a region at a time so logs larger than 2GB can be read.
+     * A partially written record at the end is cut off once the file is no longer open for reading.
+     */
+    private void load() throws IOException {
+        long truncateAt = replay();
+        if ( truncateAt >= 0 ) {
+            LOGGER.warn(String.format("Ignoring a partially written record at the end of status store %s.", this.file));
+            truncate(truncateAt);
+        }
+    }
+
+    /**
+     * @return - Where the partially written record at the end of the log starts, or -1 when there is none.
+     */
+    private long replay() throws IOException {
+        long now = System.currentTimeMillis();
+
+        try ( FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ) ) {
+            long size = channel.size();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if ( header.getInt() != MAGIC || header.getInt() != VERSION ) {
+                throw new IOException(String.format("%s is not a status store file. Remove it or configure a different statusStore.file.", this.file));
+            }
+
+            long position = HEADER_BYTES;
+            while ( position < size ) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPED_REGION, size - position));
+                int consumed = 0;
+                try {
+                    while ( region.hasRemaining() ) {
+                        long accountId = region.getLong();
+                        AccountStatus status = new AccountStatus.AccountStatusBuilder()
+                                .fetchedOn(region.getLong())
+                                .status(readString(region))
+                                .statusSetOn(readString(region))
+                                .build();
+                        consumed = region.position();
+                        this.recordsInLog++;
+
+                        if ( !isExpired(status, now) ) this.statuses.merge(accountId, status, (a, b) -> a.getFetchedOn() >= b.getFetchedOn() ? a : b);
+                    }
+                }
+                catch (BufferUnderflowException ex) {
+                    if ( position + region.limit() >= size ) return position + consumed;
+                }
+                position += consumed; // A record spanning two regions is read again from the start of the next region.
+            }
+        }
+        return -1;
+    }
+
+    private void truncate(long size) throws IOException {
+        try ( FileChannel channel = FileChannel.open(this.file, StandardOpenOption.WRITE) ) {
+            channel.truncate(size);
+        }
+    }
+
+    private boolean isExpired(AccountStatus status, long now) {
+        return now - status.getFetchedOn() > this.maxStatusAgeMillis;
+    }
+
+    private static void writeHeader(Path path) throws IOException {
+        try ( DataOutputStream out = new DataOutputStream(Files.newOutputStream(path)) ) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Long accountId, AccountStatus status) throws IOException {
+        out.writeLong(accountId);
+        out.writeLong(status.getFetchedOn());
+        writeString(out, status.getStatus());
+        writeString(out, status.getStatusSetOn());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if ( Objects.isNull(s) ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if ( length < 0 ) return null;
+        if ( length > buffer.remaining() ) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getHits() { return hits.sum(); }
+
+    @Override
+    public long getMisses() { return misses.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    @Override
+    public long size() {
+        synchronized (this.statuses) {
+            return this.statuses.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentStatusCache{" +
+                "file=" + file +
+                ", size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+}
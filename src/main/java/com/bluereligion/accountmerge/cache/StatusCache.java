@@ -0,0 +1,42 @@
+package com.bluereligion.accountmerge.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+
+/**
+ * A store of previously fetched account statuses keyed by account id.
+ * Implementations must be safe to share between all of the consumers.
+ */
+public interface StatusCache
+        extends Closeable {
+
+    /**
+     * @param accountId
+     * @return - The cached status, or null when the account is not cached or its status has expired.
+     */
+    AccountStatus get(Long accountId);
+
+    /**
+     * @param accountId
+     * @param status - The status fetched from the api.
+     */
+    void put(Long accountId, AccountStatus status);
+
+    long getHits();
+
+    long getMisses();
+
+    long size();
+
+    /**
+     * Releases any resources held by the cache. The in-memory caches hold none.
+     * @throws IOException
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+}
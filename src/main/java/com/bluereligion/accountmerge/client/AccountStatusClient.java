@@ -1,14 +1,36 @@
 package com.bluereligion.accountmerge.client;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
+import com.google.common.base.Strings;
+
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+import com.bluereligion.accountmerge.util.RowTrace;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,16 +40,36 @@ import org.slf4j.LoggerFactory;
  * The AccountStatusClient is responsible for handling the interaction with the Account REST
  * api service.
  *
+ * It sends its requests through a copy of the RestTemplate it is given, sharing its connections and interceptors, with
+ * an error handler that never throws, so a 4xx or 5xx answer is returned like any other response. The template
+ * passed in is left as it is for its other users. The lookups made on behalf of a batch use lookupStatus, which reports the outcome as a StatusResult,
+ * so an unknown account does not cost an exception and its stack trace.
+ *
+ * The response bodies are read with the StatusResponseDecoder, which pulls status and created_on straight from the
+ * stream rather than building a JsonNode tree of the whole response.
+ *
+ * Every request goes through an EndpointBalancer, which picks the replica of the service it is sent to and ejects
+ * the replicas that keep failing. A client built from a single url has a balancer with a single endpoint.
  */
-public class AccountStatusClient {
+public class AccountStatusClient
+        implements AccountStatusLookup {
 
     private String serviceUrl;
-    private RestTemplate restTemplate = new RestTemplate();
+    private EndpointBalancer balancer;
+    private String bulkPath;
+    private RestTemplate restTemplate;
+
+    /**
+     * Set to false the first time the server rejects the bulk endpoint so that later batches go straight to single lookups.
+     */
+    private volatile boolean bulkSupported = true;
 
     private static final String STATUS_KEY = "status";
     private static final String CREATED_ON_KEY = "created_on";
+    private static final ResponseErrorHandler NO_ERRORS = new NoErrorsHandler();
 
     private static Logger LOGGER = LoggerFactory.getLogger(AccountStatusClient.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
     private static String GET_ACCOUNT_STATUS_PATH = "%s/v1/accounts/%d";
 
 
@@ -36,40 +78,286 @@ public class AccountStatusClient {
      * @param serviceUrl
      */
     public AccountStatusClient(String serviceUrl) {
+        this(serviceUrl, null);
+    }
+
+    /**
+     * Constructor taking the url to the service and the path of the bulk lookup endpoint - ie "/v1/accounts?ids=".
+     * @param serviceUrl
+     * @param bulkPath - The bulk endpoint the comma separated account ids are appended to. Null or empty disables bulk lookups.
+     */
+    public AccountStatusClient(String serviceUrl, String bulkPath) {
+        this(serviceUrl, bulkPath, new RestTemplate());
+    }
+
+    /**
+     * Constructor taking the url to the service, the path of the bulk lookup endpoint and a shared RestTemplate.
+     * The client is thread safe so a single instance can be shared by all of the consumers.
+     * @param serviceUrl
+     * @param bulkPath - The bulk endpoint the comma separated account ids are appended to. Null or empty disables bulk lookups.
+     * @param restTemplate - The RestTemplate to issue the requests with, typically backed by a PooledHttpClient.
+     */
+    public AccountStatusClient(String serviceUrl, String bulkPath, RestTemplate restTemplate) {
+        this(new EndpointBalancer.EndpointBalancerBuilder().urls(Collections.singletonList(serviceUrl)).build(), bulkPath, restTemplate);
+    }
+
+    /**
+     * Constructor taking the replicas of the service, the path of the bulk lookup endpoint and a shared RestTemplate.
+     * @param balancer - Picks the replica each request is sent to.
+     * @param bulkPath - The bulk endpoint the comma separated account ids are appended to. Null or empty disables bulk lookups.
+     * @param restTemplate - The RestTemplate to issue the requests with, typically backed by a PooledHttpClient.
+     */
+    public AccountStatusClient(EndpointBalancer balancer, String bulkPath, RestTemplate restTemplate) {
         super();
-        this.serviceUrl = serviceUrl;
+        this.balancer = balancer;
+        this.serviceUrl = balancer.getEndpoints().get(0).getUrl();
+        this.bulkPath = bulkPath;
+        this.restTemplate = quiet(restTemplate);
     }
 
 
     /**
-     * Calls the service using the account provided.
+     * Calls the service using the account provided. The request is made by lookupStatus, and a failed result is thrown.
      * @param account
      * @return - The account with the additional details added.
-     * @throws HttpServerErrorException - Thrown if other than a successful response returned.
-     * @throws IllegalArgumentException - Thrown if the account isn't found or is missing the information needed to complete the request.
+     * @throws HttpStatusCodeException - Thrown if other than a successful response returned: HttpClientErrorException for a 4xx and HttpServerErrorException for a 5xx.
+     * @throws ResourceAccessException - Thrown if the service could not be reached.
+     * @throws IllegalArgumentException - Thrown if the account is missing the information needed to complete the request or the response has no body.
      */
-    public Account callService(Account account) throws HttpServerErrorException, IllegalArgumentException {
+    public Account callService(Account account) throws HttpStatusCodeException, IllegalArgumentException {
 
         if ( Objects.isNull(account) || Objects.isNull(account.getId()) ) throw new IllegalArgumentException("Account parameter passed to callService is either null or has a null id.");
 
-        String uri = formulateUrl(account.getId());
-        LOGGER.debug("uri="+uri);
+        StatusResult result = lookupStatus(account, true);
+        if ( !result.isSuccess() ) throw failureException(result);
+        return account;
+
+    }
 
-        ResponseEntity<JsonNode> response = this.restTemplate.getForEntity(uri, JsonNode.class);
-        LOGGER.debug("Response="+response);
+    /**
+     * Calls the service using the account provided, without throwing for a failed lookup.
+     * @param account
+     * @return - SUCCESS with the details added to the account, otherwise the failure and the message describing it.
+     */
+    @Override
+    public StatusResult lookupStatus(Account account) {
 
-        if ( Objects.isNull(response) ||  Objects.isNull(response.getBody()) ) {
+        if ( Objects.isNull(account) || Objects.isNull(account.getId()) ) return StatusResult.fatal("Account parameter passed to callService is either null or has a null id.");
+        return lookupStatus(account, false);
+    }
+
+    /**
+     * Makes the request for a single account. The endpoint's lease is released as failed when the request is TRANSIENT
+     * or ended in an unexpected exception, however the lookup was called.
+     * @param describeByBody - Describe a failed response by its body, as callService throws it, rather than by its
+     *                         status line, as it is recorded on the account.
+     */
+    private StatusResult lookupStatus(Account account, boolean describeByBody) {
+
+        EndpointBalancer.Lease lease = this.balancer.acquire();
+        EndpointBalancer.Endpoint endpoint = lease.getEndpoint();
+        String uri = formulateUrl(endpoint.getUrl(), account.getId());
+        if ( TRACE.sample(account) ) LOGGER.debug("uri={}", uri);
+
+        PipelineEvents.Span call = beginCall(endpoint, account.getId(), 1);
+        StatusResult result = null;
+        try {
+            result = this.restTemplate.execute(uri, HttpMethod.GET, null, response -> readStatus(account, response, describeByBody));
+        }
+        catch (RestClientException ex) {
+            result = StatusResult.failure(ex);
+        }
+        finally {
+            this.balancer.release(lease, Objects.isNull(result) || result.getOutcome() == StatusResult.Outcome.TRANSIENT);
+            endCall(call, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param accountId - The account looked up, or 0 for a bulk request.
+     * @return - The STATUS_CALL event for a request, begun.
+     */
+    private static PipelineEvents.Span beginCall(EndpointBalancer.Endpoint endpoint, long accountId, int accounts) {
+        return PipelineEvents.begin(PipelineEvents.Kind.STATUS_CALL).endpoint(endpoint.getUrl()).accountId(accountId).accounts(accounts);
+    }
+
+    /**
+     * @param result - The outcome of the request, or null when it had none.
+     */
+    private static void endCall(PipelineEvents.Span call, StatusResult result) {
+        if ( !Objects.isNull(result) ) call.outcome(result.getOutcome().name()).httpStatus(result.getHttpStatus());
+        call.commit();
+    }
+
+    /**
+     * Only a successful response has its body decoded, the status line is enough to describe a failure unless
+     * describeByBody asks for the body instead.
+     */
+    private StatusResult readStatus(Account account, ClientHttpResponse response, boolean describeByBody) throws IOException {
+        int status = response.getRawStatusCode();
+        if ( StatusResult.outcomeOf(status) != StatusResult.Outcome.SUCCESS ) {
+            if ( !describeByBody ) return StatusResult.forStatus(status, status + " " + response.getStatusText());
+            try ( InputStream in = response.getBody() ) {
+                return StatusResult.forStatus(status, StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+            }
+        }
+
+        StatusResponseDecoder.Status decoded = null;
+        try ( InputStream in = response.getBody() ) {
+            decoded = StatusResponseDecoder.decode(in);
+        }
+        catch (JsonProcessingException ex) {
+            LOGGER.debug("Response body could not be read for account={}. Error={}", account, ex.getMessage());
+        }
+
+        if ( Objects.isNull(decoded) ) {
             String msg = String.format("No body from API request received for account=%s", account.toString());
             LOGGER.error(msg);
-            throw new IllegalArgumentException(msg);
+            return StatusResult.fatal(msg);
+        }
+
+        decoded.applyTo(account);
+        if ( TRACE.sample(account) ) LOGGER.debug("Processed rest response. Account={}", account);
+        return StatusResult.SUCCESS;
+    }
+
+    /**
+     * @param result - The failed result of lookupStatus, with a failed response described by its body.
+     * @return - The exception callService throws for the result: HttpClientErrorException for a 4xx and
+     *           HttpServerErrorException for a 5xx, described by the status code and the body as callService always has,
+     *           ResourceAccessException when the service could not be reached and IllegalArgumentException otherwise.
+     */
+    private static RuntimeException failureException(StatusResult result) {
+        int code = result.getHttpStatus();
+        String text = Strings.nullToEmpty(result.getMessage());
+        if ( code == 0 ) {
+            return ( result.getOutcome() == StatusResult.Outcome.TRANSIENT ) ? new ResourceAccessException(text) : new IllegalArgumentException(text);
         }
 
-        if ( !response.getStatusCode().is2xxSuccessful() ) {
-            throw new HttpServerErrorException(response.getStatusCode(), ( response.getBody() != null ) ? response.getBody().toString() : "");
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        HttpStatus status = HttpStatus.resolve(code);
+        if ( Objects.isNull(status) ) return new UnknownHttpStatusCodeException(code, text, null, body, StandardCharsets.UTF_8);
+        if ( status.is4xxClientError() ) return HttpClientErrorException.create(status, text, null, body, StandardCharsets.UTF_8);
+        return HttpServerErrorException.create(status, text, null, body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Only a successful response has its body decoded.
+     * @return - The status code, with the statuses keyed by account id or null when there are none to use.
+     */
+    private static BulkResponse readBulkStatuses(ClientHttpResponse response) throws IOException {
+        int status = response.getRawStatusCode();
+        if ( StatusResult.outcomeOf(status) != StatusResult.Outcome.SUCCESS ) return new BulkResponse(status, null);
+
+        try ( InputStream in = response.getBody() ) {
+            return new BulkResponse(status, StatusResponseDecoder.decodeBulk(in));
         }
+        catch (JsonProcessingException ex) {
+            LOGGER.debug("Bulk response body could not be read. Error={}", ex.getMessage());
+            return new BulkResponse(status, null);
+        }
+    }
+
+    /**
+     * Calls the service for a batch of accounts using a single request to the bulk endpoint.
+     * Falls back to one request per account when bulk lookups are disabled or the server does not support the bulk endpoint.
+     * Accounts missing from the bulk response are looked up individually so that they are reported the same way as a single lookup.
+     * Errors for an individual account are added to that account's message rather than thrown.
+     * @param accounts - The accounts to look up. Each must have a non null id.
+     * @return - The accounts with the additional details added.
+     */
+    public List<Account> callServiceInBatch(List<Account> accounts) {
+        lookupStatuses(accounts);
+        return accounts;
+    }
+
+    /**
+     * Calls the service for a batch of accounts the same as callServiceInBatch, reporting the outcome of each account.
+     * @param accounts - The accounts to look up. Each must have a non null id.
+     * @return - The result for each account, in the same order.
+     */
+    @Override
+    public List<StatusResult> lookupStatuses(List<Account> accounts) {
 
-        return processResponse(account, response.getBody());
+        List<StatusResult> results = new ArrayList<>(accounts.size());
+        if ( accounts.size() > 1 && isBulkEnabled() ) {
+            EndpointBalancer.Lease lease = this.balancer.acquire();
+            EndpointBalancer.Endpoint endpoint = lease.getEndpoint();
+            String uri = formulateBulkUrl(endpoint.getUrl(), accounts);
+            if ( TRACE.sample(accounts.get(0)) ) LOGGER.debug("uri={}", uri);
 
+            PipelineEvents.Span call = beginCall(endpoint, 0, accounts.size());
+            StatusResult result = null;
+            boolean failed = true;
+            BulkResponse response = null;
+            try {
+                response = this.restTemplate.execute(uri, HttpMethod.GET, null, AccountStatusClient::readBulkStatuses);
+                if ( TRACE.sample(accounts.get(0)) ) LOGGER.debug("Response={}", response);
+                failed = !Objects.isNull(response) && StatusResult.outcomeOf(response.status) == StatusResult.Outcome.TRANSIENT;
+                if ( !Objects.isNull(response) ) result = StatusResult.forStatus(response.status, null);
+
+                if ( Objects.isNull(response) || Objects.isNull(response.statuses) ) {
+                    if ( !Objects.isNull(response) && isBulkUnsupported(response.status) ) {
+                        LOGGER.info(String.format("Bulk endpoint %s is not supported by the server (%d). Using single lookups.", this.bulkPath, response.status));
+                        this.bulkSupported = false;
+                    }
+                    else LOGGER.debug("Bulk response was empty or unsuccessful, falling back to single lookups.");
+                }
+            }
+            catch (HttpStatusCodeException ex) {
+                result = StatusResult.forStatus(ex.getRawStatusCode(), null);
+                failed = result.getOutcome() == StatusResult.Outcome.TRANSIENT;
+                if ( isBulkUnsupported(ex.getRawStatusCode()) ) {
+                    LOGGER.info(String.format("Bulk endpoint %s is not supported by the server (%s). Using single lookups.", this.bulkPath, ex.getStatusCode()));
+                    this.bulkSupported = false;
+                }
+                else {
+                    LOGGER.debug("Bulk request failed, falling back to single lookups. Error={}", ex.getMessage());
+                }
+            }
+            catch (RestClientException ex) {
+                result = StatusResult.failure(ex);
+                failed = result.getOutcome() == StatusResult.Outcome.TRANSIENT;
+                LOGGER.debug("Bulk request failed, falling back to single lookups. Error={}", ex.getMessage());
+            }
+            finally {
+                this.balancer.release(lease, failed);
+                endCall(call, result);
+            }
+
+            // The bulk lease is released first, so a batch is never counted as more than one outstanding request.
+            if ( !Objects.isNull(response) && !Objects.isNull(response.statuses) ) {
+                for ( Account account : accounts ) {
+                    StatusResponseDecoder.Status status = response.statuses.get(account.getId());
+                    if ( Objects.isNull(status) ) results.add(callServiceQuietly(account));
+                    else {
+                        status.applyTo(account);
+                        results.add(StatusResult.SUCCESS);
+                    }
+                }
+                return results;
+            }
+        }
+
+        for ( Account account : accounts ) {
+            results.add(callServiceQuietly(account));
+        }
+        return results;
+    }
+
+    private StatusResult callServiceQuietly(Account account) {
+        StatusResult result = lookupStatus(account);
+        result.applyTo(account);
+        return result;
+    }
+
+    private static boolean isBulkUnsupported(int status) {
+        return status == HttpStatus.NOT_FOUND.value() || status == HttpStatus.METHOD_NOT_ALLOWED.value() || status == HttpStatus.NOT_IMPLEMENTED.value();
+    }
+
+    protected boolean isBulkEnabled() {
+        return this.bulkSupported && !Strings.isNullOrEmpty(this.bulkPath);
     }
 
     /**
@@ -79,9 +367,17 @@ public class AccountStatusClient {
      * @return - The account with the additional details added.
      */
     protected Account processResponse(Account account, JsonNode body) {
-        LOGGER.debug(String.format("Processing rest response. Body=%s",body.toString()));
-        LOGGER.debug(String.format("Processing rest response. Account=%s",account.toString()));
+        if ( TRACE.sample(account) ) LOGGER.debug("Processing rest response. Body={}, Account={}", body, account);
+        return applyResponse(account, body);
+    }
 
+    /**
+     * Copies the status details from a response body onto the account.
+     * @param account - The account requiring additional information.
+     * @param body - The response body returned from the service.
+     * @return - The account with the additional details added.
+     */
+    static Account applyResponse(Account account, JsonNode body) {
         if ( body.hasNonNull(STATUS_KEY) )
             account.setStatus(body.get(STATUS_KEY).asText());
 
@@ -94,11 +390,71 @@ public class AccountStatusClient {
 
 
     protected String formulateUrl(Long accountId) {
+        return formulateUrl(this.serviceUrl, accountId);
+    }
+
+    protected String formulateUrl(String serviceUrl, Long accountId) {
         return String.format(GET_ACCOUNT_STATUS_PATH, serviceUrl, accountId);
     }
 
+    protected String formulateBulkUrl(String serviceUrl, List<Account> accounts) {
+        return serviceUrl + this.bulkPath + accounts.stream().map(a -> String.valueOf(a.getId())).collect(Collectors.joining(","));
+    }
+
     protected void setRestTemplate(RestTemplate restTemplate) {
-        this.restTemplate = restTemplate;
+        this.restTemplate = quiet(restTemplate);
+    }
+
+    /**
+     * @param restTemplate - The template the requests are sent with, possibly shared with other clients.
+     * @return - A template sending its requests the same way, through the same request factory and so the same connections
+     *           and interceptors, whose error handler never throws. The template passed in is not changed.
+     */
+    private static RestTemplate quiet(RestTemplate restTemplate) {
+        if ( Objects.isNull(restTemplate) ) return null;
+        RestTemplate quiet = new RestTemplate(restTemplate.getRequestFactory()); // Wraps the interceptors, if there are any.
+        quiet.setMessageConverters(restTemplate.getMessageConverters());
+        quiet.setUriTemplateHandler(restTemplate.getUriTemplateHandler());
+        quiet.setErrorHandler(NO_ERRORS);
+        return quiet;
+    }
+
+    /**
+     * What a bulk request answered with.
+     */
+    private static class BulkResponse {
+
+        private final int status;
+        private final Map<Long, StatusResponseDecoder.Status> statuses;
+
+        BulkResponse(int status, Map<Long, StatusResponseDecoder.Status> statuses) {
+            this.status = status;
+            this.statuses = statuses;
+        }
+
+        @Override
+        public String toString() {
+            return "BulkResponse{" +
+                    "status=" + status +
+                    ", statuses=" + ( Objects.isNull(statuses) ? null : statuses.size() ) +
+                    '}';
+        }
+    }
+
+    /**
+     * Leaves every response to the client, so RestTemplate does not throw for a 4xx or 5xx.
+     */
+    private static class NoErrorsHandler
+            implements ResponseErrorHandler {
+
+        @Override
+        public boolean hasError(ClientHttpResponse response) {
+            return false;
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) {
+        }
     }
 
 }
@@ -0,0 +1,66 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Strings;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Loads accounts with the status details held by the Account REST api.
+ * The AccountStatusClient makes the actual requests; other implementations wrap it to add behaviour such as caching.
+ * Implementations are shared by all of the consumers and must be thread safe.
+ */
+public interface AccountStatusLookup {
+
+    /**
+     * Loads a single account with its status.
+     * @param account
+     * @return - The account with the additional details added.
+     * @throws RuntimeException - Thrown if the status could not be loaded. The message describes the failure.
+     */
+    Account callService(Account account);
+
+    /**
+     * Loads a single account with its status, reporting a failure as the result rather than throwing it.
+     * Lookups that make their own requests override this so that a failure costs no exception.
+     * @param account
+     * @return - SUCCESS with the details added to the account, otherwise the failure and the message describing it.
+     */
+    default StatusResult lookupStatus(Account account) {
+        try {
+            callService(account);
+            return StatusResult.SUCCESS;
+        }
+        catch (RuntimeException ex) {
+            return StatusResult.failure(ex);
+        }
+    }
+
+    /**
+     * Loads a batch of accounts with their statuses. Errors for an individual account are added to that
+     * account's message rather than thrown.
+     * @param accounts - The accounts to look up. Each must have a non null id.
+     * @return - The accounts with the additional details added.
+     */
+    List<Account> callServiceInBatch(List<Account> accounts);
+
+    /**
+     * Loads a batch of accounts with their statuses, reporting the outcome of each. Failures are also added to the
+     * account's message, the same as callServiceInBatch. Lookups that make their own requests override this so that
+     * a TRANSIENT failure can be told apart from an unknown account; otherwise any failure is reported as FATAL.
+     * @param accounts - The accounts to look up. Each must have a non null id.
+     * @return - The result for each account, in the same order.
+     */
+    default List<StatusResult> lookupStatuses(List<Account> accounts) {
+        callServiceInBatch(accounts);
+        List<StatusResult> results = new ArrayList<>(accounts.size());
+        for ( Account account : accounts ) {
+            results.add(Strings.isNullOrEmpty(account.getMessage()) ? StatusResult.SUCCESS : StatusResult.fatal(account.getMessage()));
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Limits the number of requests in flight to the REST Api and adjusts the limit from the latency and errors it sees,
+ * using additive increase and multiplicative decrease (AIMD).
+ *  - While the limit is in use and the recent latency stays within latencyTolerance times the no-load latency, the limit is raised by one
+ *    for each request that completes.
+ *  - When a request fails, or the recent latency goes above that, the limit is multiplied by backoffRatio. Requests that were already
+ *    in flight when the limit was lowered do not lower it again, so a burst of slow responses backs off once and not once per response.
+ *
+ * The no-load latency is the fastest request seen in the previous window of samples, so it follows the Api if it gets
+ * slower or faster for good. The recent latency is a moving average, so that a single slow request does not lower the limit.
+ * Batches are tracked apart from single lookups, completed with onBatchSuccess, as a bulk request is slower than a
+ * single one at any load and would otherwise read as congestion, or set a no-load latency no single lookup could meet.
+ * Requests beyond the limit wait in acquire() until one in flight completes.
+ *
+ * @see https://github.com/Netflix/concurrency-limits
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int WINDOW_SAMPLES = 500;
+    private static final double SMOOTHING = 0.2; // The weight of the latest request in the recent latency.
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final Ticker ticker;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private final LatencyTrack singles = new LatencyTrack();
+    private final LatencyTrack batches = new LatencyTrack();
+    private long lastDecreaseNanos;
+    private long increases;
+    private long decreases;
+
+
+    private AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiterBuilder builder) {
+        this.minLimit = Math.max(1, builder.minLimit);
+        this.maxLimit = Math.max(this.minLimit, builder.maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, builder.initialLimit));
+        this.latencyTolerance = Math.max(1.0, builder.latencyTolerance);
+        this.backoffRatio = Math.max(0.1, Math.min(0.99, builder.backoffRatio));
+        this.ticker = builder.ticker;
+        this.lastDecreaseNanos = this.ticker.read() - 1; // Before any request has started.
+    }
+
+    /**
+     * Waits until the number of requests in flight is below the limit and takes a permit.
+     * @return - The time the permit was taken, to be passed back to onSuccess or onFailure.
+     * @throws InterruptedException
+     */
+    public long acquire() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while ( this.inFlight >= (int) this.limit ) this.permitReleased.await();
+            this.inFlight++;
+        }
+        finally {
+            this.lock.unlock();
+        }
+        return this.ticker.read();
+    }
+
+    /**
+     * Returns the permit of a request that completed and raises the limit if the latency stayed flat.
+     * @param startNanos - The value returned by acquire.
+     */
+    public void onSuccess(long startNanos) {
+        release(startNanos, false, this.singles);
+    }
+
+    /**
+     * Returns the permit of a batch of lookups that completed, judging its latency against the other batches.
+     * @param startNanos - The value returned by acquire.
+     */
+    public void onBatchSuccess(long startNanos) {
+        release(startNanos, false, this.batches);
+    }
+
+    /**
+     * Returns the permit of a request that failed and lowers the limit.
+     * @param startNanos - The value returned by acquire.
+     */
+    public void onFailure(long startNanos) {
+        release(startNanos, true, null);
+    }
+
+    /**
+     * @param track - The latencies of the kind of request, or null for a failure, which is not sampled.
+     */
+    private void release(long startNanos, boolean failed, LatencyTrack track) {
+        long now = this.ticker.read();
+        long latencyNanos = now - startNanos;
+        this.lock.lock();
+        try {
+            boolean saturated = this.inFlight * 2 >= (int) this.limit; // Only a limit that is in use is evidence it can go higher.
+            this.inFlight--;
+
+            if ( !failed ) track.sample(latencyNanos);
+            if ( failed || track.isCongested(this.latencyTolerance) ) {
+                if ( startNanos - this.lastDecreaseNanos > 0 ) {
+                    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                    this.lastDecreaseNanos = now;
+                    this.decreases++;
+                }
+            }
+            else if ( saturated && this.limit < this.maxLimit ) {
+                this.limit = Math.min(this.maxLimit, this.limit + 1);
+                this.increases++;
+            }
+            this.permitReleased.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        this.lock.lock();
+        try {
+            return "AdaptiveConcurrencyLimiter{" +
+                    "limit=" + (int) limit +
+                    ", inFlight=" + inFlight +
+                    ", singles=" + singles +
+                    ", batches=" + batches +
+                    ", increases=" + increases +
+                    ", decreases=" + decreases +
+                    '}';
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * The no-load and recent latency of one kind of request. Guarded by the limiter's lock.
+     */
+    private static final class LatencyTrack {
+
+        private long noLoadLatencyNanos = Long.MAX_VALUE;
+        private long windowMinLatencyNanos = Long.MAX_VALUE;
+        private double recentLatencyNanos;
+        private int windowSamples;
+
+        /**
+         * Updates the recent latency and tracks the fastest request of each window. The no-load latency is taken from the last complete window,
+         * or from the first window while it is still filling.
+         */
+        void sample(long latencyNanos) {
+            this.recentLatencyNanos = ( this.recentLatencyNanos == 0 ) ? latencyNanos : this.recentLatencyNanos * ( 1 - SMOOTHING ) + latencyNanos * SMOOTHING;
+            this.windowMinLatencyNanos = Math.min(this.windowMinLatencyNanos, latencyNanos);
+            if ( this.noLoadLatencyNanos == Long.MAX_VALUE || latencyNanos < this.noLoadLatencyNanos ) this.noLoadLatencyNanos = latencyNanos;
+
+            if ( ++this.windowSamples >= WINDOW_SAMPLES ) {
+                this.noLoadLatencyNanos = this.windowMinLatencyNanos;
+                this.windowMinLatencyNanos = Long.MAX_VALUE;
+                this.windowSamples = 0;
+            }
+        }
+
+        boolean isCongested(double latencyTolerance) {
+            return this.recentLatencyNanos > this.noLoadLatencyNanos * latencyTolerance;
+        }
+
+        @Override
+        public String toString() {
+            return "{noLoadLatencyMs=" + ( noLoadLatencyNanos == Long.MAX_VALUE ? "n/a" : String.format("%.2f", noLoadLatencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1)) ) +
+                    ", recentLatencyMs=" + String.format("%.2f", recentLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1)) +
+                    '}';
+        }
+    }
+
+    /**
+     * The builder class.
+     */
+    public static class AdaptiveConcurrencyLimiterBuilder {
+
+        private int initialLimit = 8;
+        private int minLimit = 1;
+        private int maxLimit = 256;
+        private double latencyTolerance = 2.0;
+        private double backoffRatio = 0.9;
+        private Ticker ticker = Ticker.systemTicker();
+
+        public AdaptiveConcurrencyLimiterBuilder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimiterBuilder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimiterBuilder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * How many times the no-load latency a request may take before the limit is lowered.
+         */
+        public AdaptiveConcurrencyLimiterBuilder latencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * What the limit is multiplied by when it is lowered.
+         */
+        public AdaptiveConcurrencyLimiterBuilder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * The source of the time the latency is measured with.
+         */
+        public AdaptiveConcurrencyLimiterBuilder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimiter build() {
+            return new AdaptiveConcurrencyLimiter(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bluereligion.accountmerge.cache.StatusCache;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+
+/**
+ * Serves account statuses from a StatusCache and only calls the wrapped lookup on a miss.
+ * Concurrent lookups for the same account id are coalesced: the first caller makes the request and the others
+ * wait for its result, so only one HTTP call is made per id while it is in flight.
+ *
+ * The waiters are handed the status that was loaded, or the StatusResult of a lookup that failed, so an unknown
+ * account costs its waiters no exception.
+ */
+public class CachingAccountStatusLookup
+        implements AccountStatusLookup {
+
+    private final AccountStatusLookup delegate;
+    private final StatusCache cache;
+    private final ConcurrentHashMap<Long, CompletableFuture<Loaded>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public StatusCache getCache() { return cache; }
+    public long getCoalesced() { return coalesced.sum(); }
+
+
+    /**
+     * @param delegate - The lookup called on a cache miss.
+     * @param cache - The cache to serve statuses from.
+     */
+    public CachingAccountStatusLookup(AccountStatusLookup delegate, StatusCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Account callService(Account account) {
+
+        if ( Objects.isNull(account) || Objects.isNull(account.getId()) ) return this.delegate.callService(account);
+
+        AccountStatus cached = this.cache.get(account.getId());
+        if ( !Objects.isNull(cached) ) return cached.applyTo(account);
+
+        CompletableFuture<Loaded> owned = new CompletableFuture<>();
+        CompletableFuture<Loaded> existing = this.inFlight.putIfAbsent(account.getId(), owned);
+        if ( !Objects.isNull(existing) ) {
+            coalesced.increment();
+            Loaded loaded = await(existing);
+            if ( !loaded.result.isSuccess() ) throw new IllegalStateException(loaded.result.getMessage()); // callService reports a failure by throwing.
+            return loaded.status.applyTo(account);
+        }
+
+        try {
+            this.delegate.callService(account);
+            AccountStatus status = AccountStatus.of(account, System.currentTimeMillis());
+            this.cache.put(account.getId(), status);
+            owned.complete(new Loaded(status, StatusResult.SUCCESS));
+            return account;
+        }
+        catch (Throwable ex) {
+            owned.completeExceptionally(ex);
+            throw ex;
+        }
+        finally {
+            this.inFlight.remove(account.getId(), owned);
+        }
+    }
+
+    @Override
+    public List<Account> callServiceInBatch(List<Account> accounts) {
+
+        List<Account> misses = new ArrayList<>(accounts.size());
+        Map<Long, CompletableFuture<Loaded>> owned = new HashMap<>();
+        Map<Account, CompletableFuture<Loaded>> waiting = new IdentityHashMap<>();
+
+        for ( Account account : accounts ) {
+            AccountStatus cached = this.cache.get(account.getId());
+            if ( !Objects.isNull(cached) ) {
+                cached.applyTo(account);
+                continue;
+            }
+
+            CompletableFuture<Loaded> future = new CompletableFuture<>();
+            CompletableFuture<Loaded> existing = this.inFlight.putIfAbsent(account.getId(), future);
+            if ( Objects.isNull(existing) ) {
+                owned.put(account.getId(), future);
+                misses.add(account);
+            }
+            else {
+                coalesced.increment();
+                waiting.put(account, existing);
+            }
+        }
+
+        try {
+            List<StatusResult> results = misses.isEmpty() ? Collections.emptyList() : this.delegate.lookupStatuses(misses);
+
+            long fetchedOn = System.currentTimeMillis();
+            for ( int i = 0; i < misses.size(); i++ ) {
+                Account account = misses.get(i);
+                StatusResult result = results.get(i);
+                AccountStatus status = null;
+                if ( result.isSuccess() ) {
+                    status = AccountStatus.of(account, fetchedOn);
+                    this.cache.put(account.getId(), status);
+                }
+                owned.get(account.getId()).complete(new Loaded(status, result));
+            }
+        }
+        finally {
+            for ( Map.Entry<Long, CompletableFuture<Loaded>> entry : owned.entrySet() ) {
+                if ( !entry.getValue().isDone() ) { // Only when the delegate threw before the lookup completed.
+                    entry.getValue().complete(new Loaded(null, StatusResult.unavailable("Status lookup did not complete for account=" + entry.getKey())));
+                }
+                this.inFlight.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for ( Map.Entry<Account, CompletableFuture<Loaded>> entry : waiting.entrySet() ) {
+            try {
+                await(entry.getValue()).applyTo(entry.getKey());
+            }
+            catch (RuntimeException ex) { // The other consumer's single lookup threw.
+                entry.getKey().setMessage(ex.getMessage());
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Waits for a lookup made by another consumer.
+     * @return - What it loaded.
+     * @throws RuntimeException - The exception the other consumer's single lookup threw.
+     */
+    private static Loaded await(CompletableFuture<Loaded> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException ex) {
+            if ( ex.getCause() instanceof RuntimeException ) throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    /**
+     * The outcome of a lookup, handed to the consumers waiting on it. The status is null unless the result is SUCCESS.
+     */
+    private static final class Loaded {
+
+        final AccountStatus status;
+        final StatusResult result;
+
+        Loaded(AccountStatus status, StatusResult result) {
+            this.status = status;
+            this.result = result;
+        }
+
+        Account applyTo(Account account) {
+            return result.isSuccess() ? status.applyTo(account) : result.applyTo(account);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingAccountStatusLookup{" +
+                "cache=" + cache +
+                ", coalesced=" + getCoalesced() +
+                '}';
+    }
+
+}
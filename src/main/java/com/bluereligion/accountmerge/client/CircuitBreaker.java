@@ -0,0 +1,225 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Stops requests to the REST Api while it is failing, so the consumers fail fast rather than each waiting out a
+ * failing request.
+ *  - CLOSED - Requests pass. The outcomes of the last windowSize requests are kept, and once at least minimumRequests
+ *    have been seen a failure rate of failureRatePercent or more opens the breaker.
+ *  - OPEN - Requests are refused until openMs has passed.
+ *  - HALF_OPEN - A single probe request is let through. If it succeeds the breaker closes with an empty window,
+ *    otherwise it opens again.
+ *
+ * Only a TRANSIENT failure counts against the Api. An unknown account is an answer, not a failure.
+ *
+ * Each request holds the Permit it was let through with and passes it back to release. Only the probe's own permit
+ * decides the HALF_OPEN state, and a permit from before the breaker last opened or closed is ignored, so a slow request
+ * sent while the breaker was closed can not close it again. A release with no outcome at all, for a request that threw,
+ * counts as a failure of the probe.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    /**
+     * Lets a request through. Shared by the requests of one closed period, so acquiring one costs nothing.
+     */
+    public static final class Permit {
+
+        /**
+         * For a request that is not passed through a breaker. Releasing it does nothing.
+         */
+        static final Permit NONE = new Permit(-1, false);
+
+        private final long generation;
+        private final boolean probe;
+
+        private Permit(long generation, boolean probe) {
+            this.generation = generation;
+            this.probe = probe;
+        }
+
+        public boolean isProbe() { return probe; }
+    }
+
+    private final int failureRatePercent;
+    private final int minimumRequests;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private final boolean[] window;
+    private int windowNext;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long generation; // Moves on whenever the breaker opens or closes.
+    private Permit closedPermit = new Permit(0, false);
+    private Permit probe; // The probe in flight while HALF_OPEN, or null.
+    private long openedAt;
+    private long opened;
+    private long rejected;
+
+
+    private CircuitBreaker(CircuitBreakerBuilder builder) {
+        this.failureRatePercent = Math.max(1, Math.min(100, builder.failureRatePercent));
+        this.window = new boolean[Math.max(1, builder.windowSize)];
+        this.minimumRequests = Math.max(1, Math.min(this.window.length, builder.minimumRequests));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, builder.openMs));
+        this.ticker = builder.ticker;
+    }
+
+    /**
+     * @return - The permit to send a request with, which must be passed to release with its outcome, or null if the
+     *           request may not be sent.
+     */
+    public synchronized Permit tryAcquire() {
+        if ( this.state == State.OPEN && this.ticker.read() - this.openedAt >= this.openNanos ) {
+            this.state = State.HALF_OPEN;
+            this.probe = null;
+        }
+
+        if ( this.state == State.CLOSED ) return this.closedPermit;
+        if ( this.state == State.HALF_OPEN && Objects.isNull(this.probe) ) {
+            this.probe = new Permit(this.generation, true);
+            return this.probe;
+        }
+        this.rejected++;
+        return null;
+    }
+
+    /**
+     * Records the outcome of a request, or of the lookups a batch request was made for.
+     * @param permit - The permit the request was sent with.
+     * @param successes - The lookups that were answered.
+     * @param failures - The lookups that failed with a TRANSIENT result.
+     */
+    public synchronized void release(Permit permit, int successes, int failures) {
+        if ( Objects.isNull(permit) || permit.generation != this.generation ) return; // Sent before the breaker last opened or closed.
+
+        if ( permit.probe ) {
+            if ( permit != this.probe || this.state != State.HALF_OPEN ) return;
+            if ( failures > 0 || successes == 0 ) open();
+            else close();
+            return;
+        }
+        if ( this.state != State.CLOSED ) return;
+
+        for (int i = 0; i < successes + failures; i++) record(i < failures);
+        if ( this.windowCount >= this.minimumRequests && this.windowFailures * 100 >= this.failureRatePercent * this.windowCount ) open();
+    }
+
+    private void record(boolean failed) {
+        if ( this.windowCount == this.window.length ) {
+            if ( this.window[this.windowNext] ) this.windowFailures--;
+        }
+        else this.windowCount++;
+
+        this.window[this.windowNext] = failed;
+        if ( failed ) this.windowFailures++;
+        this.windowNext = ( this.windowNext + 1 ) % this.window.length;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.generation++;
+        this.openedAt = this.ticker.read();
+        this.probe = null;
+        this.opened++;
+    }
+
+    private void close() {
+        this.state = State.CLOSED;
+        this.generation++;
+        this.closedPermit = new Permit(this.generation, false);
+        this.probe = null;
+        this.windowNext = 0;
+        this.windowCount = 0;
+        this.windowFailures = 0;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * @return - How many times the breaker has opened.
+     */
+    public synchronized long getOpened() {
+        return this.opened;
+    }
+
+    /**
+     * @return - How many requests were refused while the breaker was open.
+     */
+    public synchronized long getRejected() {
+        return this.rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", failures=" + windowFailures + "/" + windowCount +
+                ", opened=" + opened +
+                ", rejected=" + rejected +
+                '}';
+    }
+
+    /**
+     * The builder class.
+     */
+    public static class CircuitBreakerBuilder {
+
+        private int failureRatePercent = 50;
+        private int minimumRequests = 20;
+        private int windowSize = 100;
+        private long openMs = 5000;
+        private Ticker ticker = Ticker.systemTicker();
+
+        /**
+         * The percentage of failed requests in the window that opens the breaker.
+         */
+        public CircuitBreakerBuilder failureRatePercent(int failureRatePercent) {
+            this.failureRatePercent = failureRatePercent;
+            return this;
+        }
+
+        /**
+         * The fewest requests in the window before the failure rate is acted on.
+         */
+        public CircuitBreakerBuilder minimumRequests(int minimumRequests) {
+            this.minimumRequests = minimumRequests;
+            return this;
+        }
+
+        public CircuitBreakerBuilder windowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * How long the breaker stays open before a probe request is let through.
+         */
+        public CircuitBreakerBuilder openMs(long openMs) {
+            this.openMs = openMs;
+            return this;
+        }
+
+        public CircuitBreakerBuilder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+
+    }
+
+}
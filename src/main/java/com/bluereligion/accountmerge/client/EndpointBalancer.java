@@ -0,0 +1,280 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Spreads the requests to the REST Api over several replicas of the service, so no external load balancer is needed.
+ *  - P2C - Two replicas are picked at random and the request goes to the one with fewer requests outstanding
+ *    ("power of two choices"). It avoids herding every consumer onto the same replica.
+ *  - LEAST_OUTSTANDING - The request goes to the replica with the fewest requests outstanding.
+ * Both send fewer requests to a slow replica, because its requests stay outstanding for longer.
+ *
+ * A replica that fails ejectAfterFailures requests in a row with a TRANSIENT result is ejected for ejectMs. Once that
+ * has passed a single probe request is sent to it: a success puts it back in rotation, a failure ejects it again.
+ * Only the probe decides: the requests still outstanding from before the ejection are not counted when they complete.
+ * When every replica is ejected the one due back first is used, rather than failing every lookup.
+ */
+public class EndpointBalancer {
+
+    public enum Strategy { P2C, LEAST_OUTSTANDING }
+
+    private final List<Endpoint> endpoints;
+    private final Strategy strategy;
+    private final int ejectAfterFailures;
+    private final long ejectNanos;
+    private final Ticker ticker;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointBalancer.class);
+
+    public List<Endpoint> getEndpoints() { return endpoints; }
+
+
+    private EndpointBalancer(EndpointBalancerBuilder builder) {
+        if ( builder.urls.isEmpty() ) throw new IllegalArgumentException("At least one endpoint is required.");
+
+        List<Endpoint> endpoints = new ArrayList<>(builder.urls.size());
+        for ( String url : builder.urls ) endpoints.add(new Endpoint(url));
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.strategy = builder.strategy;
+        this.ejectAfterFailures = Math.max(1, builder.ejectAfterFailures);
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, builder.ejectMs));
+        this.ticker = builder.ticker;
+    }
+
+    /**
+     * @param urls - The comma separated base urls of the replicas, ie "http://host1:8080,http://host2:8080".
+     * @return - The urls with the blanks and surrounding spaces removed.
+     */
+    public static List<String> parseUrls(String urls) {
+        List<String> parsed = new ArrayList<>();
+        if ( Strings.isNullOrEmpty(urls) ) return parsed;
+        for ( String url : urls.split(",") ) {
+            if ( !url.trim().isEmpty() ) parsed.add(url.trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Picks the replica for a request. The lease must be passed back to release once the request completes.
+     * @return - The lease on the endpoint the request is sent to.
+     */
+    public Lease acquire() {
+        Lease lease = ( this.endpoints.size() == 1 ) ? this.endpoints.get(0).lease : choose(this.ticker.read());
+        lease.endpoint.outstanding.incrementAndGet();
+        lease.endpoint.requests.increment();
+        return lease;
+    }
+
+    /**
+     * @param lease - The lease returned by acquire.
+     * @param failed - True when the request failed with a TRANSIENT result.
+     */
+    public void release(Lease lease, boolean failed) {
+        Endpoint endpoint = lease.endpoint;
+        endpoint.outstanding.decrementAndGet();
+        if ( failed ) endpoint.failures.increment();
+
+        synchronized ( endpoint ) {
+            if ( lease.probe ) {
+                if ( endpoint.probe.get() != lease ) return;
+                endpoint.probe.set(null);
+            }
+            else if ( endpoint.ejectedUntil != 0 ) return; // Sent before the ejection, or to the replica due back first. Only the probe decides.
+
+            if ( !failed ) {
+                endpoint.consecutiveFailures = 0;
+                if ( endpoint.ejectedUntil != 0 ) LOGGER.info(String.format("Endpoint %s is back in rotation.", endpoint.url));
+                endpoint.ejectedUntil = 0;
+            }
+            else if ( ++endpoint.consecutiveFailures >= this.ejectAfterFailures && this.endpoints.size() > 1 ) {
+                if ( endpoint.ejectedUntil == 0 ) {
+                    endpoint.ejections.increment();
+                    LOGGER.warn(String.format("Endpoint %s failed %d requests in a row and is ejected for %d ms.", endpoint.url, endpoint.consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(this.ejectNanos)));
+                }
+                long until = this.ticker.read() + this.ejectNanos;
+                endpoint.ejectedUntil = ( until == 0 ) ? 1 : until;
+            }
+        }
+    }
+
+    private Lease choose(long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = this.endpoints.size();
+
+        if ( this.strategy == Strategy.P2C ) {
+            int first = random.nextInt(size);
+            int second = ( first + 1 + random.nextInt(size - 1) ) % size;
+            Endpoint a = this.endpoints.get(first);
+            Endpoint b = this.endpoints.get(second);
+            boolean aInRotation = a.isInRotation();
+            boolean bInRotation = b.isInRotation();
+            if ( aInRotation && bInRotation ) return ( b.outstanding.get() < a.outstanding.get() ) ? b.lease : a.lease;
+            if ( aInRotation ^ bInRotation ) {
+                Lease probe = ( aInRotation ? b : a ).tryProbe(now);
+                return !Objects.isNull(probe) ? probe : ( aInRotation ? a.lease : b.lease );
+            }
+        }
+
+        Endpoint least = null;
+        int start = random.nextInt(size); // Ties go to a random replica.
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = this.endpoints.get(( start + i ) % size);
+            if ( !endpoint.isInRotation() ) {
+                Lease probe = endpoint.tryProbe(now);
+                if ( !Objects.isNull(probe) ) return probe;
+                continue;
+            }
+            if ( least == null || endpoint.outstanding.get() < least.outstanding.get() ) least = endpoint;
+        }
+        return ( least != null ) ? least.lease : dueBackFirst().lease;
+    }
+
+    private Endpoint dueBackFirst() {
+        Endpoint first = this.endpoints.get(0);
+        for ( Endpoint endpoint : this.endpoints ) {
+            if ( endpoint.ejectedUntil - first.ejectedUntil < 0 ) first = endpoint;
+        }
+        return first;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointBalancer{" +
+                "strategy=" + strategy +
+                ", endpoints=" + endpoints +
+                '}';
+    }
+
+    /**
+     * A request's hold on the endpoint it was sent to. The probe of an ejected endpoint has a lease of its own, so its
+     * release can be told from that of the other requests, which share the endpoint's lease.
+     */
+    public static final class Lease {
+
+        private final Endpoint endpoint;
+        private final boolean probe;
+
+        private Lease(Endpoint endpoint, boolean probe) {
+            this.endpoint = endpoint;
+            this.probe = probe;
+        }
+
+        public Endpoint getEndpoint() { return endpoint; }
+        public boolean isProbe() { return probe; }
+    }
+
+    /**
+     * A replica of the REST Api and the state of the requests sent to it.
+     */
+    public static class Endpoint {
+
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Lease lease = new Lease(this, false);
+        private final AtomicReference<Lease> probe = new AtomicReference<>();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder ejections = new LongAdder();
+        private int consecutiveFailures;
+        private volatile long ejectedUntil; // 0 while in rotation.
+
+        public String getUrl() { return url; }
+        public int getOutstanding() { return outstanding.get(); }
+        public long getRequests() { return requests.sum(); }
+        public long getFailures() { return failures.sum(); }
+        public long getEjections() { return ejections.sum(); }
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        public boolean isInRotation() {
+            return this.ejectedUntil == 0;
+        }
+
+        /**
+         * @return - The probe's lease if the ejection is over and no other probe is in flight, otherwise null.
+         */
+        private Lease tryProbe(long now) {
+            long until = this.ejectedUntil;
+            if ( until == 0 || now - until < 0 || !Objects.isNull(this.probe.get()) ) return null;
+            Lease probe = new Lease(this, true);
+            return this.probe.compareAndSet(null, probe) ? probe : null;
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{" +
+                    "url='" + url + '\'' +
+                    ", requests=" + getRequests() +
+                    ", failures=" + getFailures() +
+                    ", ejections=" + getEjections() +
+                    ", inRotation=" + isInRotation() +
+                    '}';
+        }
+    }
+
+    /**
+     * The builder class.
+     */
+    public static class EndpointBalancerBuilder {
+
+        private List<String> urls = new ArrayList<>();
+        private Strategy strategy = Strategy.P2C;
+        private int ejectAfterFailures = 3;
+        private long ejectMs = 5000;
+        private Ticker ticker = Ticker.systemTicker();
+
+        public EndpointBalancerBuilder urls(List<String> urls) {
+            this.urls = urls;
+            return this;
+        }
+
+        public EndpointBalancerBuilder strategy(Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * How many requests in a row a replica may fail before it is ejected.
+         */
+        public EndpointBalancerBuilder ejectAfterFailures(int ejectAfterFailures) {
+            this.ejectAfterFailures = ejectAfterFailures;
+            return this;
+        }
+
+        /**
+         * How long an ejected replica is left out before it is probed.
+         */
+        public EndpointBalancerBuilder ejectMs(long ejectMs) {
+            this.ejectMs = ejectMs;
+            return this;
+        }
+
+        public EndpointBalancerBuilder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public EndpointBalancer build() {
+            return new EndpointBalancer(this);
+        }
+
+    }
+
+}
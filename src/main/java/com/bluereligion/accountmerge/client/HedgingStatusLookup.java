@@ -0,0 +1,245 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Cuts the tail latency of the status lookups by hedging: when a request has taken longer than the given percentile
+ * of the latencies seen so far, a duplicate request is sent and whichever answers first is used. The request that
+ * loses is cancelled without an interrupt: if it has not started it never runs, and if it is on the wire it runs to
+ * completion and is ignored, so the balancer, limiter and breaker below record its real outcome rather than a failure.
+ *
+ * The extra load is capped by a budget: at most budgetPercent hedges for every hundred lookups. No request is
+ * hedged until enough latencies have been seen to estimate the percentile, nor sooner than minDelayMs. A lookup that
+ * cannot be hedged, for want of latencies or budget, runs on the caller's thread rather than on the pool.
+ *
+ * Each attempt works on its own copy of the accounts, so the attempts never write to the same account. The details
+ * of the winning attempt are copied onto the accounts passed in.
+ *
+ * @see https://research.google/pubs/pub40801/ (The Tail at Scale)
+ */
+public class HedgingStatusLookup
+        implements AccountStatusLookup, AutoCloseable {
+
+    private final AccountStatusLookup delegate;
+    private final double percentile;
+    private final double budgetRatio;
+    private final long minDelayNanos;
+    private final LatencyWindow latencies = new LatencyWindow();
+    private final ExecutorService executorService = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("status-hedge-%d").setDaemon(true).build());
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    public long getLookups() { return lookups.sum(); }
+    public long getHedges() { return hedges.sum(); }
+    public long getHedgesWon() { return hedgesWon.sum(); }
+
+
+    /**
+     * @param delegate - The lookup making the requests.
+     * @param percentile - The percentile of the observed latency, between 50 and 99.9, after which a request is hedged.
+     * @param budgetPercent - The most hedges sent for every hundred lookups.
+     * @param minDelayMs - The least time a request is given before it is hedged.
+     */
+    public HedgingStatusLookup(AccountStatusLookup delegate, double percentile, double budgetPercent, long minDelayMs) {
+        this.delegate = delegate;
+        this.percentile = Math.max(50, Math.min(99.9, percentile));
+        this.budgetRatio = Math.max(0, budgetPercent) / 100;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minDelayMs));
+    }
+
+    @Override
+    public Account callService(Account account) {
+        if ( Objects.isNull(account) || Objects.isNull(account.getId()) ) return this.delegate.callService(account);
+
+        Account result = hedge(() -> this.delegate.callService(copy(account)));
+        return applyTo(result, account);
+    }
+
+    @Override
+    public List<Account> callServiceInBatch(List<Account> accounts) {
+        List<Account> results = hedge(() -> {
+            List<Account> copies = new ArrayList<>(accounts.size());
+            for ( Account account : accounts ) copies.add(copy(account));
+            this.delegate.callServiceInBatch(copies);
+            return copies;
+        });
+
+        for (int i = 0; i < accounts.size(); i++) applyTo(results.get(i), accounts.get(i));
+        return accounts;
+    }
+
+    /**
+     * Runs the attempt, and a second one if the first is slow and the budget allows it.
+     * @return - The result of the first attempt to succeed.
+     * @throws RuntimeException - The failure of the first attempt, when every attempt failed.
+     */
+    private <T> T hedge(Callable<T> attempt) {
+        this.lookups.increment();
+
+        long delayNanos = hedgeDelayNanos();
+        if ( delayNanos < 0 || !hasBudget() ) return callDirectly(timed(attempt));
+
+        CompletionService<T> attempts = new ExecutorCompletionService<>(this.executorService);
+        List<Future<T>> futures = new ArrayList<>(2);
+        futures.add(attempts.submit(timed(attempt)));
+
+        try {
+            Future<T> done = attempts.poll(delayNanos, TimeUnit.NANOSECONDS);
+            if ( Objects.isNull(done) ) {
+                if ( tryTakeBudget() ) futures.add(attempts.submit(timed(attempt)));
+                done = attempts.take();
+            }
+
+            ExecutionException failure = null;
+            for (int remaining = futures.size(); ; done = attempts.take()) {
+                try {
+                    T result = done.get();
+                    if ( done != futures.get(0) ) this.hedgesWon.increment();
+                    return result;
+                }
+                catch (ExecutionException ex) {
+                    if ( Objects.isNull(failure) ) failure = ex;
+                }
+                if ( --remaining == 0 ) break;
+            }
+
+            if ( failure.getCause() instanceof RuntimeException ) throw (RuntimeException) failure.getCause();
+            throw new IllegalStateException(failure.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a status lookup.", ex);
+        }
+        finally {
+            for ( Future<T> future : futures ) future.cancel(false); // An interrupt would be recorded as a failed request.
+        }
+    }
+
+    private static <T> T callDirectly(Callable<T> attempt) {
+        try {
+            return attempt.call();
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private <T> Callable<T> timed(Callable<T> attempt) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = attempt.call();
+            this.latencies.record(System.nanoTime() - start); // Failures are often fast and would pull the percentile down.
+            return result;
+        };
+    }
+
+    /**
+     * @return - How long to wait before hedging, or -1 when too few latencies have been seen yet.
+     */
+    private long hedgeDelayNanos() {
+        long percentileNanos = this.latencies.percentile(this.percentile);
+        return ( percentileNanos < 0 ) ? -1 : Math.max(this.minDelayNanos, percentileNanos);
+    }
+
+    private boolean hasBudget() {
+        return this.hedges.sum() + 1 <= this.lookups.sum() * this.budgetRatio;
+    }
+
+    private boolean tryTakeBudget() {
+        synchronized ( this.hedges ) {
+            if ( this.hedges.sum() + 1 > this.lookups.sum() * this.budgetRatio ) return false;
+            this.hedges.increment();
+            return true;
+        }
+    }
+
+    private static Account copy(Account account) {
+        return new Account.AccountBuilder()
+                .id(account.getId())
+                .accountName(account.getAccountName())
+                .firstName(account.getFirstName())
+                .createdOn(account.getCreatedOn())
+                .build();
+    }
+
+    private static Account applyTo(Account from, Account to) {
+        to.setStatus(from.getStatus());
+        to.setStatusSetOn(from.getStatusSetOn());
+        to.setMessage(from.getMessage());
+        return to;
+    }
+
+    @Override
+    public void close() {
+        this.executorService.shutdown(); // Losing attempts still in flight finish uninterrupted.
+    }
+
+    @Override
+    public String toString() {
+        return "HedgingStatusLookup{" +
+                "lookups=" + getLookups() +
+                ", hedges=" + getHedges() +
+                ", hedgesWon=" + getHedgesWon() +
+                ", p" + percentile + "Ms=" + String.format("%.2f", Math.max(0, latencies.percentile(percentile)) / (double) TimeUnit.MILLISECONDS.toNanos(1)) +
+                '}';
+    }
+
+    /**
+     * The latencies of the most recent requests. The percentile is recalculated every RECALCULATE_EVERY samples
+     * rather than on every lookup.
+     */
+    private static class LatencyWindow {
+
+        private static final int SIZE = 1024;
+        private static final int MIN_SAMPLES = 100;
+        private static final int RECALCULATE_EVERY = 64;
+
+        private final long[] samples = new long[SIZE];
+        private long count;
+        private double cachedPercentile = Double.NaN;
+        private long cachedNanos = -1;
+
+        synchronized void record(long nanos) {
+            this.samples[(int) ( this.count++ % SIZE )] = nanos;
+            if ( this.count % RECALCULATE_EVERY == 0 ) this.cachedPercentile = Double.NaN;
+        }
+
+        /**
+         * @return - The latency at the percentile, or -1 until MIN_SAMPLES have been recorded.
+         */
+        synchronized long percentile(double percentile) {
+            if ( this.count < MIN_SAMPLES ) return -1;
+            if ( percentile != this.cachedPercentile ) {
+                long[] sorted = Arrays.copyOf(this.samples, (int) Math.min(this.count, SIZE));
+                Arrays.sort(sorted);
+                this.cachedNanos = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1)];
+                this.cachedPercentile = percentile;
+            }
+            return this.cachedNanos;
+        }
+    }
+
+}
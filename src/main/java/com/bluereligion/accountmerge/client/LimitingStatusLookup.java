@@ -0,0 +1,150 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Passes every request to the wrapped lookup through an AdaptiveConcurrencyLimiter, so the number of requests in flight
+ * follows what the REST Api can take rather than a fixed thread count.
+ *
+ * A request fails, and lowers the limit, when its StatusResult is TRANSIENT: the Api answered 5xx or 429 or could not be
+ * reached. Any other 4xx is an answer about the account rather than about the load, so it is treated as a success. A batch is judged only by its latency,
+ * because the wrapped lookup records the errors of a batch on the accounts rather than throwing them, and against the
+ * latency of the other batches rather than that of single lookups.
+ *
+ * The current limit and the requests in flight are published as the gauges accountmerge.status.concurrency.limit and
+ * accountmerge.status.concurrency.inflight, until unbind() is called at the end of the run.
+ */
+public class LimitingStatusLookup
+        implements AccountStatusLookup {
+
+    public static final String LIMIT_METRIC = "accountmerge.status.concurrency.limit";
+    public static final String IN_FLIGHT_METRIC = "accountmerge.status.concurrency.inflight";
+
+    private final AccountStatusLookup delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    public AdaptiveConcurrencyLimiter getLimiter() { return limiter; }
+
+
+    /**
+     * @param delegate - The lookup making the requests.
+     * @param limiter - The limiter the requests pass through.
+     * @param meterRegistry - The registry the gauges are published to.
+     */
+    public LimitingStatusLookup(AccountStatusLookup delegate, AdaptiveConcurrencyLimiter limiter, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.meterRegistry = meterRegistry;
+
+        this.meters.add(Gauge.builder(LIMIT_METRIC, limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("The number of status requests allowed in flight.")
+                .register(meterRegistry));
+        this.meters.add(Gauge.builder(IN_FLIGHT_METRIC, limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("The number of status requests in flight.")
+                .register(meterRegistry));
+    }
+
+    /**
+     * Removes the gauges from the registry, so that the next run in the same JVM publishes its own limiter rather than
+     * finding this one's gauges already registered.
+     */
+    public void unbind() {
+        this.meters.forEach(this.meterRegistry::remove);
+        this.meters.clear();
+    }
+
+    @Override
+    public Account callService(Account account) {
+        long start = acquire();
+        try {
+            Account result = this.delegate.callService(account);
+            this.limiter.onSuccess(start);
+            return result;
+        }
+        catch (RuntimeException ex) {
+            if ( isOverloaded(ex) ) this.limiter.onFailure(start);
+            else this.limiter.onSuccess(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public StatusResult lookupStatus(Account account) {
+        long start = acquire();
+        StatusResult result;
+        try {
+            result = this.delegate.lookupStatus(account);
+        }
+        catch (RuntimeException ex) {
+            this.limiter.onFailure(start);
+            throw ex;
+        }
+
+        if ( result.getOutcome() == StatusResult.Outcome.TRANSIENT ) this.limiter.onFailure(start);
+        else this.limiter.onSuccess(start);
+        return result;
+    }
+
+    @Override
+    public List<Account> callServiceInBatch(List<Account> accounts) {
+        lookupStatuses(accounts);
+        return accounts;
+    }
+
+    /**
+     * A single account is looked up with lookupStatus so that its failure is seen by the limiter. Its error is added to
+     * its message, the same as the wrapped lookup does for a batch.
+     */
+    @Override
+    public List<StatusResult> lookupStatuses(List<Account> accounts) {
+        if ( accounts.size() == 1 ) {
+            StatusResult result = lookupStatus(accounts.get(0));
+            result.applyTo(accounts.get(0));
+            return Collections.singletonList(result);
+        }
+
+        long start = acquire();
+        try {
+            List<StatusResult> results = this.delegate.lookupStatuses(accounts);
+            this.limiter.onBatchSuccess(start);
+            return results;
+        }
+        catch (RuntimeException ex) {
+            this.limiter.onFailure(start);
+            throw ex;
+        }
+    }
+
+    private long acquire() {
+        try {
+            return this.limiter.acquire();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a status request permit.", ex);
+        }
+    }
+
+    private static boolean isOverloaded(RuntimeException ex) {
+        return StatusResult.failure(ex).getOutcome() == StatusResult.Outcome.TRANSIENT;
+    }
+
+    @Override
+    public String toString() {
+        return "LimitingStatusLookup{" +
+                "limiter=" + limiter +
+                '}';
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A single pooled HTTP client shared by every consumer calling the Account REST api.
+ * Connections are kept alive and reused between requests, idle connections are evicted in the background and
+ * every request is bounded by connect, read and pool-wait timeouts so a slow service can not hang a consumer thread.
+ * When a RateLimitInterceptor is set every request made through the RestTemplate passes through it.
+ *
+ * The transport is HTTP1 by default. HTTP2 sends the requests through the JDK HttpClient instead, which multiplexes
+ * the concurrent requests to a replica over a single connection. It needs Java 11 or later, and the build targets
+ * Java 8, so the JdkHttp2RequestFactory is compiled from src/java11 and created reflectively. On an older JVM HTTP1 is used.
+ *
+ * @see https://hc.apache.org/httpcomponents-client-4.5.x/tutorial/html/connmgmt.html
+ */
+public class PooledHttpClient
+        implements Closeable {
+
+    public enum Transport { HTTP1, HTTP2 }
+
+    static final String HTTP2_REQUEST_FACTORY = "com.bluereligion.accountmerge.client.JdkHttp2RequestFactory";
+
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+    private final Transport transport;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledHttpClient.class);
+
+    public RestTemplate getRestTemplate() { return restTemplate; }
+    public Transport getTransport() { return transport; }
+
+    private PooledHttpClient(PooledHttpClientBuilder builder) {
+        ClientHttpRequestFactory http2RequestFactory = ( builder.transport == Transport.HTTP2 ) ? createHttp2RequestFactory(builder) : null;
+        if ( !Objects.isNull(http2RequestFactory) ) {
+            this.transport = Transport.HTTP2;
+            this.httpClient = null;
+            this.restTemplate = new RestTemplate(http2RequestFactory);
+        }
+        else {
+            this.transport = Transport.HTTP1;
+            this.httpClient = createHttpClient(builder);
+            this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(this.httpClient));
+        }
+        if ( !Objects.isNull(builder.rateLimitInterceptor) ) this.restTemplate.getInterceptors().add(builder.rateLimitInterceptor);
+
+        LOGGER.debug(String.format("Pooled http client created. transport=%s, maxConnectionsTotal=%d, maxConnectionsPerRoute=%d, connectTimeoutMs=%d, readTimeoutMs=%d, connectionRequestTimeoutMs=%d, idleEvictionSeconds=%d, keepAliveSeconds=%d",
+                this.transport, builder.maxConnectionsTotal, builder.maxConnectionsPerRoute, builder.connectTimeoutMs, builder.readTimeoutMs,
+                builder.connectionRequestTimeoutMs, builder.idleEvictionSeconds, builder.keepAliveSeconds));
+    }
+
+    private static CloseableHttpClient createHttpClient(PooledHttpClientBuilder builder) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(builder.maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(builder.maxConnectionsPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(builder.connectTimeoutMs)
+                .setSocketTimeout(builder.readTimeoutMs)
+                .setConnectionRequestTimeout(builder.connectionRequestTimeoutMs)
+                .build();
+
+        long defaultKeepAliveMs = TimeUnit.SECONDS.toMillis(builder.keepAliveSeconds);
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return ( keepAlive > 0 ) ? keepAlive : defaultKeepAliveMs; // Honour the server's Keep-Alive header when present.
+        };
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(builder.idleEvictionSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @return - The HTTP/2 request factory, or null when the JVM is older than Java 11.
+     */
+    private static ClientHttpRequestFactory createHttp2RequestFactory(PooledHttpClientBuilder builder) {
+        try {
+            return (ClientHttpRequestFactory) Class.forName(HTTP2_REQUEST_FACTORY)
+                    .getConstructor(int.class, int.class)
+                    .newInstance(builder.connectTimeoutMs, builder.readTimeoutMs);
+        }
+        catch (ReflectiveOperationException | LinkageError ex) {
+            LOGGER.warn(String.format("The HTTP2 transport needs Java 11 or later, running on Java %s. Using HTTP1. Error=%s", System.getProperty("java.version"), ex));
+            return null;
+        }
+    }
+
+    /**
+     * Closes the pooled connections and stops the idle connection eviction.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if ( !Objects.isNull(this.httpClient) ) this.httpClient.close();
+    }
+
+    /**
+     * The builder class.
+     */
+    public static class PooledHttpClientBuilder {
+
+        private int maxConnectionsTotal = 64;
+        private int maxConnectionsPerRoute = 64;
+        private int connectTimeoutMs = 2000;
+        private int readTimeoutMs = 10000;
+        private int connectionRequestTimeoutMs = 10000;
+        private long idleEvictionSeconds = 30;
+        private long keepAliveSeconds = 30;
+        private RateLimitInterceptor rateLimitInterceptor;
+        private Transport transport = Transport.HTTP1;
+
+        public PooledHttpClientBuilder maxConnectionsTotal(int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        public PooledHttpClientBuilder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public PooledHttpClientBuilder connectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public PooledHttpClientBuilder readTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        public PooledHttpClientBuilder connectionRequestTimeoutMs(int connectionRequestTimeoutMs) {
+            this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+            return this;
+        }
+
+        public PooledHttpClientBuilder idleEvictionSeconds(long idleEvictionSeconds) {
+            this.idleEvictionSeconds = idleEvictionSeconds;
+            return this;
+        }
+
+        public PooledHttpClientBuilder keepAliveSeconds(long keepAliveSeconds) {
+            this.keepAliveSeconds = keepAliveSeconds;
+            return this;
+        }
+
+        /**
+         * Keeps the requests within the quota of the Api. Not set by default.
+         */
+        public PooledHttpClientBuilder rateLimitInterceptor(RateLimitInterceptor rateLimitInterceptor) {
+            this.rateLimitInterceptor = rateLimitInterceptor;
+            return this;
+        }
+
+        /**
+         * HTTP2 multiplexes the requests over a connection per replica, the pool settings then do not apply. HTTP1 by default.
+         */
+        public PooledHttpClientBuilder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public PooledHttpClient build() {
+            return new PooledHttpClient(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Strings;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the requests made through a RestTemplate within the quota of the REST Api. Every request, including the single
+ * lookups a batch falls back to, takes a permit from a TokenBucket shared by all of the consumers.
+ *
+ * When the Api still answers 429 Too Many Requests, the bucket is paused for as long as its Retry-After header asks,
+ * or for defaultRetryAfterMs when there is none, and the request is sent again. The 429 is only passed on to the
+ * caller after maxRetries retries, so a row is not lost to a short burst over the quota.
+ */
+public class RateLimitInterceptor
+        implements ClientHttpRequestInterceptor {
+
+    private final TokenBucket tokenBucket;
+    private final int maxRetries;
+    private final long defaultRetryAfterMs;
+    private final LongAdder retries = new LongAdder();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitInterceptor.class);
+
+    public TokenBucket getTokenBucket() { return tokenBucket; }
+    public long getRetries() { return retries.sum(); }
+
+
+    /**
+     * @param tokenBucket - The bucket shared by every request to the Api.
+     * @param maxRetries - How many times a request answered with 429 is sent again.
+     * @param defaultRetryAfterMs - How long to pause for after a 429 without a Retry-After header.
+     */
+    public RateLimitInterceptor(TokenBucket tokenBucket, int maxRetries, long defaultRetryAfterMs) {
+        this.tokenBucket = tokenBucket;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.defaultRetryAfterMs = Math.max(0, defaultRetryAfterMs);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                this.tokenBucket.acquire();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a request permit.");
+            }
+
+            ClientHttpResponse response = execution.execute(request, body);
+            if ( response.getRawStatusCode() != HttpStatus.TOO_MANY_REQUESTS.value() || attempt >= this.maxRetries ) return response;
+
+            long retryAfterMs = retryAfterMs(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), this.defaultRetryAfterMs);
+            response.close();
+
+            LOGGER.debug(String.format("429 received for %s, pausing requests for %d ms before retry %d.", request.getURI(), retryAfterMs, attempt + 1));
+            this.tokenBucket.pause(TimeUnit.MILLISECONDS.toNanos(retryAfterMs));
+            this.retries.increment();
+        }
+    }
+
+    /**
+     * @param retryAfter - The Retry-After header, either a number of seconds or an HTTP date.
+     * @param defaultMs - Returned when the header is missing or can not be read.
+     * @return - How long the server asked to wait, in milliseconds.
+     */
+    static long retryAfterMs(String retryAfter, long defaultMs) {
+        if ( Strings.isNullOrEmpty(retryAfter) ) return defaultMs;
+        String value = retryAfter.trim();
+
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        }
+        catch (NumberFormatException ex) {
+            // Not a number of seconds, try a date.
+        }
+        try {
+            ZonedDateTime until = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(until.getZone()), until).toMillis());
+        }
+        catch (DateTimeParseException ex) {
+            LOGGER.debug(String.format("Retry-After=%s could not be read, using %d ms.", retryAfter, defaultMs));
+            return defaultMs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitInterceptor{" +
+                "tokenBucket=" + tokenBucket +
+                ", retries=" + getRetries() +
+                '}';
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.core.codec.CodecException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A non-blocking counterpart to the AccountStatusClient built on WebClient.
+ * Requests are multiplexed over the reactor-netty event loop so many lookups can be in flight without a thread
+ * being held for each of them.
+ *
+ * It makes its requests directly against a single endpoint: the status cache, the concurrency limiter, the retries
+ * and circuit breaker, hedging and the endpoint balancer all wrap the blocking AccountStatusLookup and are not applied
+ * to the reactive engine. Its only bound on the load is the number of lookups allowed in flight.
+ *
+ * @see https://docs.spring.io/spring/docs/5.1.x/spring-framework-reference/web-reactive.html#webflux-client
+ */
+public class ReactiveAccountStatusClient
+        implements AutoCloseable {
+
+    private final ConnectionProvider connectionProvider;
+    private final WebClient webClient;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveAccountStatusClient.class);
+    private static final String GET_ACCOUNT_STATUS_PATH = "/v1/accounts/{id}";
+
+
+    /**
+     * Constructor taking the url to the service - ie "http://localhost:8080".
+     * @param serviceUrl
+     * @param maxConnections - The size of the connection pool. This should be at least the number of lookups allowed in flight.
+     */
+    public ReactiveAccountStatusClient(String serviceUrl, Integer maxConnections) {
+        this(serviceUrl, maxConnections, 2000, 10000);
+    }
+
+    /**
+     * Constructor taking the url to the service and the connection timeouts.
+     * @param serviceUrl
+     * @param maxConnections - The size of the connection pool. This should be at least the number of lookups allowed in flight.
+     * @param connectTimeoutMs - How long to wait for a connection to be established.
+     * @param readTimeoutMs - How long a connection may wait for data before the request fails.
+     */
+    public ReactiveAccountStatusClient(String serviceUrl, Integer maxConnections, int connectTimeoutMs, int readTimeoutMs) {
+        this.connectionProvider = ConnectionProvider.fixed("account-status", maxConnections);
+
+        HttpClient httpClient = HttpClient.create(this.connectionProvider)
+                .tcpConfiguration(tcp -> tcp
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                        .doOnConnected(connection -> connection.addHandlerLast(new ReadTimeoutHandler(readTimeoutMs, TimeUnit.MILLISECONDS))));
+
+        this.webClient = WebClient.builder()
+                .baseUrl(serviceUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+
+    /**
+     * Calls the service using the account provided. The returned Mono never signals an error; as with the
+     * blocking consumers, any failure is added to the account's message.
+     * @param account
+     * @return - The account with the additional details added.
+     */
+    public Mono<Account> callService(Account account) {
+
+        if ( Objects.isNull(account) || Objects.isNull(account.getId()) )
+            return Mono.error(new IllegalArgumentException("Account parameter passed to callService is either null or has a null id."));
+
+        return this.webClient.get()
+                .uri(GET_ACCOUNT_STATUS_PATH, account.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .flatMap(response -> readStatus(account, response))
+                .onErrorResume(ex -> Mono.just(( ex instanceof CodecException ) ? StatusResult.fatal(ex.getMessage()) : StatusResult.unavailable(ex.getMessage())))
+                .map(result -> result.applyTo(account));
+    }
+
+    /**
+     * Only a successful response has its body decoded. The body of a failure is still drained, as WebClient requires,
+     * so that its connection goes back to the pool; the status line is enough to describe the failure.
+     */
+    private static Mono<StatusResult> readStatus(Account account, ClientResponse response) {
+        int status = response.rawStatusCode();
+        if ( StatusResult.outcomeOf(status) != StatusResult.Outcome.SUCCESS ) {
+            HttpStatus httpStatus = HttpStatus.resolve(status);
+            String msg = ( Objects.isNull(httpStatus) ) ? String.valueOf(status) : status + " " + httpStatus.getReasonPhrase();
+            return response.bodyToMono(Void.class).then(Mono.just(StatusResult.forStatus(status, msg)));
+        }
+
+        return response.bodyToMono(JsonNode.class)
+                .map(body -> {
+                    AccountStatusClient.applyResponse(account, body);
+                    return StatusResult.SUCCESS;
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    String msg = String.format("No body from API request received for account=%s", account.toString());
+                    LOGGER.error(msg);
+                    return StatusResult.fatal(msg);
+                }));
+    }
+
+    /**
+     * Releases the pooled connections.
+     */
+    @Override
+    public void close() {
+        this.connectionProvider.dispose();
+    }
+
+}
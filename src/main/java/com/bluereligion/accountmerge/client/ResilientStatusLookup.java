@@ -0,0 +1,225 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Retries the lookups that fail with a TRANSIENT result, and stops sending requests through a CircuitBreaker while the
+ * REST Api is failing.
+ *
+ * A retry waits a random time between 0 and baseDelayMs * 2^retry, capped at maxDelayMs ("full jitter"), so the
+ * consumers that failed together do not retry together. Only the accounts of a batch that failed are retried, as a
+ * smaller batch. An unknown account or a FATAL failure is not retried.
+ *
+ * While the breaker is open a lookup fails at once with a TRANSIENT result, and no retry is made. The breaker is optional.
+ *
+ * The state of the breaker (0 closed, 1 half open, 2 open) is published as the gauge accountmerge.status.breaker.state,
+ * and the retries and the lookups refused by the breaker as the counters accountmerge.status.retries and
+ * accountmerge.status.breaker.rejected, until unbind() is called at the end of the run.
+ *
+ * @see https://aws.amazon.com/blogs/architecture/exponential-backoff-and-jitter/
+ */
+public class ResilientStatusLookup
+        implements AccountStatusLookup {
+
+    public static final String BREAKER_STATE_METRIC = "accountmerge.status.breaker.state";
+    public static final String RETRIES_METRIC = "accountmerge.status.retries";
+    public static final String REJECTED_METRIC = "accountmerge.status.breaker.rejected";
+
+    static final String BREAKER_OPEN_MESSAGE = "Status API circuit breaker is open.";
+    private static final StatusResult BREAKER_OPEN = StatusResult.unavailable(BREAKER_OPEN_MESSAGE);
+
+    private final AccountStatusLookup delegate;
+    private final CircuitBreaker breaker;
+    private final int maxRetries;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker getBreaker() { return breaker; }
+    public long getRetries() { return retries.sum(); }
+    public long getRejected() { return rejected.sum(); }
+
+
+    /**
+     * @param delegate - The lookup making the requests.
+     * @param breaker - The breaker the requests pass through, or null for none.
+     * @param maxRetries - How many times a failed lookup is retried.
+     * @param baseDelayMs - The most the first retry waits for. Doubles with each retry.
+     * @param maxDelayMs - The most any retry waits for.
+     * @param meterRegistry - The registry the metrics are published to.
+     */
+    public ResilientStatusLookup(AccountStatusLookup delegate, CircuitBreaker breaker, int maxRetries, long baseDelayMs, long maxDelayMs, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, baseDelayMs));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseDelayMs, maxDelayMs));
+
+        this.meterRegistry = meterRegistry;
+
+        if ( !Objects.isNull(breaker) ) {
+            this.meters.add(Gauge.builder(BREAKER_STATE_METRIC, breaker, b -> b.getState().ordinal())
+                    .description("The state of the status API circuit breaker: 0 closed, 1 half open, 2 open.")
+                    .register(meterRegistry));
+        }
+        this.meters.add(FunctionCounter.builder(RETRIES_METRIC, this.retries, LongAdder::sum)
+                .description("The status lookups retried after a transient failure.")
+                .register(meterRegistry));
+        this.meters.add(FunctionCounter.builder(REJECTED_METRIC, this.rejected, LongAdder::sum)
+                .description("The status lookups refused while the circuit breaker was open.")
+                .register(meterRegistry));
+    }
+
+    /**
+     * Removes the meters from the registry, so that the next run in the same JVM publishes its own rather than finding
+     * these already registered.
+     */
+    public void unbind() {
+        this.meters.forEach(this.meterRegistry::remove);
+        this.meters.clear();
+    }
+
+    @Override
+    public Account callService(Account account) {
+        StatusResult result = lookupStatus(account);
+        if ( !result.isSuccess() ) throw new IllegalStateException(result.getMessage());
+        return account;
+    }
+
+    @Override
+    public StatusResult lookupStatus(Account account) {
+        for (int retry = 0; ; retry++) {
+            CircuitBreaker.Permit permit = tryAcquire(1);
+            if ( Objects.isNull(permit) ) return BREAKER_OPEN;
+
+            StatusResult result;
+            try {
+                result = this.delegate.lookupStatus(account);
+            }
+            catch (RuntimeException ex) {
+                release(permit, 0, 0);
+                throw ex;
+            }
+
+            boolean failed = result.getOutcome() == StatusResult.Outcome.TRANSIENT;
+            release(permit, failed ? 0 : 1, failed ? 1 : 0);
+            if ( !failed || retry >= this.maxRetries || !backoff(retry) ) return result;
+            this.retries.increment();
+        }
+    }
+
+    @Override
+    public List<Account> callServiceInBatch(List<Account> accounts) {
+        lookupStatuses(accounts);
+        return accounts;
+    }
+
+    @Override
+    public List<StatusResult> lookupStatuses(List<Account> accounts) {
+        StatusResult[] results = new StatusResult[accounts.size()];
+        List<Integer> pending = new ArrayList<>(accounts.size());
+        for (int i = 0; i < accounts.size(); i++) pending.add(i);
+
+        for (int retry = 0; !pending.isEmpty(); retry++) {
+            CircuitBreaker.Permit permit = tryAcquire(pending.size());
+            if ( Objects.isNull(permit) ) {
+                for ( Integer i : pending ) {
+                    BREAKER_OPEN.applyTo(accounts.get(i));
+                    results[i] = BREAKER_OPEN;
+                }
+                break;
+            }
+
+            List<Account> batch = new ArrayList<>(pending.size());
+            for ( Integer i : pending ) {
+                Account account = accounts.get(i);
+                account.setMessage(null); // Left by the failed attempt.
+                batch.add(account);
+            }
+
+            List<StatusResult> batchResults;
+            try {
+                batchResults = this.delegate.lookupStatuses(batch);
+            }
+            catch (RuntimeException ex) {
+                release(permit, 0, 0);
+                throw ex;
+            }
+
+            List<Integer> failed = new ArrayList<>();
+            for (int j = 0; j < pending.size(); j++) {
+                results[pending.get(j)] = batchResults.get(j);
+                if ( batchResults.get(j).getOutcome() == StatusResult.Outcome.TRANSIENT ) failed.add(pending.get(j));
+            }
+            release(permit, pending.size() - failed.size(), failed.size());
+
+            if ( failed.isEmpty() || retry >= this.maxRetries || !backoff(retry) ) break;
+            this.retries.add(failed.size());
+            pending = failed;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @param lookups - The lookups the request is made for, counted as refused if the breaker is open.
+     * @return - The permit to send the request with, or null if the breaker refused it.
+     */
+    private CircuitBreaker.Permit tryAcquire(int lookups) {
+        if ( Objects.isNull(this.breaker) ) return CircuitBreaker.Permit.NONE;
+        CircuitBreaker.Permit permit = this.breaker.tryAcquire();
+        if ( Objects.isNull(permit) ) this.rejected.add(lookups);
+        return permit;
+    }
+
+    /**
+     * @param permit - The permit the request was sent with. A request that threw is released with no outcome.
+     */
+    private void release(CircuitBreaker.Permit permit, int successes, int failures) {
+        if ( !Objects.isNull(this.breaker) ) this.breaker.release(permit, successes, failures);
+    }
+
+    /**
+     * Waits before the next retry.
+     * @param retry - The number of retries made so far.
+     * @return - False if interrupted, in which case no more retries should be made.
+     */
+    private boolean backoff(int retry) {
+        long ceiling = Math.min(this.maxDelayNanos, this.baseDelayNanos << Math.min(retry, 30));
+        try {
+            if ( ceiling > 0 ) TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ResilientStatusLookup{" +
+                "retries=" + getRetries() +
+                ", rejected=" + getRejected() +
+                ", breaker=" + breaker +
+                '}';
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Reads the status responses of the REST Api straight from the response stream, without building a JsonNode tree.
+ *
+ * Only status and created_on (and account_id in a bulk response) are kept, every other field is skipped by the parser
+ * without being materialised, so an oversized response costs little more than its bytes. The values are copied the same
+ * way as AccountStatusClient.applyResponse: a null field is ignored, a number or boolean is copied as its text and an
+ * object or array as an empty string.
+ *
+ * The fields are only applied once the whole object has been read, so a malformed response leaves the account untouched.
+ */
+public final class StatusResponseDecoder {
+
+    private static final String STATUS_KEY = "status";
+    private static final String CREATED_ON_KEY = "created_on";
+    private static final String ACCOUNT_ID_KEY = "account_id";
+    private static final String ACCOUNTS_KEY = "accounts";
+
+    /**
+     * Thread safe once configured, and holds the symbol tables the parsers share.
+     */
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private StatusResponseDecoder() {
+    }
+
+    /**
+     * The fields of a status response that are copied onto an account.
+     */
+    public static final class Status {
+
+        private String status;
+        private String statusSetOn;
+
+        public String getStatus() { return status; }
+        public String getStatusSetOn() { return statusSetOn; }
+
+        public Account applyTo(Account account) {
+            if ( !Objects.isNull(this.status) ) account.setStatus(this.status);
+            if ( !Objects.isNull(this.statusSetOn) ) account.setStatusSetOn(this.statusSetOn);
+            return account;
+        }
+    }
+
+    /**
+     * Decodes the response to a single lookup, ie {"account_id":23232,"status":"good","created_on":"2011-01-12"}.
+     * @param in - The response body.
+     * @return - The status, or null when the body is empty.
+     * @throws com.fasterxml.jackson.core.JsonProcessingException - Thrown if the body is not valid JSON.
+     */
+    public static Status decode(InputStream in) throws IOException {
+        try ( JsonParser parser = FACTORY.createParser(in) ) {
+            JsonToken token = parser.nextToken();
+            if ( Objects.isNull(token) ) return null;
+
+            Status status = new Status();
+            if ( token == JsonToken.START_OBJECT ) readObject(parser, status);
+            else parser.skipChildren();
+            return status;
+        }
+    }
+
+    /**
+     * Decodes the response to a bulk lookup, either an array of statuses or an object holding them under "accounts".
+     * The statuses without an account_id are dropped.
+     * @param in - The response body.
+     * @return - The statuses keyed by account id, or null when the body is empty.
+     * @throws com.fasterxml.jackson.core.JsonProcessingException - Thrown if the body is not valid JSON.
+     */
+    public static Map<Long, Status> decodeBulk(InputStream in) throws IOException {
+        try ( JsonParser parser = FACTORY.createParser(in) ) {
+            JsonToken token = parser.nextToken();
+            if ( Objects.isNull(token) ) return null;
+
+            Map<Long, Status> statuses = new HashMap<>();
+            if ( token == JsonToken.START_ARRAY ) readArray(parser, statuses);
+            else if ( token == JsonToken.START_OBJECT ) {
+                while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                    String field = parser.getCurrentName();
+                    if ( parser.nextToken() == JsonToken.START_ARRAY && ACCOUNTS_KEY.equals(field) ) readArray(parser, statuses);
+                    else parser.skipChildren();
+                }
+            }
+            return statuses;
+        }
+    }
+
+    private static void readArray(JsonParser parser, Map<Long, Status> statuses) throws IOException {
+        for ( JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken() ) {
+            if ( token != JsonToken.START_OBJECT ) {
+                parser.skipChildren();
+                continue;
+            }
+            Status status = new Status();
+            Long accountId = readObject(parser, status);
+            if ( !Objects.isNull(accountId) ) statuses.put(accountId, status);
+        }
+    }
+
+    /**
+     * Reads the object the parser is at the start of.
+     * @return - The account_id of the object, or null when it has none.
+     */
+    private static Long readObject(JsonParser parser, Status status) throws IOException {
+        Long accountId = null;
+        while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ( value == JsonToken.VALUE_NULL ) continue;
+
+            if ( STATUS_KEY.equals(field) ) status.status = textOf(parser, value);
+            else if ( CREATED_ON_KEY.equals(field) ) status.statusSetOn = textOf(parser, value);
+            else if ( ACCOUNT_ID_KEY.equals(field) && value.isScalarValue() ) accountId = parser.getValueAsLong(0);
+            else parser.skipChildren();
+        }
+        return accountId;
+    }
+
+    private static String textOf(JsonParser parser, JsonToken value) throws IOException {
+        if ( value.isScalarValue() ) return parser.getText();
+        parser.skipChildren();
+        return "";
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.Objects;
+
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * The outcome of looking up the status of a single account, returned instead of thrown so that an unknown or
+ * failing account costs no more than a successful one.
+ *  - SUCCESS - The status was loaded onto the account.
+ *  - NOT_FOUND - The Api does not know the account (404).
+ *  - TRANSIENT - The Api is overloaded or could not be reached (408, 429, 5xx, I/O). The same request may succeed later.
+ *  - FATAL - The request or the response is wrong (any other 4xx, a missing or unreadable body). Retrying will not help.
+ */
+public final class StatusResult {
+
+    public enum Outcome { SUCCESS, NOT_FOUND, TRANSIENT, FATAL }
+
+    /**
+     * Shared by every successful lookup, the details are on the account itself.
+     */
+    public static final StatusResult SUCCESS = new StatusResult(Outcome.SUCCESS, 200, null);
+
+    private final Outcome outcome;
+    private final int httpStatus;
+    private final String message;
+
+    public Outcome getOutcome() { return outcome; }
+    public int getHttpStatus() { return httpStatus; }
+    public String getMessage() { return message; }
+
+
+    private StatusResult(Outcome outcome, int httpStatus, String message) {
+        this.outcome = outcome;
+        this.httpStatus = httpStatus;
+        this.message = message;
+    }
+
+    /**
+     * @param httpStatus - The status code the Api answered with.
+     * @param message - What to record on the account when the lookup failed.
+     * @return - The result for the status code.
+     */
+    public static StatusResult forStatus(int httpStatus, String message) {
+        Outcome outcome = outcomeOf(httpStatus);
+        return ( outcome == Outcome.SUCCESS ) ? SUCCESS : new StatusResult(outcome, httpStatus, message);
+    }
+
+    /**
+     * @param message - What to record on the account.
+     * @return - A failure that is not worth retrying, with no status code.
+     */
+    public static StatusResult fatal(String message) {
+        return new StatusResult(Outcome.FATAL, 0, message);
+    }
+
+    /**
+     * @param message - What to record on the account.
+     * @return - A TRANSIENT failure with no status code, for a request that was not sent.
+     */
+    public static StatusResult unavailable(String message) {
+        return new StatusResult(Outcome.TRANSIENT, 0, message);
+    }
+
+    /**
+     * Classifies an exception thrown by a lookup, for the lookups that still report failures by throwing.
+     * @param ex - The exception thrown.
+     * @return - The result the exception stands for.
+     */
+    public static StatusResult failure(Throwable ex) {
+        if ( ex instanceof HttpStatusCodeException ) return forStatus(((HttpStatusCodeException) ex).getRawStatusCode(), ex.getMessage());
+        if ( ex instanceof ResourceAccessException ) return unavailable(ex.getMessage());
+        return fatal(ex.getMessage());
+    }
+
+    static Outcome outcomeOf(int httpStatus) {
+        if ( httpStatus >= 200 && httpStatus < 300 ) return Outcome.SUCCESS;
+        if ( httpStatus == 404 ) return Outcome.NOT_FOUND;
+        if ( httpStatus == 408 || httpStatus == 429 || httpStatus >= 500 ) return Outcome.TRANSIENT;
+        return Outcome.FATAL;
+    }
+
+    public boolean isSuccess() {
+        return this.outcome == Outcome.SUCCESS;
+    }
+
+    /**
+     * Records a failure on the account's message, the same way an exception message was recorded before.
+     * @param account - The account that was looked up.
+     * @return - The account.
+     */
+    public Account applyTo(Account account) {
+        if ( !isSuccess() && !Objects.isNull(account) ) account.setMessage(this.message);
+        return account;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusResult{" +
+                "outcome=" + outcome +
+                ", httpStatus=" + httpStatus +
+                ", message='" + message + '\'' +
+                '}';
+    }
+
+}
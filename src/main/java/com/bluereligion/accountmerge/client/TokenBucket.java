@@ -0,0 +1,104 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * A token bucket holding up to burst permits, refilled at permitsPerSecond. It is shared by every consumer so that
+ * together they never send more than the quota of the REST Api.
+ *
+ * A caller that finds the bucket empty reserves the next permit to be refilled and sleeps until it is due, so the
+ * waiting callers are spaced out at the refill rate rather than all waking together.
+ *
+ * pause() stops handing out permits for a while, as asked for by a Retry-After header. The bucket is emptied and
+ * does not refill during the pause.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final Ticker ticker;
+
+    private double permits;
+    private long refilledAt;
+    private long pausedUntil;
+
+
+    /**
+     * @param permitsPerSecond - The rate the bucket is refilled at.
+     * @param burst - The most permits the bucket holds, so the most requests sent at once after an idle period.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    /**
+     * @param permitsPerSecond - The rate the bucket is refilled at.
+     * @param burst - The most permits the bucket holds, so the most requests sent at once after an idle period.
+     * @param ticker - The source of the time the bucket is refilled by.
+     */
+    public TokenBucket(double permitsPerSecond, int burst, Ticker ticker) {
+        if ( permitsPerSecond <= 0 ) throw new IllegalArgumentException(String.format("permitsPerSecond %f must be above 0.", permitsPerSecond));
+
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.ticker = ticker;
+        this.permits = this.burst;
+        this.refilledAt = ticker.read();
+        this.pausedUntil = this.refilledAt;
+    }
+
+    /**
+     * Takes a permit, waiting for it to be refilled when the bucket is empty.
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if ( waitNanos > 0 ) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Takes a permit, borrowing it from the future when the bucket is empty.
+     * @return - How long the caller must wait before using the permit, in nanoseconds.
+     */
+    public synchronized long reserve() {
+        long now = this.ticker.read();
+        refill(now);
+
+        this.permits -= 1;
+        // During a pause the refill only starts once the pause is over.
+        long refillWait = ( this.permits >= 0 ) ? 0 : Math.max(0, this.refilledAt - now) + (long) Math.ceil(-this.permits / this.permitsPerNano);
+        return Math.max(this.pausedUntil - now, refillWait);
+    }
+
+    /**
+     * Hands out no permits until the pause is over. A shorter pause than one already in force has no effect.
+     * @param pauseNanos - How long to pause for.
+     */
+    public synchronized void pause(long pauseNanos) {
+        long until = this.ticker.read() + pauseNanos;
+        if ( until - this.pausedUntil <= 0 ) return;
+
+        this.pausedUntil = until;
+        this.refilledAt = until;
+        this.permits = Math.min(this.permits, 0);
+    }
+
+    private void refill(long now) {
+        if ( now - this.refilledAt <= 0 ) return;
+        this.permits = Math.min(this.burst, this.permits + ( now - this.refilledAt ) * this.permitsPerNano);
+        this.refilledAt = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TokenBucket{" +
+                "permitsPerSecond=" + permitsPerNano * TimeUnit.SECONDS.toNanos(1) +
+                ", burst=" + (int) burst +
+                ", permits=" + String.format("%.2f", permits) +
+                '}';
+    }
+
+}
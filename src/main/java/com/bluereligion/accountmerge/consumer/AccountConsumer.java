@@ -1,17 +1,25 @@
 package com.bluereligion.accountmerge.consumer;
 
 import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.BlockingQueue;
 
 import com.google.common.base.Strings;
 
 import com.bluereligion.accountmerge.util.AccountMergeUtils;
+import com.bluereligion.accountmerge.util.RowTrace;
 import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +29,8 @@ import org.slf4j.LoggerFactory;
  * This class writes the account information to a file in .csv format and reading from a queue.
  * This is implemented by implementing Callable and using a BlockingQueue.
  *
+ * While the PipelineEvents are enabled every write of the buffered output to the file is recorded as a WRITER_FLUSH event.
+ *
  * @see https://docs.oracle.com/javase/8/docs/api/index.html?java/util/concurrent/Callable.html
  * @see https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/BlockingQueue.html
  */
@@ -29,21 +39,36 @@ public class AccountConsumer
 
     private String outboundFilePath;
     private Charset characterSet;
-    private BlockingQueue<Account> accountsQueue;
+    private StreamChannel<Account> accountsQueue;
+    private PipelineMetrics metrics;
 
+    private static final int BATCH_SIZE = 256; // The most accounts taken from the queue at once.
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountConsumer.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
+
 
+    /**
+     * Initializes the consumer.
+     * @param accountsQueue - The queue to read from.
+     * @param outboundFilePath - The file to write to.
+     * @param characterSet - The characterset to apply.
+     */
+    public AccountConsumer(StreamChannel<Account> accountsQueue, String outboundFilePath, Charset characterSet) {
+        this(accountsQueue, outboundFilePath, characterSet, new PipelineMetrics());
+    }
 
     /**
      * Initializes the consumer.
      * @param accountsQueue - The queue to read from.
      * @param outboundFilePath - The file to write to.
      * @param characterSet - The characterset to apply.
+     * @param metrics - Records the time taken to write each account.
      */
-    public AccountConsumer(BlockingQueue<Account> accountsQueue, String outboundFilePath, Charset characterSet) {
+    public AccountConsumer(StreamChannel<Account> accountsQueue, String outboundFilePath, Charset characterSet, PipelineMetrics metrics) {
         this.accountsQueue = accountsQueue;
         this.outboundFilePath = outboundFilePath;
         this.characterSet = characterSet;
+        this.metrics = metrics;
     }
 
     /**
@@ -54,34 +79,72 @@ public class AccountConsumer
      */
     public Integer call() throws InterruptedException, IOException {
         LOGGER.debug("Inbound process beginning.");
-        LOGGER.debug(String.format("Using outboundFilePath=%s and characterSet=%s", outboundFilePath, characterSet.toString()));
+        LOGGER.debug("Using outboundFilePath={} and characterSet={}", outboundFilePath, characterSet);
 
-        Account account;
-        try ( BufferedWriter writer = Files.newBufferedWriter(Paths.get(outboundFilePath), characterSet) ) {
+        List<Account> accounts = new ArrayList<>(BATCH_SIZE);
+        boolean endOfQueue = false;
+        try ( BufferedWriter writer = newWriter() ) {
 
             writer.write(AccountMergeUtils.getOutboundHeaderRecord());
             writer.newLine();
 
-            while (true) {
-                account = accountsQueue.take();
-                LOGGER.debug(String.format("Next item taken from queue=%s",account));
+            while ( !endOfQueue ) {
+                accounts.clear();
+                accounts.add(accountsQueue.take());
+                accountsQueue.drainTo(accounts, BATCH_SIZE - 1);
 
-                if ( account.equals(AccountMergeUtils.getPoisonAccount()) ) {
-                    LOGGER.debug("End of account queue has been reached, returning.");
-                    writer.close();
-                    break;
-                }
+                for ( Account account : accounts ) {
+                    if ( TRACE.sample(account) ) LOGGER.debug("Next item taken from queue={}", account);
+
+                    if ( accountsQueue.isEnd(account) ) { // Only put once every row consumer has completed.
+                        endOfQueue = true;
+                        continue;
+                    }
 
-                String s = AccountMergeUtils.createDelimintaedRow(account);
-                LOGGER.debug(String.format("Writing the following account information to outbound=%s",s));
+                    long start = System.nanoTime();
+                    String s = AccountMergeUtils.createDelimintaedRow(account);
+                    if ( TRACE.sample(account) ) LOGGER.debug("Writing the following account information to outbound={}", s);
 
-                if ( !Strings.isNullOrEmpty(s) ) {
-                    writer.write(s);
-                    writer.newLine();
+                    if ( !Strings.isNullOrEmpty(s) ) {
+                        writer.write(s);
+                        writer.newLine();
+                    }
+                    this.metrics.recordWrite(System.nanoTime() - start);
                 }
             }
+            LOGGER.debug("End of account queue has been reached, returning.");
         }
         return 0; // success
     }
 
+    /**
+     * @return - The writer to the outbound file. The same writer Files.newBufferedWriter returns, over a stream that
+     *           records its writes when the PipelineEvents are enabled.
+     * @throws IOException
+     */
+    private BufferedWriter newWriter() throws IOException {
+        if ( !PipelineEvents.isEnabled() ) return Files.newBufferedWriter(Paths.get(outboundFilePath), characterSet);
+        OutputStream out = new FlushRecordingOutputStream(Files.newOutputStream(Paths.get(outboundFilePath)));
+        return new BufferedWriter(new OutputStreamWriter(out, characterSet.newEncoder()));
+    }
+
+    /**
+     * Records a WRITER_FLUSH event for every write that reaches the file. The writers above it buffer the rows, so
+     * each write is a buffer full of them.
+     */
+    private static class FlushRecordingOutputStream
+            extends FilterOutputStream {
+
+        FlushRecordingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            PipelineEvents.Span flush = PipelineEvents.begin(PipelineEvents.Kind.WRITER_FLUSH).bytes(len);
+            this.out.write(b, off, len);
+            flush.commit();
+        }
+    }
+
 }
@@ -0,0 +1,150 @@
+package com.bluereligion.accountmerge.consumer;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Strings;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import com.bluereligion.accountmerge.client.ReactiveAccountStatusClient;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+import com.bluereligion.accountmerge.util.RowTrace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A non-blocking alternative to running several RowConsumers. Rows are read from the queue on a single thread,
+ * parsed into accounts and enriched through the ReactiveAccountStatusClient with up to maxInFlightLookups requests
+ * outstanding at once. Completed accounts are handed to the AccountConsumer's queue from a single writer thread so that
+ * a full queue never blocks the event loop.
+ *
+ * Only one ReactiveRowConsumer is run per pipeline, so exactly one end marker is expected on the rows queue.
+ *
+ * @see https://projectreactor.io/docs/core/release/reference/
+ */
+public class ReactiveRowConsumer
+        implements Callable<Integer> {
+
+    private StreamChannel<String> rowsQueue;
+    private StreamChannel<Account> accountsQueue;
+    private ReactiveAccountStatusClient accountStatusClient;
+    private int maxInFlightLookups;
+    private PipelineMetrics metrics;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveRowConsumer.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
+
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The non-blocking client used to call the REST Api.
+     * @param maxInFlightLookups - The maximum number of REST Api requests outstanding at once.
+     */
+    public ReactiveRowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, ReactiveAccountStatusClient accountStatusClient, Integer maxInFlightLookups) {
+        this(rowsQueue, accountsQueue, accountStatusClient, maxInFlightLookups, new PipelineMetrics());
+    }
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The non-blocking client used to call the REST Api.
+     * @param maxInFlightLookups - The maximum number of REST Api requests outstanding at once.
+     * @param metrics - Records the time taken to parse each row and by each lookup.
+     */
+    public ReactiveRowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, ReactiveAccountStatusClient accountStatusClient, Integer maxInFlightLookups,
+                               PipelineMetrics metrics) {
+        this.rowsQueue = rowsQueue;
+        this.accountsQueue = accountsQueue;
+        this.accountStatusClient = accountStatusClient;
+        this.maxInFlightLookups = maxInFlightLookups;
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Runs the process.  Reads from the queue and enriches the accounts until the queue is completed.
+     * @return 0 = Sucess;
+     * @throws InterruptedException
+     */
+    public Integer call() throws InterruptedException {
+
+        Scheduler reader = Schedulers.newSingle("row-reader");
+        Scheduler writer = Schedulers.newSingle("account-writer");
+
+        try {
+            Long count = Flux.<String>generate(sink -> {
+                        try {
+                            String s = rowsQueue.take();
+                            if ( TRACE.sample(s) ) LOGGER.debug("Next item taken from queue={}", s);
+
+                            if ( rowsQueue.isEnd(s) ) sink.complete();
+                            else sink.next(s);
+                        }
+                        catch (InterruptedException ex) {
+                            sink.error(ex);
+                        }
+                    })
+                    .subscribeOn(reader)
+                    .<Account>handle((s, sink) -> {
+                        long start = System.nanoTime();
+                        Account account = RowConsumer.parseAccount(s);
+                        this.metrics.recordParse(System.nanoTime() - start);
+                        if ( !Objects.isNull(account) ) sink.next(account);
+                        else LOGGER.debug("Account returned from parseAccount was null.");
+                    })
+                    .flatMap(account -> Strings.isNullOrEmpty(account.getMessage())
+                            ? timedLookup(account)
+                            : Flux.just(account), this.maxInFlightLookups)
+                    .publishOn(writer)
+                    .doOnNext(account -> {
+                        try {
+                            if ( TRACE.sample(account) ) LOGGER.debug("Adding account to queue={}", account);
+                            accountsQueue.put(account);
+                        }
+                        catch (InterruptedException ex) {
+                            throw Exceptions.propagate(ex);
+                        }
+                    })
+                    .count()
+                    .block();
+
+            LOGGER.debug("End of rows queue has been reached after {} accounts, returning.", count);
+        }
+        catch (RuntimeException ex) {
+            Throwable cause = Exceptions.unwrap(ex);
+            if ( cause instanceof InterruptedException ) throw (InterruptedException) cause;
+            throw ex;
+        }
+        finally {
+            reader.dispose();
+            writer.dispose();
+        }
+
+        accountsQueue.complete();
+        return 0; // success
+    }
+
+    /**
+     * @param account - The account to enrich.
+     * @return - The lookup, timed from when it is subscribed to until it completes or fails.
+     */
+    private Mono<Account> timedLookup(Account account) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return this.accountStatusClient.callService(account).doFinally(signal -> this.metrics.recordLookup(System.nanoTime() - start));
+        });
+    }
+
+}
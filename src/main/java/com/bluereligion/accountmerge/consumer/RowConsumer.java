@@ -1,14 +1,19 @@
 package com.bluereligion.accountmerge.consumer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.BlockingQueue;
 
 import com.google.common.base.Strings;
 
 import com.bluereligion.accountmerge.util.AccountMergeUtils;
+import com.bluereligion.accountmerge.util.RowTrace;
 import com.bluereligion.accountmerge.client.AccountStatusClient;
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
 import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,17 +24,23 @@ import org.slf4j.LoggerFactory;
  * Will then call the Account REST API to request additional information.
  * Places the completed accounts into another queue to be writtent to a file.
  *
+ * Rows are taken from the queue in batches of up to batchSize so that the accounts can be resolved
+ * with a single bulk request to the REST API.
+ *
  * @see https://docs.oracle.com/javase/8/docs/api/index.html?java/util/concurrent/Callable.html
  * @see https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/BlockingQueue.html
  */
 public class RowConsumer
         implements Callable<Integer> {
 
-    private BlockingQueue<String> rowsQueue;
-    private BlockingQueue<Account> accountsQueue;
-    private AccountStatusClient accountStatusClient;
+    private StreamChannel<String> rowsQueue;
+    private StreamChannel<Account> accountsQueue;
+    private AccountStatusLookup accountStatusClient;
+    private int batchSize;
+    private PipelineMetrics metrics;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RowConsumer.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
 
 
     /**
@@ -38,10 +49,36 @@ public class RowConsumer
      * @param accountsQueue - The queue to write to.
      * @param restStatusApi - The url to the REST Api.
      */
-    public RowConsumer(BlockingQueue<String> rowsQueue, BlockingQueue<Account> accountsQueue, String restStatusApi) {
+    public RowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, String restStatusApi) {
+        this(rowsQueue, accountsQueue, new AccountStatusClient(restStatusApi), 1);
+    }
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The client used to call the REST Api, possibly wrapped by a cache.
+     * @param batchSize - The maximum number of rows resolved together. 1 disables batching.
+     */
+    public RowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, AccountStatusLookup accountStatusClient, Integer batchSize) {
+        this(rowsQueue, accountsQueue, accountStatusClient, batchSize, new PipelineMetrics());
+    }
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The client used to call the REST Api, possibly wrapped by a cache.
+     * @param batchSize - The maximum number of rows resolved together. 1 disables batching.
+     * @param metrics - Records the time taken to parse each row and by each lookup.
+     */
+    public RowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, AccountStatusLookup accountStatusClient, Integer batchSize,
+                       PipelineMetrics metrics) {
         this.rowsQueue = rowsQueue;
         this.accountsQueue = accountsQueue;
-        this.accountStatusClient = new AccountStatusClient(restStatusApi);
+        this.accountStatusClient = accountStatusClient;
+        this.batchSize = Math.max(1, Objects.isNull(batchSize) ? 1 : batchSize);
+        this.metrics = metrics;
     }
 
 
@@ -52,38 +89,61 @@ public class RowConsumer
      */
     public Integer call() throws InterruptedException {
 
-        while ( true ) {
-            String s = rowsQueue.take();
-            LOGGER.debug(String.format("Next item taken from queue=%s",s));
+        List<String> rows = new ArrayList<>(this.batchSize);
+        List<Account> accounts = new ArrayList<>(this.batchSize);
+        boolean endOfQueue = false;
 
-            if ( !Strings.isNullOrEmpty(s) && s.equals(AccountMergeUtils.EOF_MARKER) ) {
-                LOGGER.debug("End of rows queue has been reached, returning.");
-                accountsQueue.put(AccountMergeUtils.getPoisonAccount());
-                break;
+        while ( !endOfQueue ) {
+            rows.clear();
+            accounts.clear();
+
+            rows.add(rowsQueue.take());
+            if ( this.batchSize > 1 ) rowsQueue.drainTo(rows, this.batchSize - 1);
+
+            int markers = 0;
+            for ( String s : rows ) {
+                if ( TRACE.sample(s) ) LOGGER.debug("Next item taken from queue={}", s);
+
+                if ( rowsQueue.isEnd(s) ) {
+                    markers++;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                final Account account = parseAccount(s);
+                this.metrics.recordParse(System.nanoTime() - start);
+                if ( !Objects.isNull(account) ) accounts.add(account);
+                else LOGGER.debug("Account returned from parseAccount was null.");
             }
 
-            final Account account = createAccount(s);
+            if ( !accounts.isEmpty() && TRACE.sample(accounts.get(0)) ) LOGGER.debug("Adding {} accounts to queue", accounts.size());
+            accountsQueue.putAll(lookupStatuses(accounts));
 
-            LOGGER.debug(String.format("Adding account to queue=%s",account));
-            if ( !Objects.isNull(account) ) accountsQueue.put(account);
-            else LOGGER.debug("Account returned from createAccount was null.");
+            if ( markers > 0 ) {
+                // Every consumer needs its own marker. Hand back any that were drained on behalf of the other consumers.
+                rowsQueue.handBack(markers - 1);
+                endOfQueue = true;
+            }
         }
+
+        LOGGER.debug("End of rows queue has been reached, returning.");
+        accountsQueue.complete();
         return 0; // success
     }
 
 
     /**
      * @param s - The comma delimited row from the inbound file.
-     * @return - The fully loaded account with the available details.
+     * @return - The parsed account. If the id is not valid the account is returned with a message.
      */
-    private final Account createAccount(String s) {
+    static Account parseAccount(String s) {
 
-        LOGGER.debug(String.format("Creating account using s=%s",s));
+        if ( TRACE.sample(s) ) LOGGER.debug("Creating account using s={}", s);
         if ( Strings.isNullOrEmpty(s) ) return null;
 
         Account account = AccountMergeUtils.parseAccount(s);
         if ( Objects.isNull(account) ) {
-            LOGGER.debug(String.format("Account failed to parse and was returned as null using this string input=%s", s));
+            LOGGER.debug("Account failed to parse and was returned as null using this string input={}", s);
             return null;
         }
 
@@ -91,16 +151,29 @@ public class RowConsumer
             String msg = String.format("Account does not have a valid ID=%s", account.getId());
             LOGGER.debug(msg);
             account.setMessage(msg);
-            return account;
         }
+        return account;
+    }
+
 
-        try {
-            account = this.accountStatusClient.callService(account);
+    /**
+     * Calls the REST Api for every account that parsed with a valid id.
+     * @param accounts - The parsed accounts.
+     * @return - The accounts loaded with the available details.
+     */
+    private final List<Account> lookupStatuses(List<Account> accounts) {
+
+        List<Account> lookups = new ArrayList<>(accounts.size());
+        for ( Account account : accounts ) {
+            if ( Strings.isNullOrEmpty(account.getMessage()) ) lookups.add(account);
         }
-        catch(Exception ex) {
-            account.setMessage(ex.getMessage());
+
+        if ( !lookups.isEmpty() ) {
+            long start = System.nanoTime();
+            this.accountStatusClient.callServiceInBatch(lookups);
+            this.metrics.recordLookupBatch(System.nanoTime() - start);
         }
-        return account;
+        return accounts;
     }
 
 }
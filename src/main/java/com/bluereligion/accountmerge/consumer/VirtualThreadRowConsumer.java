@@ -0,0 +1,177 @@
+package com.bluereligion.accountmerge.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Strings;
+
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+import com.bluereligion.accountmerge.util.RowTrace;
+import com.bluereligion.accountmerge.util.VirtualThreads;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An alternative to running several RowConsumers that keeps the blocking AccountStatusLookup. Rows are read from the
+ * queue on a single thread and parsed into accounts, and every lookup then runs on a virtual thread of its own.
+ * A blocked virtual thread does not hold an OS thread, so thousands of lookups can be outstanding at once.
+ *
+ * The number of lookups outstanding is bounded by a semaphore of maxInFlightLookups permits rather than by a thread count.
+ * The reader waits for a permit before starting the next lookup, so a slow REST Api still holds back the reader.
+ * Each lookup puts its accounts on the accounts queue itself once it has completed.
+ *
+ * Only one VirtualThreadRowConsumer is run per pipeline, so exactly one end marker is expected on the rows queue.
+ * On a JVM without virtual threads each lookup runs on a platform thread of its own instead.
+ */
+public class VirtualThreadRowConsumer
+        implements Callable<Integer> {
+
+    private StreamChannel<String> rowsQueue;
+    private StreamChannel<Account> accountsQueue;
+    private AccountStatusLookup accountStatusClient;
+    private int batchSize;
+    private int maxInFlightLookups;
+    private PipelineMetrics metrics;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadRowConsumer.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
+
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The client used to call the REST Api, possibly wrapped by a cache.
+     * @param batchSize - The maximum number of rows resolved together by a single lookup. 1 disables batching.
+     * @param maxInFlightLookups - The maximum number of lookups outstanding at once.
+     */
+    public VirtualThreadRowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, AccountStatusLookup accountStatusClient,
+                                    Integer batchSize, Integer maxInFlightLookups) {
+        this(rowsQueue, accountsQueue, accountStatusClient, batchSize, maxInFlightLookups, new PipelineMetrics());
+    }
+
+    /**
+     * Initializes the consumer.
+     * @param rowsQueue - The queue to read from.
+     * @param accountsQueue - The queue to write to.
+     * @param accountStatusClient - The client used to call the REST Api, possibly wrapped by a cache.
+     * @param batchSize - The maximum number of rows resolved together by a single lookup. 1 disables batching.
+     * @param maxInFlightLookups - The maximum number of lookups outstanding at once.
+     * @param metrics - Records the time taken to parse each row and by each lookup.
+     */
+    public VirtualThreadRowConsumer(StreamChannel<String> rowsQueue, StreamChannel<Account> accountsQueue, AccountStatusLookup accountStatusClient,
+                                    Integer batchSize, Integer maxInFlightLookups, PipelineMetrics metrics) {
+        this.rowsQueue = rowsQueue;
+        this.accountsQueue = accountsQueue;
+        this.accountStatusClient = accountStatusClient;
+        this.batchSize = Math.max(1, Objects.isNull(batchSize) ? 1 : batchSize);
+        this.maxInFlightLookups = Math.max(1, maxInFlightLookups);
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Runs the process.  Reads from the queue and enriches the accounts until the queue is completed.
+     * @return 0 = Sucess;
+     * @throws InterruptedException
+     * @throws ExecutionException - Thrown when a lookup fails. The lookups still outstanding are interrupted.
+     */
+    public Integer call() throws InterruptedException, ExecutionException {
+
+        Semaphore inFlight = new Semaphore(this.maxInFlightLookups);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService executorService = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        long lookups = 0;
+
+        try {
+            List<String> rows = new ArrayList<>(this.batchSize);
+            boolean endOfQueue = false;
+
+            while ( !endOfQueue ) {
+                rows.clear();
+                rows.add(rowsQueue.take());
+                if ( this.batchSize > 1 ) rowsQueue.drainTo(rows, this.batchSize - 1);
+
+                List<Account> accounts = new ArrayList<>(rows.size());
+                for ( String s : rows ) {
+                    if ( TRACE.sample(s) ) LOGGER.debug("Next item taken from queue={}", s);
+
+                    if ( rowsQueue.isEnd(s) ) {
+                        endOfQueue = true;
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    final Account account = RowConsumer.parseAccount(s);
+                    this.metrics.recordParse(System.nanoTime() - start);
+                    if ( !Objects.isNull(account) ) accounts.add(account);
+                    else LOGGER.debug("Account returned from parseAccount was null.");
+                }
+                if ( accounts.isEmpty() ) continue;
+
+                inFlight.acquire();
+                throwIfFailed(failure);
+                executorService.execute(() -> {
+                    try {
+                        accountsQueue.putAll(lookupStatuses(accounts));
+                    }
+                    catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                    finally {
+                        inFlight.release();
+                    }
+                });
+                lookups++;
+            }
+
+            // Every permit is back once the last of the lookups has put its accounts.
+            inFlight.acquire(this.maxInFlightLookups);
+            throwIfFailed(failure);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        LOGGER.debug("End of rows queue has been reached after {} lookups, returning.", lookups);
+        accountsQueue.complete();
+        return 0; // success
+    }
+
+    private static void throwIfFailed(AtomicReference<Throwable> failure) throws ExecutionException {
+        Throwable ex = failure.get();
+        if ( !Objects.isNull(ex) ) throw new ExecutionException("An account status lookup failed.", ex);
+    }
+
+    /**
+     * Calls the REST Api for every account that parsed with a valid id.
+     * @param accounts - The parsed accounts.
+     * @return - The accounts loaded with the available details.
+     */
+    private List<Account> lookupStatuses(List<Account> accounts) {
+
+        List<Account> lookups = new ArrayList<>(accounts.size());
+        for ( Account account : accounts ) {
+            if ( Strings.isNullOrEmpty(account.getMessage()) ) lookups.add(account);
+        }
+
+        if ( !lookups.isEmpty() ) {
+            long start = System.nanoTime();
+            this.accountStatusClient.callServiceInBatch(lookups);
+            this.metrics.recordLookupBatch(System.nanoTime() - start);
+        }
+        return accounts;
+    }
+
+}
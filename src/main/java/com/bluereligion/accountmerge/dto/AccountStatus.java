@@ -0,0 +1,106 @@
+package com.bluereligion.accountmerge.dto;
+
+import java.util.Objects;
+
+/**
+ * AccountStatus class
+ *
+ * The status details returned by the Account REST api for a single account, along with when they were fetched.
+ *
+ */
+public class AccountStatus {
+
+    private final String status;
+    public String getStatus() { return status; }
+
+    private final String statusSetOn;
+    public String getStatusSetOn() { return statusSetOn; }
+
+    /**
+     *  When the status was fetched from the api, in epoch milliseconds.
+     */
+    private final long fetchedOn;
+    public long getFetchedOn() { return fetchedOn; }
+
+    /**
+     * Copies the status details onto the account.
+     * @param account - The account requiring additional information.
+     * @return - The account with the additional details added.
+     */
+    public Account applyTo(Account account) {
+        account.setStatus(this.status);
+        account.setStatusSetOn(this.statusSetOn);
+        return account;
+    }
+
+    /**
+     * @param account - An account that has been loaded with its status.
+     * @param fetchedOn - When the status was fetched, in epoch milliseconds.
+     * @return - The status details held by the account.
+     */
+    public static AccountStatus of(Account account, long fetchedOn) {
+        return new AccountStatusBuilder()
+                .status(account.getStatus())
+                .statusSetOn(account.getStatusSetOn())
+                .fetchedOn(fetchedOn)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "AccountStatus{" +
+                "status='" + status + '\'' +
+                ", statusSetOn='" + statusSetOn + '\'' +
+                ", fetchedOn=" + fetchedOn +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AccountStatus that = (AccountStatus) o;
+        return fetchedOn == that.fetchedOn &&
+                Objects.equals(status, that.status) &&
+                Objects.equals(statusSetOn, that.statusSetOn);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, statusSetOn, fetchedOn);
+    }
+
+    private AccountStatus(AccountStatusBuilder accountStatusBuilder) {
+        this.status = accountStatusBuilder.status;
+        this.statusSetOn = accountStatusBuilder.statusSetOn;
+        this.fetchedOn = accountStatusBuilder.fetchedOn;
+    }
+
+    public static class AccountStatusBuilder {
+
+        private String status;
+        private String statusSetOn;
+        private long fetchedOn;
+
+        public AccountStatusBuilder status(String status) {
+            this.status = status;
+            return this;
+        }
+
+        public AccountStatusBuilder statusSetOn(String statusSetOn) {
+            this.statusSetOn = statusSetOn;
+            return this;
+        }
+
+        public AccountStatusBuilder fetchedOn(long fetchedOn) {
+            this.fetchedOn = fetchedOn;
+            return this;
+        }
+
+        public AccountStatus build() {
+            return new AccountStatus(this);
+        }
+
+    }
+
+}
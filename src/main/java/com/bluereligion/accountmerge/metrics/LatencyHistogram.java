@@ -0,0 +1,121 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds that many threads record into without taking a lock.
+ *
+ * The buckets are laid out the way HdrHistogram lays them out: every power of two is split into SUB_BUCKETS linear
+ * buckets, so any value is counted in a bucket no wider than 1/SUB_BUCKETS (about 3%) of it. Values below 2 * SUB_BUCKETS
+ * nanoseconds each have a bucket of their own and values above MAX_TRACKABLE_NANOS (about 69 seconds) share the last one.
+ *
+ * Each bucket is a LongAdder, so threads recording at once update separate cells instead of contending on one counter.
+ * A percentile is read by walking the buckets. It is an estimate while threads are still recording, and exact to within
+ * a bucket once they have stopped.
+ *
+ * @see http://hdrhistogram.github.io/HdrHistogram/
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+    static final long MAX_TRACKABLE_NANOS = (1L << 36) - 1;
+    private static final int BUCKETS = bucketOf(MAX_TRACKABLE_NANOS) + 1;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) this.counts[i] = new LongAdder();
+    }
+
+    public long getCount() { return count.sum(); }
+    public long getTotalNanos() { return totalNanos.sum(); }
+    public long getMaxNanos() { return maxNanos.get(); }
+
+    /**
+     * @param nanos - The latency to record. A negative latency, from a clock that stepped back, is recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts[bucketOf(Math.min(value, MAX_TRACKABLE_NANOS))].increment();
+        this.count.increment();
+        this.totalNanos.add(value);
+        this.maxNanos.accumulate(value);
+    }
+
+    /**
+     * @return - The mean latency in nanoseconds, or 0 when nothing has been recorded.
+     */
+    public double getMeanNanos() {
+        long recorded = getCount();
+        return ( recorded == 0 ) ? 0 : getTotalNanos() / (double) recorded;
+    }
+
+    /**
+     * @param percentile - The percentile, between 0 and 100.
+     * @return - The highest latency counted in the bucket the percentile falls in, never more than the largest latency
+     *           recorded. 0 when nothing has been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts[i].sum();
+            recorded += snapshot[i];
+        }
+        if ( recorded == 0 ) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if ( seen >= rank ) return Math.min(highestValueIn(i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * @param value - A latency between 0 and MAX_TRACKABLE_NANOS.
+     * @return - The index of the bucket the latency is counted in.
+     */
+    static int bucketOf(long value) {
+        if ( value < LINEAR_BUCKETS ) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS; // At least 1 above the linear buckets.
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param bucket - The index of a bucket.
+     * @return - The highest latency counted in the bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if ( bucket < LINEAR_BUCKETS ) return bucket;
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", meanUs=" + micros(getMeanNanos()) +
+                ", p50Us=" + micros(getPercentileNanos(50)) +
+                ", p99Us=" + micros(getPercentileNanos(99)) +
+                ", p999Us=" + micros(getPercentileNanos(99.9)) +
+                ", maxUs=" + micros(getMaxNanos()) +
+                '}';
+    }
+
+    private static String micros(double nanos) {
+        return String.format("%.1f", nanos / TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+}
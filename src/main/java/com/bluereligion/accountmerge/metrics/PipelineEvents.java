@@ -0,0 +1,141 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The events the pipeline emits for JDK Flight Recorder: a batch of rows read, a request to the status API, a wait on a
+ * full or empty queue and a write of the outbound file reaching the disk.
+ *
+ * The build targets Java 8, so the events themselves are compiled from src/java11 and looked up reflectively by
+ * enable(). Until then, or on a JVM without Flight Recorder, begin() returns a span that does nothing and the stages
+ * pay a single volatile read per event. Once enabled the events cost little while no recording is running, but each
+ * is still created and timed, so they are only enabled when asked for: by application.jfr.enabled, by --jfr, or by a
+ * recording the JVM was started with, ie -XX:StartFlightRecording.
+ *
+ * A stage begins a span before the work, sets the fields that apply to the kind of event and commits it after the work.
+ * The duration of the event is the time between the two.
+ *
+ * @see https://docs.oracle.com/en/java/javase/11/docs/api/jdk.jfr/jdk/jfr/Event.html
+ */
+public final class PipelineEvents {
+
+    /**
+     * The kinds of event.
+     *  - ROW_BATCH_READ: A batch of rows read from the inbound file by the producer. Sets rows and bytes.
+     *  - STATUS_CALL: A request to the status API. Sets accountId (0 for a bulk request), accounts, endpoint, outcome and httpStatus.
+     *  - QUEUE_WAIT: A stage held up by a full or empty queue. Sets queue and operation.
+     *  - WRITER_FLUSH: Buffered output written to the outbound file. Sets bytes.
+     */
+    public enum Kind { ROW_BATCH_READ, STATUS_CALL, QUEUE_WAIT, WRITER_FLUSH }
+
+    /**
+     * An event in progress. The fields that do not apply to the kind of event are ignored.
+     */
+    public interface Span {
+        default Span rows(int rows) { return this; }
+        default Span bytes(long bytes) { return this; }
+        default Span accountId(long accountId) { return this; }
+        default Span accounts(int accounts) { return this; }
+        default Span endpoint(String endpoint) { return this; }
+        default Span outcome(String outcome) { return this; }
+        default Span httpStatus(int httpStatus) { return this; }
+        default Span queue(String queue) { return this; }
+        default Span operation(String operation) { return this; }
+
+        /**
+         * Ends the event and commits it to the recordings that have it enabled.
+         */
+        void commit();
+    }
+
+    /**
+     * Creates the events. Implemented on top of Flight Recorder by JfrPipelineEvents.
+     */
+    public interface Recorder {
+
+        Span begin(Kind kind);
+
+        /**
+         * @param file - The file the recording is written to once it is closed.
+         * @return - The recording, already started.
+         * @throws IOException
+         */
+        Closeable startRecording(Path file) throws IOException;
+
+        /**
+         * @return - True when a Flight Recorder recording is running.
+         */
+        boolean isRecording();
+    }
+
+    static final String JFR_RECORDER = "com.bluereligion.accountmerge.metrics.JfrPipelineEvents";
+    private static final Span NONE = () -> {};
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineEvents.class);
+
+    private static volatile Recorder recorder;
+
+    private PipelineEvents() {}
+
+    public static boolean isEnabled() { return !Objects.isNull(recorder); }
+
+    /**
+     * @param kind - The kind of event.
+     * @return - The event, begun. A span that does nothing when the events are not enabled.
+     */
+    public static Span begin(Kind kind) {
+        Recorder current = recorder;
+        return Objects.isNull(current) ? NONE : current.begin(kind);
+    }
+
+    /**
+     * Starts emitting the events, when the JVM supports Flight Recorder.
+     * @return - True when the events are enabled.
+     */
+    public static synchronized boolean enable() {
+        if ( isEnabled() ) return true;
+        try {
+            recorder = (Recorder) Class.forName(JFR_RECORDER).getConstructor().newInstance();
+            return true;
+        }
+        catch (ReflectiveOperationException | LinkageError ex) {
+            LOGGER.debug(String.format("Flight Recorder events need Java 11 or later, running on Java %s. Error=%s", System.getProperty("java.version"), ex));
+            return false;
+        }
+    }
+
+    public static synchronized void disable() {
+        recorder = null;
+    }
+
+    /**
+     * Enables the events only when a Flight Recorder recording is already running, ie one the JVM was started with,
+     * and otherwise disables them.
+     * @return - True when the events are enabled.
+     */
+    public static synchronized boolean enableIfRecording() {
+        if ( enable() && !recorder.isRecording() ) disable();
+        return isEnabled();
+    }
+
+    /**
+     * Enables the events and starts a Flight Recorder recording of the run, with the JVM's default settings.
+     * @param file - The file the recording is written to once it is closed.
+     * @return - The recording, or null when the JVM does not support Flight Recorder.
+     * @throws IOException
+     */
+    public static Closeable startRecording(Path file) throws IOException {
+        if ( !enable() ) {
+            LOGGER.warn(String.format("A Flight Recorder recording needs Java 11 or later, running on Java %s. Not recording %s.", System.getProperty("java.version"), file));
+            return null;
+        }
+        return recorder.startRecording(file);
+    }
+
+}
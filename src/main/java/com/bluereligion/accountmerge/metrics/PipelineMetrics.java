@@ -0,0 +1,265 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+
+/**
+ * What each stage of a run has done, for finding the stage that holds the others back.
+ *  - Rows read, parsed, enriched and written. Read and enriched are the elements put on the rows and accounts channels.
+ *  - The bytes of the inbound file read by the producer, against the size of the file.
+ *  - The depth of the rows and accounts queues, sampled every sampleIntervalMs while the run is started.
+ *  - The latency of parsing a row, of a status lookup and of writing an account, in LatencyHistograms. A status lookup
+ *    is timed per request by the reactive engine (lookup) and per batch of lookups by the blocking and virtual
+ *    engines (lookup-batch), which are kept apart so the percentiles of the one are not mixed into the other.
+ *
+ * The stages record into LongAdders, so the consumers running together do not contend on a counter. A full queue ahead
+ * of a stage, with an empty queue behind it, points at that stage.
+ *
+ * The counts are published as accountmerge.pipeline.rows tagged with the stage, the depths as the gauge
+ * accountmerge.pipeline.queue.depth tagged with the queue, and the latencies as the timer accountmerge.pipeline.latency
+ * tagged with the stage, with its percentiles as accountmerge.pipeline.latency.percentile.
+ * toString() is the report logged at the end of the run. The meters stay in the registry until unbind() is called.
+ */
+public class PipelineMetrics
+        implements Closeable {
+
+    public static final String ROWS_METRIC = "accountmerge.pipeline.rows";
+    public static final String QUEUE_DEPTH_METRIC = "accountmerge.pipeline.queue.depth";
+    public static final String LATENCY_METRIC = "accountmerge.pipeline.latency";
+    public static final String LATENCY_PERCENTILE_METRIC = "accountmerge.pipeline.latency.percentile";
+
+    private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram lookup = new LatencyHistogram();
+    private final LatencyHistogram lookupBatch = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final QueueDepth rowsDepth = new QueueDepth();
+    private final QueueDepth accountsDepth = new QueueDepth();
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile long inboundBytes;
+
+    private final long sampleIntervalMs;
+    private volatile StreamChannel<?> rows;
+    private volatile StreamChannel<?> accounts;
+    private volatile long startNanos;
+    private volatile long stopNanos;
+    private ScheduledExecutorService sampler;
+    private MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+
+
+    public PipelineMetrics() {
+        this(100);
+    }
+
+    /**
+     * @param sampleIntervalMs - How often the depth of the queues is sampled for the report.
+     */
+    public PipelineMetrics(long sampleIntervalMs) {
+        this.sampleIntervalMs = Math.max(1, sampleIntervalMs);
+    }
+
+    public LatencyHistogram getParse() { return parse; }
+    public LatencyHistogram getLookup() { return lookup; }
+    public LatencyHistogram getLookupBatch() { return lookupBatch; }
+    public LatencyHistogram getWrite() { return write; }
+
+    public long getRowsRead() { return Objects.isNull(rows) ? 0 : rows.getPutCount(); }
+    public long getRowsParsed() { return parse.getCount(); }
+    public long getRowsEnriched() { return Objects.isNull(accounts) ? 0 : accounts.getPutCount(); }
+    public long getRowsWritten() { return write.getCount(); }
+    public int getRowsQueueDepth() { return depthOf(rows); }
+    public int getAccountsQueueDepth() { return depthOf(accounts); }
+    public long getBytesRead() { return bytesRead.sum(); }
+    public long getInboundBytes() { return inboundBytes; }
+
+    /**
+     * @param inboundBytes - The size of the inbound file.
+     */
+    public void setInboundBytes(long inboundBytes) { this.inboundBytes = inboundBytes; }
+
+    public void recordParse(long nanos) { this.parse.record(nanos); }
+    public void recordLookup(long nanos) { this.lookup.record(nanos); }
+    public void recordLookupBatch(long nanos) { this.lookupBatch.record(nanos); }
+    public void recordWrite(long nanos) { this.write.record(nanos); }
+    public void recordBytesRead(long bytes) { this.bytesRead.add(bytes); }
+
+    /**
+     * @param rows - The channel the rows are read onto.
+     * @param accounts - The channel the enriched accounts are put on.
+     */
+    public void watch(StreamChannel<?> rows, StreamChannel<?> accounts) {
+        this.rows = rows;
+        this.accounts = accounts;
+    }
+
+    /**
+     * Starts the clock the rates are measured against and the sampling of the queue depths.
+     */
+    public synchronized void start() {
+        this.startNanos = System.nanoTime();
+        this.stopNanos = 0;
+        if ( !Objects.isNull(this.sampler) ) return;
+
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampler.scheduleAtFixedRate(() -> {
+            this.rowsDepth.sample(getRowsQueueDepth());
+            this.accountsDepth.sample(getAccountsQueueDepth());
+        }, 0, this.sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the clock and the sampling. The counts and latencies stay readable.
+     */
+    @Override
+    public synchronized void close() {
+        if ( this.startNanos != 0 && this.stopNanos == 0 ) this.stopNanos = System.nanoTime();
+        if ( !Objects.isNull(this.sampler) ) {
+            this.sampler.shutdownNow();
+            this.sampler = null;
+        }
+    }
+
+    /**
+     * @return - The seconds since start(), up to close(). 0 before the run has started.
+     */
+    public double getElapsedSeconds() {
+        long start = this.startNanos;
+        if ( start == 0 ) return 0;
+        long stop = ( this.stopNanos == 0 ) ? System.nanoTime() : this.stopNanos;
+        return (stop - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @param count - A count of rows.
+     * @return - The count per second since the run started.
+     */
+    private double perSecond(long count) {
+        double elapsed = getElapsedSeconds();
+        return ( elapsed <= 0 ) ? 0 : count / elapsed;
+    }
+
+    /**
+     * Publishes the metrics to the registry. A meter already registered under the same name and tags is kept by the
+     * registry, so the previous run must have been unbound for this one's to be published.
+     * @param meterRegistry - The registry the metrics are published to, the application's own or the LoggingMeterRegistry of AccountsService.
+     */
+    public synchronized void bindTo(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        counter(meterRegistry, "read", PipelineMetrics::getRowsRead);
+        counter(meterRegistry, "parsed", PipelineMetrics::getRowsParsed);
+        counter(meterRegistry, "enriched", PipelineMetrics::getRowsEnriched);
+        counter(meterRegistry, "written", PipelineMetrics::getRowsWritten);
+
+        this.meters.add(Gauge.builder(QUEUE_DEPTH_METRIC, this, PipelineMetrics::getRowsQueueDepth)
+                .description("The rows read and not yet taken by a row consumer.")
+                .tag("queue", "rows")
+                .register(meterRegistry));
+        this.meters.add(Gauge.builder(QUEUE_DEPTH_METRIC, this, PipelineMetrics::getAccountsQueueDepth)
+                .description("The accounts enriched and not yet taken by the writer.")
+                .tag("queue", "accounts")
+                .register(meterRegistry));
+
+        timer(meterRegistry, "parse", this.parse);
+        timer(meterRegistry, "lookup", this.lookup);
+        timer(meterRegistry, "lookup-batch", this.lookupBatch);
+        timer(meterRegistry, "write", this.write);
+    }
+
+    /**
+     * Removes the meters bindTo() published, so the registry does not keep reading this run once it is over.
+     */
+    public synchronized void unbind() {
+        if ( Objects.isNull(this.meterRegistry) ) return;
+        for ( Meter meter : this.meters ) this.meterRegistry.remove(meter);
+        this.meters.clear();
+        this.meterRegistry = null;
+    }
+
+    private void counter(MeterRegistry meterRegistry, String stage, ToDoubleFunction<PipelineMetrics> count) {
+        this.meters.add(FunctionCounter.builder(ROWS_METRIC, this, count)
+                .description("The rows that have passed each stage of the pipeline.")
+                .tag("stage", stage)
+                .register(meterRegistry));
+    }
+
+    private void timer(MeterRegistry meterRegistry, String stage, LatencyHistogram histogram) {
+        this.meters.add(FunctionTimer.builder(LATENCY_METRIC, histogram, LatencyHistogram::getCount, LatencyHistogram::getTotalNanos, TimeUnit.NANOSECONDS)
+                .description("The time taken by each stage of the pipeline.")
+                .tag("stage", stage)
+                .register(meterRegistry));
+        for ( double percentile : PERCENTILES ) {
+            this.meters.add(Gauge.builder(LATENCY_PERCENTILE_METRIC, histogram, h -> h.getPercentileNanos(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1))
+                    .description("The percentiles of the time taken by each stage of the pipeline, in milliseconds.")
+                    .tag("stage", stage)
+                    .tag("percentile", String.valueOf(percentile))
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry));
+        }
+    }
+
+    private static int depthOf(StreamChannel<?> channel) {
+        return Objects.isNull(channel) ? 0 : channel.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PipelineMetrics{elapsedSeconds=%.2f%n" +
+                        "  rows: read=%d (%.0f/s), parsed=%d (%.0f/s), enriched=%d (%.0f/s), written=%d (%.0f/s)%n" +
+                        "  queue depth: rows=%s, accounts=%s%n" +
+                        "  parse=%s%n" +
+                        "  lookup=%s%n" +
+                        "  lookup-batch=%s%n" +
+                        "  write=%s}",
+                getElapsedSeconds(),
+                getRowsRead(), perSecond(getRowsRead()), getRowsParsed(), perSecond(getRowsParsed()),
+                getRowsEnriched(), perSecond(getRowsEnriched()), getRowsWritten(), perSecond(getRowsWritten()),
+                this.rowsDepth, this.accountsDepth,
+                this.parse, this.lookup, this.lookupBatch, this.write);
+    }
+
+    /**
+     * The sampled depth of a queue.
+     */
+    private static class QueueDepth {
+
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void sample(int depth) {
+            this.samples.increment();
+            this.total.add(depth);
+            this.max.accumulate(depth);
+        }
+
+        @Override
+        public String toString() {
+            long sampled = this.samples.sum();
+            return String.format("{mean=%.1f, max=%d}", ( sampled == 0 ) ? 0 : this.total.sum() / (double) sampled, this.max.get());
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reports the progress of a run every intervalSeconds: the share of the inbound file read, the rows written, the rows
+ * written per second over the last interval and the time left at the rate the file was read over the recent intervals.
+ *
+ * The report is a line on stderr, or a status file rewritten as name=value lines for a script to poll. The status file
+ * is written beside its final name and moved over it, so a reader never sees half a report.
+ *
+ * The reporter only reads the counters of the PipelineMetrics, which the stages keep in LongAdders, so reporting takes
+ * nothing from the stages. The queues are bounded, so the bytes read are never far ahead of the rows written.
+ * When nothing has been read or written for an interval no time left is given and the report says for how long the
+ * run has made no progress, which points at a stalled status API.
+ */
+public class ProgressReporter {
+
+    public enum State { RUNNING, FINISHED, FAILED }
+
+    /**
+     * The value of --progress that reports to stderr. Any other value is the path of the status file.
+     */
+    public static final String STDERR = "stderr";
+
+    private static final double RATE_SMOOTHING = 0.5; // The weight of the last interval in the rate the time left is estimated from.
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgressReporter.class);
+
+    private final PipelineMetrics metrics;
+    private final PrintStream stderr;
+    private final Path statusFile;
+    private final long intervalSeconds;
+    private ScheduledExecutorService scheduler;
+    private boolean stopped;
+    private Snapshot last;
+
+
+    /**
+     * @param metrics - The metrics of the run.
+     * @param target - stderr, or the path of the status file.
+     * @param intervalSeconds - How often the progress is reported.
+     */
+    public ProgressReporter(PipelineMetrics metrics, String target, long intervalSeconds) {
+        this.metrics = metrics;
+        this.stderr = STDERR.equalsIgnoreCase(target) ? System.err : null;
+        this.statusFile = Objects.isNull(this.stderr) ? Paths.get(target) : null;
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+    }
+
+    /**
+     * Starts reporting, every intervalSeconds until stop() is called.
+     */
+    public synchronized void start() {
+        if ( !Objects.isNull(this.scheduler) ) return;
+        this.last = Snapshot.initial(System.nanoTime());
+        this.stopped = false;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::reportRunning, this.intervalSeconds, this.intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The scheduled report. shutdownNow() does not stop one that is already waiting for the lock held by stop(), so it
+     * checks it has not been stopped rather than overwrite the final report.
+     */
+    synchronized void reportRunning() {
+        if ( this.stopped ) return;
+        report(State.RUNNING);
+    }
+
+    /**
+     * Stops reporting and reports the final progress.
+     * @param completed - True when the run completed, false when it failed.
+     */
+    public synchronized void stop(boolean completed) {
+        if ( Objects.isNull(this.scheduler) ) return;
+        this.scheduler.shutdownNow();
+        this.scheduler = null;
+        this.stopped = true;
+        report(completed ? State.FINISHED : State.FAILED);
+    }
+
+    private synchronized void report(State state) {
+        this.last = Snapshot.take(state, this.metrics, this.last, System.nanoTime());
+        try {
+            if ( !Objects.isNull(this.stderr) ) this.stderr.println(this.last.toLine());
+            else writeStatusFile(this.last);
+        }
+        catch (IOException | RuntimeException ex) { // A report that can not be written must not fail the run.
+            LOGGER.warn(String.format("Progress could not be reported to %s. Error=%s", this.statusFile, ex));
+        }
+    }
+
+    private void writeStatusFile(Snapshot snapshot) throws IOException {
+        Path temp = this.statusFile.resolveSibling(this.statusFile.getFileName() + ".tmp");
+        Files.write(temp, snapshot.toProperties().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, this.statusFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, this.statusFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The progress of the run at one report.
+     */
+    static final class Snapshot {
+
+        final State state;
+        final long nanos;
+        final long startNanos;
+        final long progressNanos; // When the bytes read or the rows written last moved.
+        final long bytesRead;
+        final long inboundBytes;
+        final long rowsWritten;
+        final double rowsPerSecond;
+        final double bytesPerSecond;
+        final int rowsQueueDepth;
+        final int accountsQueueDepth;
+
+        private Snapshot(State state, long nanos, long startNanos, long progressNanos, long bytesRead, long inboundBytes, long rowsWritten,
+                         double rowsPerSecond, double bytesPerSecond, int rowsQueueDepth, int accountsQueueDepth) {
+            this.state = state;
+            this.nanos = nanos;
+            this.startNanos = startNanos;
+            this.progressNanos = progressNanos;
+            this.bytesRead = bytesRead;
+            this.inboundBytes = inboundBytes;
+            this.rowsWritten = rowsWritten;
+            this.rowsPerSecond = rowsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.rowsQueueDepth = rowsQueueDepth;
+            this.accountsQueueDepth = accountsQueueDepth;
+        }
+
+        /**
+         * @param nanos - When the run started.
+         */
+        static Snapshot initial(long nanos) {
+            return new Snapshot(State.RUNNING, nanos, nanos, nanos, 0, 0, 0, 0, -1, 0, 0);
+        }
+
+        /**
+         * @param previous - The snapshot of the last report.
+         * @param nanos - The time of this report.
+         */
+        static Snapshot take(State state, PipelineMetrics metrics, Snapshot previous, long nanos) {
+            long bytesRead = metrics.getBytesRead();
+            long rowsWritten = metrics.getRowsWritten();
+            double seconds = Math.max(1, nanos - previous.nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+
+            double bytesPerSecond = (bytesRead - previous.bytesRead) / seconds;
+            if ( previous.bytesPerSecond >= 0 ) bytesPerSecond = RATE_SMOOTHING * bytesPerSecond + (1 - RATE_SMOOTHING) * previous.bytesPerSecond;
+            boolean progressed = bytesRead != previous.bytesRead || rowsWritten != previous.rowsWritten;
+
+            return new Snapshot(state, nanos, previous.startNanos, progressed ? nanos : previous.progressNanos,
+                    bytesRead, metrics.getInboundBytes(), rowsWritten, (rowsWritten - previous.rowsWritten) / seconds, bytesPerSecond,
+                    metrics.getRowsQueueDepth(), metrics.getAccountsQueueDepth());
+        }
+
+        double getPercent() {
+            if ( this.state == State.FINISHED ) return 100;
+            return ( this.inboundBytes <= 0 ) ? 0 : Math.min(100, this.bytesRead * 100.0 / this.inboundBytes);
+        }
+
+        /**
+         * @return - The seconds left at the recent rate, or -1 when the run is not progressing.
+         */
+        long getEtaSeconds() {
+            if ( this.state != State.RUNNING ) return 0;
+            long remaining = Math.max(0, this.inboundBytes - this.bytesRead);
+            if ( remaining == 0 ) return 0;
+            if ( getStalledSeconds() > 0 || this.bytesPerSecond <= 0 ) return -1;
+            return (long) Math.ceil(remaining / this.bytesPerSecond);
+        }
+
+        long getElapsedSeconds() {
+            return TimeUnit.NANOSECONDS.toSeconds(this.nanos - this.startNanos);
+        }
+
+        long getStalledSeconds() {
+            return TimeUnit.NANOSECONDS.toSeconds(this.nanos - this.progressNanos);
+        }
+
+        String toLine() {
+            StringBuilder line = new StringBuilder(String.format("[progress] %s %.1f%% of %s read, %d rows written at %.0f rows/s, elapsed %s",
+                    this.state, getPercent(), formatBytes(this.inboundBytes), this.rowsWritten, this.rowsPerSecond, formatSeconds(getElapsedSeconds())));
+            if ( this.state == State.RUNNING ) {
+                long eta = getEtaSeconds();
+                line.append(", ETA ").append(( eta < 0 ) ? "unknown" : formatSeconds(eta));
+                if ( getStalledSeconds() > 0 ) line.append(String.format(", no progress for %ds", getStalledSeconds()));
+                line.append(String.format(", queues rows=%d accounts=%d", this.rowsQueueDepth, this.accountsQueueDepth));
+            }
+            return line.toString();
+        }
+
+        String toProperties() {
+            return "state=" + this.state + '\n' +
+                    "updated=" + Instant.now() + '\n' +
+                    "elapsedSeconds=" + getElapsedSeconds() + '\n' +
+                    "bytesRead=" + this.bytesRead + '\n' +
+                    "inboundBytes=" + this.inboundBytes + '\n' +
+                    "percent=" + String.format(Locale.ROOT, "%.1f", getPercent()) + '\n' +
+                    "rowsWritten=" + this.rowsWritten + '\n' +
+                    "rowsPerSecond=" + String.format(Locale.ROOT, "%.0f", this.rowsPerSecond) + '\n' +
+                    "etaSeconds=" + getEtaSeconds() + '\n' +
+                    "stalledSeconds=" + getStalledSeconds() + '\n' +
+                    "rowsQueueDepth=" + this.rowsQueueDepth + '\n' +
+                    "accountsQueueDepth=" + this.accountsQueueDepth + '\n';
+        }
+
+        private static String formatBytes(long bytes) {
+            if ( bytes < 1024 * 1024 ) return String.format("%.1f KB", bytes / 1024.0);
+            if ( bytes < 1024L * 1024 * 1024 ) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+            return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+
+        private static String formatSeconds(long seconds) {
+            return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.bluereligion.accountmerge.producer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Strings;
+
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+import com.bluereligion.accountmerge.util.AccountMergeUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Responsible for reading the raw lines from an inbound .csv file, several chunks of the file at a time.
+ * It suppresses null and empty rows and those that appear to be header rows, the same as RowProducer.
+ * Places the rows onto another queue to be processed into accounts.
+ *
+ * The file is memory-mapped and read in two passes:
+ *      1. The boundary of every chunk is moved to just after the first line break in it.
+ *      2. The adjusted chunks are split into rows and decoded in parallel. The rows are placed on the queue in batches.
+ *
+ * A row ends at a line feed, a carriage return or both, as with the BufferedReader.readLine of RowProducer, so both
+ * producers read the same rows whatever the character set. A quote does not change where a row ends: a stray quote in
+ * a field must not merge the rows that follow it into one.
+ *
+ * Rows from different chunks are interleaved on the queue, just as the row consumers already interleave them.
+ * The byte scan relies on the line breaks being single bytes that never appear inside a multi-byte character,
+ * which holds for UTF-8, US-ASCII and ISO-8859-1. Any other character set is read with RowProducer.
+ *
+ * @see https://docs.oracle.com/javase/8/docs/api/java/nio/channels/FileChannel.html#map-java.nio.channels.FileChannel.MapMode-long-long-
+ */
+public class MappedRowProducer
+        implements Callable<Integer> {
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int NONE = -1;
+    private static final int BATCH_SIZE = 64; // The most rows placed on the queue at once.
+
+    private StreamChannel<String> rowsQueue;
+    private String inboundFilePath;
+    private Charset characterSet;
+    private long chunkSizeBytes;
+    private int parallelism;
+    private PipelineMetrics metrics;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedRowProducer.class);
+
+
+    /**
+     * Initializes the producer.
+     * @param rowsQueue - The queue to place the inbound rows read from the file.
+     * @param inboundFilePath - The path to the inbound file.
+     * @param characterSet - The characterset to apply.
+     * @param chunkSizeBytes - The size of the chunks the file is split into before the boundaries are moved to the end of a row.
+     * @param parallelism - How many chunks are scanned and parsed at the same time.
+     */
+    public MappedRowProducer(StreamChannel<String> rowsQueue, String inboundFilePath, Charset characterSet, long chunkSizeBytes, int parallelism) {
+        this(rowsQueue, inboundFilePath, characterSet, chunkSizeBytes, parallelism, new PipelineMetrics());
+    }
+
+    /**
+     * Initializes the producer.
+     * @param rowsQueue - The queue to place the inbound rows read from the file.
+     * @param inboundFilePath - The path to the inbound file.
+     * @param characterSet - The characterset to apply.
+     * @param chunkSizeBytes - The size of the chunks the file is split into before the boundaries are moved to the end of a row.
+     * @param parallelism - How many chunks are scanned and parsed at the same time.
+     * @param metrics - Counts the bytes of the file read, a batch of rows at a time.
+     */
+    public MappedRowProducer(StreamChannel<String> rowsQueue, String inboundFilePath, Charset characterSet, long chunkSizeBytes, int parallelism,
+                             PipelineMetrics metrics) {
+        this.rowsQueue = rowsQueue;
+        this.inboundFilePath = inboundFilePath;
+        this.characterSet = characterSet;
+        this.chunkSizeBytes = Math.max(1, Math.min(chunkSizeBytes, Integer.MAX_VALUE));
+        this.parallelism = Math.max(1, parallelism);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the process.  Reads from the inbound file and places the rows onto a queue for further processing.
+     * @return 0 = Sucess;
+     * @throws InterruptedException
+     * @throws IOException - Any issue arising from reading the inbound file.
+     * @throws ExecutionException - Any issue arising from one of the chunk readers.
+     */
+    public Integer call() throws InterruptedException, IOException, ExecutionException {
+        if ( !isByteScannable(this.characterSet) ) {
+            LOGGER.debug("characterSet={} can not be scanned byte by byte, reading the file line by line.", this.characterSet);
+            return new RowProducer(this.rowsQueue, this.inboundFilePath, this.characterSet, this.metrics).call();
+        }
+
+        LOGGER.debug("Inbound process beginning.");
+        LOGGER.debug("Using inboundFilePath={}, characterSet={}, chunkSizeBytes={} and parallelism={}", inboundFilePath, characterSet, chunkSizeBytes, parallelism);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(this.parallelism);
+        try ( FileChannel channel = FileChannel.open(Paths.get(this.inboundFilePath), StandardOpenOption.READ) ) {
+            long[] boundaries = findRowBoundaries(channel);
+            LOGGER.debug("File split into {} chunks.", boundaries.length - 1);
+
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                final long start = boundaries[i];
+                final long end = boundaries[i + 1];
+                readers.add(executorService.submit(() -> readRows(channel, start, end)));
+            }
+
+            long rows = 0;
+            for ( Future<Integer> reader : readers ) rows += reader.get();
+            LOGGER.debug("EOF has been reached after {} rows. Completing the rows queue.", rows);
+        }
+        finally {
+            executorService.shutdownNow(); // Interrupts the chunk readers when this stage is cancelled or a reader fails.
+        }
+
+        rowsQueue.complete();
+        return 0; // success
+    }
+
+    /**
+     * The first pass. Returns the offsets the rows are split on: the start of the file, the first row that begins in each
+     * chunk and the end of the file. A chunk without any row beginning in it is merged into the chunk before.
+     */
+    private long[] findRowBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int numOfChunks = (int) Math.max(1, (size + this.chunkSizeBytes - 1) / this.chunkSizeBytes);
+
+        long[] boundaries = new long[numOfChunks + 1];
+        int count = 0;
+        boundaries[count++] = 0;
+
+        for (int i = 1; i < numOfChunks; i++) {
+            long start = i * this.chunkSizeBytes;
+            long lineBreak = findLineBreak(channel, start, Math.min(size, start + this.chunkSizeBytes));
+            if ( lineBreak != NONE && lineBreak + 1 < size ) boundaries[count++] = lineBreak + 1;
+        }
+        boundaries[count++] = size;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * @return - The offset of the first line break in the chunk, or NONE when the chunk is in the middle of a row.
+     */
+    private static long findLineBreak(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+            if ( isLineBreak(buffer.get(i)) ) return start + i;
+        }
+        return NONE;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == LINE_FEED || b == CARRIAGE_RETURN;
+    }
+
+    /**
+     * The second pass. Splits the bytes between two row boundaries into rows and puts them on the queue.
+     * @return - The number of rows put on the queue.
+     */
+    private int readRows(FileChannel channel, long start, long end) throws IOException, InterruptedException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        byte[] row = new byte[256];
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        int rows = 0;
+        int rowStart = 0;
+        int batchStart = 0;
+        PipelineEvents.Span read = PipelineEvents.begin(PipelineEvents.Kind.ROW_BATCH_READ);
+
+        for (int i = 0, limit = buffer.limit(); i <= limit; i++) {
+            byte b = ( i < limit ) ? buffer.get(i) : LINE_FEED; // The end of the chunk ends the last row.
+            if ( isLineBreak(b) ) { // The line feed of a CRLF ends an empty row, which is dropped.
+                int length = i - rowStart;
+                if ( row.length < length ) row = new byte[Math.max(length, row.length * 2)];
+                for (int j = 0; j < length; j++) row[j] = buffer.get(rowStart + j);
+
+                String line = new String(row, 0, length, this.characterSet);
+                if ( !Strings.isNullOrEmpty(line) && !AccountMergeUtils.isInboundHeaderRecord(line) ) { //prevent any null/blank lines & header record
+                    batch.add(line);
+                    rows++;
+                    if ( batch.size() == BATCH_SIZE ) {
+                        int batchEnd = Math.min(i + 1, limit);
+                        this.rowsQueue.putAll(batch);
+                        read.rows(batch.size()).bytes(batchEnd - batchStart).commit();
+                        this.metrics.recordBytesRead(batchEnd - batchStart);
+                        batch.clear();
+                        batchStart = batchEnd;
+                        read = PipelineEvents.begin(PipelineEvents.Kind.ROW_BATCH_READ);
+                    }
+                }
+                rowStart = i + 1;
+            }
+        }
+        this.rowsQueue.putAll(batch);
+        read.rows(batch.size()).bytes(buffer.limit() - batchStart).commit();
+        this.metrics.recordBytesRead(buffer.limit() - batchStart);
+        return rows;
+    }
+
+    /**
+     * @return - True when a line break or quote byte in the encoded file is always that character.
+     */
+    protected static boolean isByteScannable(Charset characterSet) {
+        return StandardCharsets.UTF_8.equals(characterSet)
+                || StandardCharsets.US_ASCII.equals(characterSet)
+                || StandardCharsets.ISO_8859_1.equals(characterSet);
+    }
+
+}
@@ -1,16 +1,22 @@
 package com.bluereligion.accountmerge.producer;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 
 import com.google.common.base.Strings;
 
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
 import com.bluereligion.accountmerge.util.AccountMergeUtils;
+import com.bluereligion.accountmerge.util.RowTrace;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +34,13 @@ public class RowProducer
         implements Callable<Integer> {
 
     private String inboundFilePath;
-    private BlockingQueue<String> rowssQueue;
+    private StreamChannel<String> rowssQueue;
     private Charset characterSet;
-    private Integer numOfRowConsumers;
+    private PipelineMetrics metrics;
 
+    private static final int EVENT_ROWS = 64; // The rows read per ROW_BATCH_READ event.
     private static final Logger LOGGER = LoggerFactory.getLogger(RowProducer.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
 
 
     /**
@@ -40,13 +48,23 @@ public class RowProducer
      * @param rowssQueue - The queue to place the inbound rows read from the file.
      * @param inboundFilePath - The path to the inbound file.
      * @param characterSet - The characterset to apply.
-     * @param numOfRowConsumers - The number of row consumers that will be run. This is used in shutting down the queue gracefull when all rows have been read.
      */
-    public RowProducer(BlockingQueue<String> rowssQueue, String inboundFilePath, Charset characterSet, Integer numOfRowConsumers) {
+    public RowProducer(StreamChannel<String> rowssQueue, String inboundFilePath, Charset characterSet) {
+        this(rowssQueue, inboundFilePath, characterSet, new PipelineMetrics());
+    }
+
+    /**
+     * Initializes the producer.
+     * @param rowssQueue - The queue to place the inbound rows read from the file.
+     * @param inboundFilePath - The path to the inbound file.
+     * @param characterSet - The characterset to apply.
+     * @param metrics - Counts the bytes of the file read, as the reader fills its buffer.
+     */
+    public RowProducer(StreamChannel<String> rowssQueue, String inboundFilePath, Charset characterSet, PipelineMetrics metrics) {
         this.rowssQueue = rowssQueue;
         this.inboundFilePath = inboundFilePath;
         this.characterSet = characterSet;
-        this.numOfRowConsumers = numOfRowConsumers;
+        this.metrics = metrics;
     }
 
     /**
@@ -57,22 +75,58 @@ public class RowProducer
      */
     public Integer call() throws InterruptedException, IOException {
         LOGGER.debug("Inbound process beginning.");
-        LOGGER.debug(String.format("Using inboundFilePath=%s and characterSet=%s", inboundFilePath, characterSet.toString()));
+        LOGGER.debug("Using inboundFilePath={} and characterSet={}", inboundFilePath, characterSet);
 
         String line;
-        try ( BufferedReader br = Files.newBufferedReader(Paths.get(inboundFilePath), characterSet) ) {
+        int rows = 0;
+        PipelineEvents.Span read = PipelineEvents.begin(PipelineEvents.Kind.ROW_BATCH_READ);
+        try ( BufferedReader br = new BufferedReader(new InputStreamReader(new CountingInputStream(Files.newInputStream(Paths.get(inboundFilePath)), this.metrics), characterSet.newDecoder())) ) {
             while ((line = br.readLine()) != null) {
-                LOGGER.debug(String.format("Line read from file=%s",line));
+                if ( TRACE.sample(line) ) LOGGER.debug("Line read from file={}", line);
 
                 if ( !Strings.isNullOrEmpty(line) && !AccountMergeUtils.isInboundHeaderRecord(line)) //prevent any null/blank lines & header record
                     this.rowssQueue.put(line);
+
+                if ( ++rows == EVENT_ROWS ) { // The rows are put one at a time, so the event includes any wait on the queue.
+                    read.rows(rows).commit();
+                    rows = 0;
+                    read = PipelineEvents.begin(PipelineEvents.Kind.ROW_BATCH_READ);
+                }
             }
-            for (int i = 0; i < numOfRowConsumers; i++ ) {
-                LOGGER.debug("EOF has been reached. Adding marker to the queue.");
-                rowssQueue.put(AccountMergeUtils.EOF_MARKER);
-            }
+            read.rows(rows).commit();
+            LOGGER.debug("EOF has been reached. Completing the rows queue.");
+            rowssQueue.complete();
         }
         return 0; // success
     }
 
+    /**
+     * Counts the bytes read from the file. The reader above it reads ahead in buffer sized blocks, so the count is
+     * ahead of the rows put on the queue by at most a buffer.
+     */
+    private static class CountingInputStream
+            extends FilterInputStream {
+
+        private final PipelineMetrics metrics;
+
+        CountingInputStream(InputStream in, PipelineMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = this.in.read();
+            if ( b >= 0 ) this.metrics.recordBytesRead(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = this.in.read(b, off, len);
+            if ( read > 0 ) this.metrics.recordBytesRead(read);
+            return read;
+        }
+    }
+
 }
@@ -0,0 +1,34 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * A blocking queue that can publish several elements with a single claim.
+ */
+public interface BatchingQueue<E>
+        extends BlockingQueue<E> {
+
+    /**
+     * Places every element on the queue, in order, waiting for space as needed.
+     * @param elements - The elements to place.
+     * @throws InterruptedException
+     */
+    void putAll(List<? extends E> elements) throws InterruptedException;
+
+    /**
+     * Places every element on any blocking queue, as a batch when the queue supports it.
+     * @param queue - The queue to place the elements on.
+     * @param elements - The elements to place.
+     * @throws InterruptedException
+     */
+    static <E> void putAll(BlockingQueue<E> queue, List<? extends E> elements) throws InterruptedException {
+        if ( queue instanceof BatchingQueue ) {
+            ((BatchingQueue<E>) queue).putAll(elements);
+            return;
+        }
+        for ( E element : elements ) queue.put(element);
+    }
+
+}
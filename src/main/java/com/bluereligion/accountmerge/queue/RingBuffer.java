@@ -0,0 +1,371 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * A bounded, pre-allocated queue for handing elements between the stages of the pipeline, safe for any number of
+ * producers and consumers.
+ *
+ * The elements are held in a ring of slots, each with a sequence number that tells whether the slot is free for the
+ * current lap of the producers or published for the current lap of the consumers. Producers and consumers claim slots
+ * by moving the tail and the head cursors forward with a compare-and-set, so no lock is taken and nothing is allocated
+ * per element. A run of slots is claimed at once by putAll and drainTo, making a batch cost a single compare-and-set.
+ *
+ * When the ring is empty or full the thread waits according to the WaitStrategy. With BLOCKING a lock is only taken
+ * when a thread is actually parked.
+ *
+ * The iterator is a weakly consistent snapshot and does not support remove, so neither does remove(Object).
+ *
+ * @see http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ * @see https://lmax-exchange.github.io/disruptor/
+ */
+public class RingBuffer<E>
+        extends AbstractQueue<E>
+        implements BatchingQueue<E> {
+
+    private static final int SPIN_TRIES = 100;
+
+    private final E[] buffer;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedCursor head = new PaddedCursor(); // The next sequence to take.
+    private final PaddedCursor tail = new PaddedCursor(); // The next sequence to claim.
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger parkedTakers = new AtomicInteger();
+    private final AtomicInteger parkedPutters = new AtomicInteger();
+
+
+    /**
+     * Initializes the ring buffer.
+     * @param capacity - The least number of elements held. It is rounded up to a power of two.
+     * @param waitStrategy - How threads wait when the ring is empty or full.
+     */
+    @SuppressWarnings("unchecked")
+    public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if ( capacity < 1 || capacity > 1 << 30 ) throw new IllegalArgumentException(String.format("Capacity %d must be between 1 and 2^30.", capacity));
+
+        this.capacity = ( capacity <= 2 ) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        this.buffer = (E[]) new Object[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) this.sequences.set(i, i);
+    }
+
+    public int getCapacity() { return capacity; }
+    public WaitStrategy getWaitStrategy() { return waitStrategy; }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        return tryOffer(e);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        for (int attempt = 0; !tryOffer(e); attempt++) {
+            idle(attempt, this.notFull, this.parkedPutters, this::isFull, false, 0);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !tryOffer(e); attempt++) {
+            if ( !idle(attempt, this.notFull, this.parkedPutters, this::isFull, true, deadline) ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Places every element on the ring, in order, claiming as many free slots at once as are available.
+     */
+    @Override
+    public void putAll(List<? extends E> elements) throws InterruptedException {
+        for ( E e : elements ) Objects.requireNonNull(e);
+
+        int published = 0;
+        int attempt = 0;
+        while ( published < elements.size() ) {
+            int n = tryPublish(elements, published);
+            if ( n > 0 ) {
+                published += n;
+                attempt = 0;
+            }
+            else {
+                idle(attempt++, this.notFull, this.parkedPutters, this::isFull, false, 0);
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        return tryTake();
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; ( e = tryTake() ) == null; attempt++) {
+            idle(attempt, this.notEmpty, this.parkedTakers, this::isEmpty, false, 0);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int attempt = 0; ( e = tryTake() ) == null; attempt++) {
+            if ( !idle(attempt, this.notEmpty, this.parkedTakers, this::isEmpty, true, deadline) ) return null;
+        }
+        return e;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes the elements already published, up to maxElements, claiming as many at once as are available. Does not wait.
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if ( c == this ) throw new IllegalArgumentException("A queue can not be drained to itself.");
+
+        int drained = 0;
+        int n;
+        while ( drained < maxElements && ( n = tryDrain(c, maxElements - drained) ) > 0 ) drained += n;
+        return drained;
+    }
+
+    @Override
+    public E peek() {
+        while ( true ) {
+            long pos = this.head.get();
+            int index = index(pos);
+            if ( this.sequences.get(index) != pos + 1 ) return null;
+            E e = this.buffer[index];
+            if ( this.head.get() == pos && !Objects.isNull(e) ) return e; // Otherwise it was taken while being read.
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = this.tail.get() - this.head.get();
+        return (int) Math.max(0, Math.min(this.capacity, size));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long pos = this.head.get();
+        return this.sequences.get(index(pos)) != pos + 1;
+    }
+
+    private boolean isFull() {
+        long pos = this.tail.get();
+        return this.sequences.get(index(pos)) < pos;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return this.capacity - size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        for (long pos = this.head.get(), end = this.tail.get(); pos < end; pos++) {
+            int index = index(pos);
+            E e = this.buffer[index];
+            if ( this.sequences.get(index) == pos + 1 && !Objects.isNull(e) ) snapshot.add(e);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    private boolean tryOffer(E e) {
+        while ( true ) {
+            long pos = this.tail.get();
+            int index = index(pos);
+            long sequence = this.sequences.get(index);
+
+            if ( sequence == pos ) {
+                if ( this.tail.compareAndSet(pos, pos + 1) ) {
+                    this.buffer[index] = e;
+                    this.sequences.set(index, pos + 1);
+                    signal(this.parkedTakers, this.notEmpty);
+                    return true;
+                }
+            }
+            else if ( sequence < pos ) {
+                return false; // Still holds an element from the last lap.
+            }
+        }
+    }
+
+    /**
+     * Claims the run of free slots from the tail, up to the elements remaining, and publishes the elements into them.
+     * @return - The number of elements published. 0 when the ring is full.
+     */
+    private int tryPublish(List<? extends E> elements, int from) {
+        int max = elements.size() - from;
+        while ( true ) {
+            long pos = this.tail.get();
+            int n = 0;
+            while ( n < max && this.sequences.get(index(pos + n)) == pos + n ) n++;
+
+            if ( n == 0 ) {
+                if ( this.sequences.get(index(pos)) < pos ) return 0;
+                continue; // Another producer claimed the slot first.
+            }
+            if ( this.tail.compareAndSet(pos, pos + n) ) {
+                for (int i = 0; i < n; i++) {
+                    int index = index(pos + i);
+                    this.buffer[index] = elements.get(from + i);
+                    this.sequences.set(index, pos + i + 1);
+                }
+                signal(this.parkedTakers, this.notEmpty);
+                return n;
+            }
+        }
+    }
+
+    private E tryTake() {
+        while ( true ) {
+            long pos = this.head.get();
+            int index = index(pos);
+            long sequence = this.sequences.get(index);
+
+            if ( sequence == pos + 1 ) {
+                if ( this.head.compareAndSet(pos, pos + 1) ) {
+                    E e = this.buffer[index];
+                    this.buffer[index] = null;
+                    this.sequences.set(index, pos + this.capacity);
+                    signal(this.parkedPutters, this.notFull);
+                    return e;
+                }
+            }
+            else if ( sequence < pos + 1 ) {
+                return null; // Not published yet.
+            }
+        }
+    }
+
+    /**
+     * Claims the run of published slots from the head, up to max, and moves their elements to c.
+     * @return - The number of elements taken. 0 when the ring is empty.
+     */
+    private int tryDrain(Collection<? super E> c, int max) {
+        while ( true ) {
+            long pos = this.head.get();
+            int n = 0;
+            while ( n < max && this.sequences.get(index(pos + n)) == pos + n + 1 ) n++;
+
+            if ( n == 0 ) {
+                if ( this.sequences.get(index(pos)) < pos + 1 ) return 0;
+                continue; // Another consumer claimed the slot first.
+            }
+            if ( this.head.compareAndSet(pos, pos + n) ) {
+                for (int i = 0; i < n; i++) {
+                    int index = index(pos + i);
+                    E e = this.buffer[index];
+                    this.buffer[index] = null;
+                    this.sequences.set(index, pos + i + this.capacity);
+                    c.add(e);
+                }
+                signal(this.parkedPutters, this.notFull);
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Waits once, according to the wait strategy, for the ring to change.
+     * @param attempt - How many times the caller has already waited for this operation.
+     * @param condition - The condition signalled when the ring changes.
+     * @param parked - The count of threads parked on the condition.
+     * @param stillWaiting - Checked after registering as parked, so a signal sent in between is not missed.
+     * @return - False when the deadline has passed.
+     * @throws InterruptedException
+     */
+    private boolean idle(int attempt, Condition condition, AtomicInteger parked, BooleanSupplier stillWaiting, boolean timed, long deadline) throws InterruptedException {
+        if ( Thread.interrupted() ) throw new InterruptedException();
+        long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+        if ( remaining <= 0 ) return false;
+
+        if ( this.waitStrategy == WaitStrategy.BUSY_SPIN || attempt < SPIN_TRIES ) return true;
+
+        if ( this.waitStrategy == WaitStrategy.YIELDING ) {
+            Thread.yield();
+            return true;
+        }
+
+        this.lock.lockInterruptibly();
+        try {
+            parked.incrementAndGet();
+            try {
+                if ( stillWaiting.getAsBoolean() ) {
+                    if ( timed ) condition.awaitNanos(remaining);
+                    else condition.await();
+                }
+            }
+            finally {
+                parked.decrementAndGet();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+        return true;
+    }
+
+    private void signal(AtomicInteger parked, Condition condition) {
+        if ( parked.get() == 0 ) return;
+        this.lock.lock();
+        try {
+            condition.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & this.mask;
+    }
+
+    /**
+     * A cursor padded so that the head and the tail, which are written by different threads, do not share a cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedCursor
+            extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+}
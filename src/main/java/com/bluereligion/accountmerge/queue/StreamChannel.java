@@ -0,0 +1,140 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+
+
+/**
+ * The queue between two stages of the pipeline together with its end-of-stream protocol.
+ *
+ * Every producer calls complete() once, after its last element. Only when the last of the producers has completed
+ * is an end marker put on the queue for each consumer, so no consumer can finish while another producer is still
+ * putting elements. The end marker is an instance owned by the channel and is recognised by identity: no element
+ * read from the file can be mistaken for it and no element is compared field by field.
+ *
+ * The elements put are counted, end markers excluded, so the throughput of the stages putting to the channel can be read.
+ * While the PipelineEvents are enabled a put to a full queue, or a take from an empty one, is recorded as a QUEUE_WAIT event.
+ */
+public class StreamChannel<T> {
+
+    private final BlockingQueue<T> queue;
+    private final T endMarker;
+    private final int producers;
+    private final int consumers;
+    private final String name;
+    private final AtomicInteger completedProducers = new AtomicInteger();
+    private final LongAdder putCount = new LongAdder();
+
+
+    /**
+     * Initializes the channel.
+     * @param queue - The queue the elements are handed over on.
+     * @param endMarker - The instance put on the queue to end the stream. It must not be used as an element.
+     * @param producers - The number of stages putting elements.
+     * @param consumers - The number of stages taking elements.
+     */
+    public StreamChannel(BlockingQueue<T> queue, T endMarker, int producers, int consumers) {
+        this(queue, endMarker, producers, consumers, "queue");
+    }
+
+    /**
+     * Initializes the channel.
+     * @param queue - The queue the elements are handed over on.
+     * @param endMarker - The instance put on the queue to end the stream. It must not be used as an element.
+     * @param producers - The number of stages putting elements.
+     * @param consumers - The number of stages taking elements.
+     * @param name - The name the channel's events are recorded with.
+     */
+    public StreamChannel(BlockingQueue<T> queue, T endMarker, int producers, int consumers, String name) {
+        this.queue = Objects.requireNonNull(queue);
+        this.endMarker = Objects.requireNonNull(endMarker);
+        this.producers = producers;
+        this.consumers = consumers;
+        this.name = name;
+    }
+
+    public BlockingQueue<T> getQueue() { return queue; }
+    public int getProducers() { return producers; }
+    public int getConsumers() { return consumers; }
+    public String getName() { return name; }
+    public int getCompletedProducers() { return completedProducers.get(); }
+    public long getPutCount() { return putCount.sum(); }
+
+    public void put(T element) throws InterruptedException {
+        if ( !PipelineEvents.isEnabled() ) this.queue.put(element);
+        else if ( !this.queue.offer(element) ) {
+            PipelineEvents.Span wait = PipelineEvents.begin(PipelineEvents.Kind.QUEUE_WAIT).queue(this.name).operation("put");
+            this.queue.put(element);
+            wait.commit();
+        }
+        this.putCount.increment();
+    }
+
+    /**
+     * Puts the elements as a single batch when the queue supports it.
+     */
+    public void putAll(List<? extends T> elements) throws InterruptedException {
+        if ( PipelineEvents.isEnabled() && this.queue.remainingCapacity() < elements.size() ) {
+            PipelineEvents.Span wait = PipelineEvents.begin(PipelineEvents.Kind.QUEUE_WAIT).queue(this.name).operation("put");
+            BatchingQueue.putAll(this.queue, elements);
+            wait.commit();
+        }
+        else BatchingQueue.putAll(this.queue, elements);
+        this.putCount.add(elements.size());
+    }
+
+    public T take() throws InterruptedException {
+        if ( !PipelineEvents.isEnabled() ) return this.queue.take();
+
+        T element = this.queue.poll();
+        if ( !Objects.isNull(element) ) return element;
+
+        PipelineEvents.Span wait = PipelineEvents.begin(PipelineEvents.Kind.QUEUE_WAIT).queue(this.name).operation("take");
+        element = this.queue.take();
+        wait.commit();
+        return element;
+    }
+
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        return this.queue.drainTo(c, maxElements);
+    }
+
+    /**
+     * @param element - An element taken from the queue.
+     * @return - True when the element is the end marker.
+     */
+    public boolean isEnd(T element) {
+        return element == this.endMarker;
+    }
+
+    /**
+     * Called by each producer once it has put its last element. The last producer to complete ends the stream for every consumer.
+     * @throws InterruptedException
+     * @throws IllegalStateException - More producers completed than the channel was created for.
+     */
+    public void complete() throws InterruptedException {
+        int completed = this.completedProducers.incrementAndGet();
+        if ( completed > this.producers ) {
+            throw new IllegalStateException(String.format("%d producers completed a channel created for %d.", completed, this.producers));
+        }
+        if ( completed == this.producers ) {
+            for (int i = 0; i < this.consumers; i++) this.queue.put(this.endMarker);
+        }
+    }
+
+    /**
+     * A consumer that drained more than one end marker in a batch hands the extra ones back for the other consumers.
+     * @param markers - The number of extra end markers drained.
+     * @throws InterruptedException
+     */
+    public void handBack(int markers) throws InterruptedException {
+        for (int i = 0; i < markers; i++) this.queue.put(this.endMarker);
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.bluereligion.accountmerge.queue;
+
+
+/**
+ * How a thread waits on a RingBuffer that is empty (to take) or full (to put).
+ *  - BLOCKING: spins briefly, then parks until signalled. Uses no CPU while waiting, at the cost of a wake-up on every handoff to a parked thread.
+ *  - YIELDING: spins briefly, then yields the CPU between checks. Low latency while leaving the core to other threads.
+ *  - BUSY_SPIN: checks continuously. The lowest latency, but every waiting thread burns a core, so only use it with fewer stage threads than cores.
+ */
+public enum WaitStrategy { BLOCKING, YIELDING, BUSY_SPIN }
@@ -1,16 +1,53 @@
 package com.bluereligion.accountmerge.service;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Objects;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Strings;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingMeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingRegistryConfig;
+
+import com.bluereligion.accountmerge.cache.LruStatusCache;
+import com.bluereligion.accountmerge.cache.PersistentStatusCache;
+import com.bluereligion.accountmerge.cache.StatusCache;
+import com.bluereligion.accountmerge.client.AccountStatusClient;
+import com.bluereligion.accountmerge.client.AdaptiveConcurrencyLimiter;
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.client.CachingAccountStatusLookup;
+import com.bluereligion.accountmerge.client.CircuitBreaker;
+import com.bluereligion.accountmerge.client.EndpointBalancer;
+import com.bluereligion.accountmerge.client.HedgingStatusLookup;
+import com.bluereligion.accountmerge.client.LimitingStatusLookup;
+import com.bluereligion.accountmerge.client.PooledHttpClient;
+import com.bluereligion.accountmerge.client.RateLimitInterceptor;
+import com.bluereligion.accountmerge.client.ReactiveAccountStatusClient;
+import com.bluereligion.accountmerge.client.ResilientStatusLookup;
+import com.bluereligion.accountmerge.client.TokenBucket;
+import com.bluereligion.accountmerge.metrics.PipelineEvents;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.metrics.ProgressReporter;
+import com.bluereligion.accountmerge.queue.WaitStrategy;
 import com.bluereligion.accountmerge.util.AccountMergeUtils;
+import com.bluereligion.accountmerge.util.CommandLineOptions;
+import com.bluereligion.accountmerge.util.RowTrace;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +78,235 @@ public class AccountsService {
     private Integer numOfRowConsumers;
     protected void setNumOfRowConsumers(final Integer numOfRowConsumers) { this.numOfRowConsumers = numOfRowConsumers; }
 
+    @Value("${application.streamingMode:false}")
+    private Boolean streamingMode;
+    protected void setStreamingMode(final Boolean streamingMode) { this.streamingMode = streamingMode; }
+
+    @Value("${application.queueCapacity:50}")
+    private Integer queueCapacity;
+    protected void setQueueCapacity(final Integer queueCapacity) { this.queueCapacity = queueCapacity; }
+
+    @Value("${application.queueType:linked}")
+    private String queueType;
+    protected void setQueueType(final String queueType) { this.queueType = queueType; }
+
+    @Value("${application.waitStrategy:blocking}")
+    private String waitStrategy;
+    protected void setWaitStrategy(final String waitStrategy) { this.waitStrategy = waitStrategy; }
+
+    @Value("${application.readerChunkSizeMb:32}")
+    private Integer readerChunkSizeMb;
+    protected void setReaderChunkSizeMb(final Integer readerChunkSizeMb) { this.readerChunkSizeMb = readerChunkSizeMb; }
+
+    @Value("${application.readerParallelism:4}")
+    private Integer readerParallelism;
+    protected void setReaderParallelism(final Integer readerParallelism) { this.readerParallelism = readerParallelism; }
+
+    @Value("${application.statusBatchSize:1}")
+    private Integer statusBatchSize;
+    protected void setStatusBatchSize(final Integer statusBatchSize) { this.statusBatchSize = statusBatchSize; }
+
+    @Value("${application.statusBulkPath:}")
+    private String statusBulkPath;
+    protected void setStatusBulkPath(final String statusBulkPath) { this.statusBulkPath = statusBulkPath; }
+
+    @Value("${application.statusEngine:blocking}")
+    private String statusEngine;
+    protected void setStatusEngine(final String statusEngine) { this.statusEngine = statusEngine; }
+
+    @Value("${application.maxInFlightLookups:256}")
+    private Integer maxInFlightLookups;
+    protected void setMaxInFlightLookups(final Integer maxInFlightLookups) { this.maxInFlightLookups = maxInFlightLookups; }
+
+    @Value("${application.concurrencyLimit.enabled:false}")
+    private Boolean concurrencyLimitEnabled;
+    protected void setConcurrencyLimitEnabled(final Boolean concurrencyLimitEnabled) { this.concurrencyLimitEnabled = concurrencyLimitEnabled; }
+
+    @Value("${application.concurrencyLimit.initialLimit:8}")
+    private Integer concurrencyInitialLimit;
+    protected void setConcurrencyInitialLimit(final Integer concurrencyInitialLimit) { this.concurrencyInitialLimit = concurrencyInitialLimit; }
+
+    @Value("${application.concurrencyLimit.minLimit:1}")
+    private Integer concurrencyMinLimit;
+    protected void setConcurrencyMinLimit(final Integer concurrencyMinLimit) { this.concurrencyMinLimit = concurrencyMinLimit; }
+
+    @Value("${application.concurrencyLimit.maxLimit:256}")
+    private Integer concurrencyMaxLimit;
+    protected void setConcurrencyMaxLimit(final Integer concurrencyMaxLimit) { this.concurrencyMaxLimit = concurrencyMaxLimit; }
+
+    @Value("${application.concurrencyLimit.latencyTolerance:2.0}")
+    private Double concurrencyLatencyTolerance;
+    protected void setConcurrencyLatencyTolerance(final Double concurrencyLatencyTolerance) { this.concurrencyLatencyTolerance = concurrencyLatencyTolerance; }
+
+    @Value("${application.concurrencyLimit.backoffRatio:0.9}")
+    private Double concurrencyBackoffRatio;
+    protected void setConcurrencyBackoffRatio(final Double concurrencyBackoffRatio) { this.concurrencyBackoffRatio = concurrencyBackoffRatio; }
+
+    @Value("${application.hedging.enabled:false}")
+    private Boolean hedgingEnabled;
+    protected void setHedgingEnabled(final Boolean hedgingEnabled) { this.hedgingEnabled = hedgingEnabled; }
+
+    @Value("${application.hedging.percentile:95}")
+    private Double hedgingPercentile;
+    protected void setHedgingPercentile(final Double hedgingPercentile) { this.hedgingPercentile = hedgingPercentile; }
+
+    @Value("${application.hedging.budgetPercent:5}")
+    private Double hedgingBudgetPercent;
+    protected void setHedgingBudgetPercent(final Double hedgingBudgetPercent) { this.hedgingBudgetPercent = hedgingBudgetPercent; }
+
+    @Value("${application.hedging.minDelayMs:10}")
+    private Long hedgingMinDelayMs;
+    protected void setHedgingMinDelayMs(final Long hedgingMinDelayMs) { this.hedgingMinDelayMs = hedgingMinDelayMs; }
+
+    @Value("${application.loadBalancing.strategy:P2C}")
+    private String loadBalancingStrategy;
+    protected void setLoadBalancingStrategy(final String loadBalancingStrategy) { this.loadBalancingStrategy = loadBalancingStrategy; }
+
+    @Value("${application.loadBalancing.ejectAfterFailures:3}")
+    private Integer loadBalancingEjectAfterFailures;
+    protected void setLoadBalancingEjectAfterFailures(final Integer loadBalancingEjectAfterFailures) { this.loadBalancingEjectAfterFailures = loadBalancingEjectAfterFailures; }
+
+    @Value("${application.loadBalancing.ejectMs:5000}")
+    private Long loadBalancingEjectMs;
+    protected void setLoadBalancingEjectMs(final Long loadBalancingEjectMs) { this.loadBalancingEjectMs = loadBalancingEjectMs; }
+
+    @Value("${application.retry.maxRetries:0}")
+    private Integer retryMaxRetries;
+    protected void setRetryMaxRetries(final Integer retryMaxRetries) { this.retryMaxRetries = retryMaxRetries; }
+
+    @Value("${application.retry.baseDelayMs:50}")
+    private Long retryBaseDelayMs;
+    protected void setRetryBaseDelayMs(final Long retryBaseDelayMs) { this.retryBaseDelayMs = retryBaseDelayMs; }
+
+    @Value("${application.retry.maxDelayMs:1000}")
+    private Long retryMaxDelayMs;
+    protected void setRetryMaxDelayMs(final Long retryMaxDelayMs) { this.retryMaxDelayMs = retryMaxDelayMs; }
+
+    @Value("${application.circuitBreaker.enabled:false}")
+    private Boolean circuitBreakerEnabled;
+    protected void setCircuitBreakerEnabled(final Boolean circuitBreakerEnabled) { this.circuitBreakerEnabled = circuitBreakerEnabled; }
+
+    @Value("${application.circuitBreaker.failureRatePercent:50}")
+    private Integer circuitBreakerFailureRatePercent;
+    protected void setCircuitBreakerFailureRatePercent(final Integer circuitBreakerFailureRatePercent) { this.circuitBreakerFailureRatePercent = circuitBreakerFailureRatePercent; }
+
+    @Value("${application.circuitBreaker.minimumRequests:20}")
+    private Integer circuitBreakerMinimumRequests;
+    protected void setCircuitBreakerMinimumRequests(final Integer circuitBreakerMinimumRequests) { this.circuitBreakerMinimumRequests = circuitBreakerMinimumRequests; }
+
+    @Value("${application.circuitBreaker.windowSize:100}")
+    private Integer circuitBreakerWindowSize;
+    protected void setCircuitBreakerWindowSize(final Integer circuitBreakerWindowSize) { this.circuitBreakerWindowSize = circuitBreakerWindowSize; }
+
+    @Value("${application.circuitBreaker.openMs:5000}")
+    private Long circuitBreakerOpenMs;
+    protected void setCircuitBreakerOpenMs(final Long circuitBreakerOpenMs) { this.circuitBreakerOpenMs = circuitBreakerOpenMs; }
+
+    @Value("${application.rateLimit.requestsPerSecond:0}")
+    private Double rateLimitRequestsPerSecond;
+    protected void setRateLimitRequestsPerSecond(final Double rateLimitRequestsPerSecond) { this.rateLimitRequestsPerSecond = rateLimitRequestsPerSecond; }
+
+    @Value("${application.rateLimit.burst:10}")
+    private Integer rateLimitBurst;
+    protected void setRateLimitBurst(final Integer rateLimitBurst) { this.rateLimitBurst = rateLimitBurst; }
+
+    @Value("${application.rateLimit.maxRetries:5}")
+    private Integer rateLimitMaxRetries;
+    protected void setRateLimitMaxRetries(final Integer rateLimitMaxRetries) { this.rateLimitMaxRetries = rateLimitMaxRetries; }
+
+    @Value("${application.rateLimit.defaultRetryAfterMs:1000}")
+    private Long rateLimitDefaultRetryAfterMs;
+    protected void setRateLimitDefaultRetryAfterMs(final Long rateLimitDefaultRetryAfterMs) { this.rateLimitDefaultRetryAfterMs = rateLimitDefaultRetryAfterMs; }
+
+    @Value("${application.http.maxConnectionsTotal:64}")
+    private Integer httpMaxConnectionsTotal;
+    protected void setHttpMaxConnectionsTotal(final Integer httpMaxConnectionsTotal) { this.httpMaxConnectionsTotal = httpMaxConnectionsTotal; }
+
+    @Value("${application.http.maxConnectionsPerRoute:64}")
+    private Integer httpMaxConnectionsPerRoute;
+    protected void setHttpMaxConnectionsPerRoute(final Integer httpMaxConnectionsPerRoute) { this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute; }
+
+    @Value("${application.http.connectTimeoutMs:2000}")
+    private Integer httpConnectTimeoutMs;
+    protected void setHttpConnectTimeoutMs(final Integer httpConnectTimeoutMs) { this.httpConnectTimeoutMs = httpConnectTimeoutMs; }
+
+    @Value("${application.http.readTimeoutMs:10000}")
+    private Integer httpReadTimeoutMs;
+    protected void setHttpReadTimeoutMs(final Integer httpReadTimeoutMs) { this.httpReadTimeoutMs = httpReadTimeoutMs; }
+
+    @Value("${application.http.connectionRequestTimeoutMs:10000}")
+    private Integer httpConnectionRequestTimeoutMs;
+    protected void setHttpConnectionRequestTimeoutMs(final Integer httpConnectionRequestTimeoutMs) { this.httpConnectionRequestTimeoutMs = httpConnectionRequestTimeoutMs; }
+
+    @Value("${application.http.idleEvictionSeconds:30}")
+    private Integer httpIdleEvictionSeconds;
+    protected void setHttpIdleEvictionSeconds(final Integer httpIdleEvictionSeconds) { this.httpIdleEvictionSeconds = httpIdleEvictionSeconds; }
+
+    @Value("${application.http.keepAliveSeconds:30}")
+    private Integer httpKeepAliveSeconds;
+    protected void setHttpKeepAliveSeconds(final Integer httpKeepAliveSeconds) { this.httpKeepAliveSeconds = httpKeepAliveSeconds; }
+
+    @Value("${application.http.transport:HTTP1}")
+    private String httpTransport;
+    protected void setHttpTransport(final String httpTransport) { this.httpTransport = httpTransport; }
+
+    @Value("${application.trace.sampleEvery:1000}")
+    private Integer traceSampleEvery;
+    protected void setTraceSampleEvery(final Integer traceSampleEvery) { this.traceSampleEvery = traceSampleEvery; }
+
+    @Value("${application.metrics.enabled:true}")
+    private Boolean metricsEnabled;
+    protected void setMetricsEnabled(final Boolean metricsEnabled) { this.metricsEnabled = metricsEnabled; }
+
+    @Value("${application.metrics.logIntervalSeconds:60}")
+    private Long metricsLogIntervalSeconds;
+    protected void setMetricsLogIntervalSeconds(final Long metricsLogIntervalSeconds) { this.metricsLogIntervalSeconds = metricsLogIntervalSeconds; }
+
+    /**
+     * The registry the metrics are published to. One configured by the application, ie by Spring Boot Actuator, is
+     * used when there is one, otherwise init() creates a LoggingMeterRegistry.
+     */
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    protected void setMeterRegistry(final MeterRegistry meterRegistry) { this.meterRegistry = meterRegistry; }
+    private LoggingMeterRegistry loggingMeterRegistry;
+
+    @Value("${application.metrics.queueSampleIntervalMs:100}")
+    private Long metricsQueueSampleIntervalMs;
+    protected void setMetricsQueueSampleIntervalMs(final Long metricsQueueSampleIntervalMs) { this.metricsQueueSampleIntervalMs = metricsQueueSampleIntervalMs; }
+
+    @Value("${application.jfr.enabled:false}")
+    private Boolean jfrEnabled;
+    protected void setJfrEnabled(final Boolean jfrEnabled) { this.jfrEnabled = jfrEnabled; }
+
+    @Value("${application.progress.intervalSeconds:10}")
+    private Long progressIntervalSeconds;
+    protected void setProgressIntervalSeconds(final Long progressIntervalSeconds) { this.progressIntervalSeconds = progressIntervalSeconds; }
+
+    @Value("${application.statusCache.enabled:false}")
+    private Boolean statusCacheEnabled;
+    protected void setStatusCacheEnabled(final Boolean statusCacheEnabled) { this.statusCacheEnabled = statusCacheEnabled; }
+
+    @Value("${application.statusCache.maxSize:100000}")
+    private Integer statusCacheMaxSize;
+    protected void setStatusCacheMaxSize(final Integer statusCacheMaxSize) { this.statusCacheMaxSize = statusCacheMaxSize; }
+
+    @Value("${application.statusCache.ttlSeconds:3600}")
+    private Long statusCacheTtlSeconds;
+    protected void setStatusCacheTtlSeconds(final Long statusCacheTtlSeconds) { this.statusCacheTtlSeconds = statusCacheTtlSeconds; }
+
+    @Value("${application.statusStore.file:}")
+    private String statusStoreFile;
+    protected void setStatusStoreFile(final String statusStoreFile) { this.statusStoreFile = statusStoreFile; }
+
+    @Value("${application.statusStore.maxStatusAgeSeconds:86400}")
+    private Long maxStatusAgeSeconds;
+    protected void setMaxStatusAgeSeconds(final Long maxStatusAgeSeconds) { this.maxStatusAgeSeconds = maxStatusAgeSeconds; }
+
+    @Value("${application.statusStore.maxEntries:1000000}")
+    private Integer statusStoreMaxEntries;
+    protected void setStatusStoreMaxEntries(final Integer statusStoreMaxEntries) { this.statusStoreMaxEntries = statusStoreMaxEntries; }
+
     private Charset characterSet = StandardCharsets.UTF_8;
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountsService.class);
 
@@ -52,31 +318,331 @@ public class AccountsService {
      * @throws Exception
      */
     public void processAccounts(String inboundFilePath, String outboundFilePath) throws Exception {
+        processAccounts(inboundFilePath, outboundFilePath, CommandLineOptions.parse());
+    }
 
-        AccountMergeUtils.validateFile(inboundFilePath, maxInboundFileSizeMb);
+    /**
+     * Kicks off the primary service.
+     * @param inboundFilePath - Path to the inbound file.
+     * @param outboundFilePath - Path to the outbound file.
+     * @param options - The options passed on the command line. These override the matching configuration.
+     * @throws Exception
+     */
+    @SuppressWarnings("try") // The recording is only opened and closed around the run.
+    public void processAccounts(String inboundFilePath, String outboundFilePath, CommandLineOptions options) throws Exception {
+
+        AccountMergeUtils.validateFile(inboundFilePath, maxInboundFileSizeMb, streamingMode);
+
+        AccountsServiceProvider.StatusEngine engine = AccountMergeUtils.parseSetting("application.statusEngine", this.statusEngine, AccountsServiceProvider.StatusEngine.class);
+
+        EndpointBalancer balancer = createEndpointBalancer();
+        String primaryStatusApi = balancer.getEndpoints().get(0).getUrl(); // The reactive engine uses a single endpoint.
+
+        HedgingStatusLookup hedgingLookup = null;
+        LimitingStatusLookup limitingLookup = null;
+        ResilientStatusLookup resilientLookup = null;
+        PipelineMetrics pipelineMetrics = null;
+        RateLimitInterceptor rateLimitInterceptor = createRateLimitInterceptor();
+        try ( Closeable recording = startRecording(options); // Closed last, so the recording covers the whole run.
+              PooledHttpClient httpClient = createHttpClient(rateLimitInterceptor);
+              StatusCache statusCache = createStatusCache(options);
+              ReactiveAccountStatusClient reactiveClient = ( engine == AccountsServiceProvider.StatusEngine.REACTIVE )
+                      ? new ReactiveAccountStatusClient(primaryStatusApi, this.maxInFlightLookups, this.httpConnectTimeoutMs, this.httpReadTimeoutMs)
+                      : null ) {
+
+            AccountStatusLookup accountStatusLookup = new AccountStatusClient(balancer, this.statusBulkPath, httpClient.getRestTemplate());
+            if ( this.concurrencyLimitEnabled ) {
+                limitingLookup = new LimitingStatusLookup(accountStatusLookup, createConcurrencyLimiter(engine), this.meterRegistry);
+                accountStatusLookup = limitingLookup;
+            }
+            if ( this.retryMaxRetries > 0 || this.circuitBreakerEnabled ) { // Above the limiter, so every retry takes a permit.
+                resilientLookup = new ResilientStatusLookup(accountStatusLookup, createCircuitBreaker(), this.retryMaxRetries, this.retryBaseDelayMs, this.retryMaxDelayMs, this.meterRegistry);
+                accountStatusLookup = resilientLookup;
+            }
+            if ( this.hedgingEnabled ) { // Above the limiter, so a hedge takes a permit of its own.
+                hedgingLookup = new HedgingStatusLookup(accountStatusLookup, this.hedgingPercentile, this.hedgingBudgetPercent, this.hedgingMinDelayMs);
+                accountStatusLookup = hedgingLookup;
+            }
+            if ( !Objects.isNull(statusCache) ) { // Cache hits do not take a permit from the limiter.
+                accountStatusLookup = new CachingAccountStatusLookup(accountStatusLookup, statusCache);
+            }
+
+            pipelineMetrics = new PipelineMetrics(this.metricsQueueSampleIntervalMs);
+            if ( this.metricsEnabled ) pipelineMetrics.bindTo(this.meterRegistry);
+
+            AccountsServiceProvider accountsServiceProvider = new AccountsServiceProvider.AccountsServiceProviderBuilder()
+                    .inboundFilePath(inboundFilePath)
+                    .outboundFilePath(outboundFilePath)
+                    .numOfRowConsumers(this.numOfRowConsumers)
+                    .queueCapacity(this.queueCapacity)
+                    .queueType(AccountMergeUtils.parseSetting("application.queueType", this.queueType, AccountsServiceProvider.QueueType.class))
+                    .waitStrategy(AccountMergeUtils.parseSetting("application.waitStrategy", this.waitStrategy, WaitStrategy.class))
+                    .readerChunkSizeMb(this.readerChunkSizeMb)
+                    .readerParallelism(this.readerParallelism)
+                    .characterSet(this.characterSet)
+                    .restStatusApi(primaryStatusApi)
+                    .statusBatchSize(this.statusBatchSize)
+                    .statusBulkPath(this.statusBulkPath)
+                    .statusEngine(engine)
+                    .maxInFlightLookups(this.maxInFlightLookups)
+                    .accountStatusClient(accountStatusLookup)
+                    .reactiveAccountStatusClient(reactiveClient)
+                    .pipelineMetrics(pipelineMetrics)
+                    .build();
+
+            ProgressReporter progress = createProgressReporter(options, pipelineMetrics);
+            boolean completed = false;
+            PipelineResult result;
+            try {
+                result = accountsServiceProvider.processAccounts(inboundFilePath, outboundFilePath);
+                completed = true;
+            }
+            finally {
+                if ( !Objects.isNull(progress) ) progress.stop(completed);
+            }
+            LOGGER.info(String.format("Account processing completed. %s", result));
+            if ( this.metricsEnabled ) LOGGER.info(String.format("Pipeline statistics. %s", pipelineMetrics));
+            if ( accountStatusLookup instanceof CachingAccountStatusLookup ) LOGGER.info(String.format("Status cache statistics. %s", accountStatusLookup));
+            if ( !Objects.isNull(limitingLookup) ) LOGGER.info(String.format("Concurrency limit statistics. %s", limitingLookup.getLimiter()));
+            if ( !Objects.isNull(resilientLookup) ) LOGGER.info(String.format("Retry statistics. %s", resilientLookup));
+            if ( !Objects.isNull(hedgingLookup) ) LOGGER.info(String.format("Hedging statistics. %s", hedgingLookup));
+            if ( !Objects.isNull(rateLimitInterceptor) ) LOGGER.info(String.format("Rate limit statistics. %s", rateLimitInterceptor));
+            if ( balancer.getEndpoints().size() > 1 ) LOGGER.info(String.format("Load balancing statistics. %s", balancer));
+        }
+        finally {
+            if ( !Objects.isNull(hedgingLookup) ) hedgingLookup.close();
+            if ( !Objects.isNull(limitingLookup) ) limitingLookup.unbind();
+            if ( !Objects.isNull(resilientLookup) ) resilientLookup.unbind();
+            if ( !Objects.isNull(pipelineMetrics) ) pipelineMetrics.unbind();
+        }
+
+    }
+
+    /**
+     * @return - The registry the metrics are published to when the application has not configured one: a LoggingMeterRegistry
+     *           logging every meter each metrics.logIntervalSeconds, or an empty registry that publishes nothing when
+     *           metrics.enabled is false.
+     */
+    private MeterRegistry createMeterRegistry() {
+        if ( !this.metricsEnabled ) return new CompositeMeterRegistry();
+
+        Duration step = Duration.ofSeconds(Math.max(1, this.metricsLogIntervalSeconds));
+        this.loggingMeterRegistry = LoggingMeterRegistry.builder(new LoggingRegistryConfig() {
+                    @Override
+                    public String get(String key) { return null; }
+
+                    @Override
+                    public Duration step() { return step; }
+                })
+                .clock(Clock.SYSTEM)
+                .threadFactory(r -> {
+                    Thread thread = new Thread(r, "metrics-logger");
+                    thread.setDaemon(true); // Must not keep the JVM alive once the run is over.
+                    return thread;
+                })
+                .build();
+        return this.loggingMeterRegistry;
+    }
+
+    /**
+     * @param options - The options passed on the command line. --jfr names the file the recording is written to.
+     * @return - The Flight Recorder recording of the run, or null when none was asked for or the JVM does not support it.
+     * @throws IOException
+     */
+    private Closeable startRecording(CommandLineOptions options) throws IOException {
+        if ( !options.has(CommandLineOptions.JFR) ) return null;
+
+        Closeable recording = PipelineEvents.startRecording(Paths.get(options.get(CommandLineOptions.JFR)));
+        if ( !Objects.isNull(recording) ) LOGGER.info(String.format("Recording the run with Flight Recorder to %s.", options.get(CommandLineOptions.JFR)));
+        return recording;
+    }
+
+    /**
+     * @param options - The options passed on the command line. --progress is stderr or the path of the status file.
+     * @param pipelineMetrics - The metrics of the run the progress is read from.
+     * @return - The reporter, started, or null when no progress was asked for.
+     */
+    private ProgressReporter createProgressReporter(CommandLineOptions options, PipelineMetrics pipelineMetrics) {
+        if ( !options.has(CommandLineOptions.PROGRESS) ) return null;
+
+        ProgressReporter progress = new ProgressReporter(pipelineMetrics, options.get(CommandLineOptions.PROGRESS), this.progressIntervalSeconds);
+        progress.start();
+        return progress;
+    }
 
-        AccountsServiceProvider accountsServiceProvider = new AccountsServiceProvider.AccountsServiceProviderBuilder()
-                .inboundFilePath(inboundFilePath)
-                .outboundFilePath(outboundFilePath)
-                .numOfRowConsumers(this.numOfRowConsumers)
-                .characterSet(this.characterSet)
-                .restStatusApi(this.restStatusApi)
+    /**
+     * The persistent status store is used when statusStore.file is configured, otherwise the in-process cache when it is enabled.
+     * @param options - The options passed on the command line. --max-status-age overrides statusStore.maxStatusAgeSeconds.
+     * @return - The status cache for the run, or null when caching is disabled.
+     * @throws IOException
+     * @throws IllegalArgumentException - Thrown if --max-status-age is passed without a status store to apply it to.
+     */
+    private StatusCache createStatusCache(CommandLineOptions options) throws IOException {
+        Long maxStatusAge = options.has(CommandLineOptions.MAX_STATUS_AGE) ? options.getDurationSeconds(CommandLineOptions.MAX_STATUS_AGE) : this.maxStatusAgeSeconds;
+
+        if ( !Strings.isNullOrEmpty(this.statusStoreFile) ) {
+            LOGGER.debug(String.format("Using status store=%s with maxStatusAgeSeconds=%d, maxEntries=%d", this.statusStoreFile, maxStatusAge, this.statusStoreMaxEntries));
+            return new PersistentStatusCache(Paths.get(this.statusStoreFile), maxStatusAge, this.statusStoreMaxEntries);
+        }
+
+        if ( options.has(CommandLineOptions.MAX_STATUS_AGE) )
+            throw new IllegalArgumentException("--max-status-age needs a status store, configure application.statusStore.file.");
+
+        if ( this.statusCacheEnabled ) return new LruStatusCache(this.statusCacheMaxSize, this.statusCacheTtlSeconds);
+        return null;
+    }
+
+    /**
+     * The limit is capped at the requests the engine can have in flight: numOfRowConsumers for the blocking engine and
+     * maxInFlightLookups for the virtual one. A limit above that is never in use, so it could only rise to the cap and
+     * would then have to back off all the way down before it held any request back.
+     * @param engine - The engine making the requests.
+     * @return - The limiter that adjusts the status requests in flight to the latency of the REST Api.
+     */
+    private AdaptiveConcurrencyLimiter createConcurrencyLimiter(AccountsServiceProvider.StatusEngine engine) {
+        int engineInFlight = ( engine == AccountsServiceProvider.StatusEngine.BLOCKING ) ? this.numOfRowConsumers : this.maxInFlightLookups;
+        int maxLimit = Math.min(this.concurrencyMaxLimit, engineInFlight);
+        if ( maxLimit < this.concurrencyMaxLimit )
+            LOGGER.info(String.format("concurrencyLimit.maxLimit lowered from %d to %d, the most requests the %s engine has in flight.", this.concurrencyMaxLimit, maxLimit, engine));
+
+        return new AdaptiveConcurrencyLimiter.AdaptiveConcurrencyLimiterBuilder()
+                .initialLimit(this.concurrencyInitialLimit)
+                .minLimit(this.concurrencyMinLimit)
+                .maxLimit(maxLimit)
+                .latencyTolerance(this.concurrencyLatencyTolerance)
+                .backoffRatio(this.concurrencyBackoffRatio)
                 .build();
+    }
 
-        accountsServiceProvider.processAccounts(inboundFilePath, outboundFilePath);
+    /**
+     * @return - The balancer over the replicas listed in restStatusApi, comma separated.
+     */
+    private EndpointBalancer createEndpointBalancer() {
+        return new EndpointBalancer.EndpointBalancerBuilder()
+                .urls(EndpointBalancer.parseUrls(this.restStatusApi))
+                .strategy(AccountMergeUtils.parseSetting("application.loadBalancing.strategy", this.loadBalancingStrategy, EndpointBalancer.Strategy.class))
+                .ejectAfterFailures(this.loadBalancingEjectAfterFailures)
+                .ejectMs(this.loadBalancingEjectMs)
+                .build();
+    }
 
+    /**
+     * @return - The circuit breaker around the REST Api, or null when circuitBreaker.enabled is false.
+     */
+    private CircuitBreaker createCircuitBreaker() {
+        if ( !this.circuitBreakerEnabled ) return null;
+        return new CircuitBreaker.CircuitBreakerBuilder()
+                .failureRatePercent(this.circuitBreakerFailureRatePercent)
+                .minimumRequests(this.circuitBreakerMinimumRequests)
+                .windowSize(this.circuitBreakerWindowSize)
+                .openMs(this.circuitBreakerOpenMs)
+                .build();
+    }
+
+    /**
+     * @return - The rate limiter shared by every request to the REST Api, or null when rateLimit.requestsPerSecond is not set.
+     */
+    private RateLimitInterceptor createRateLimitInterceptor() {
+        if ( Objects.isNull(this.rateLimitRequestsPerSecond) || this.rateLimitRequestsPerSecond <= 0 ) return null;
+        return new RateLimitInterceptor(new TokenBucket(this.rateLimitRequestsPerSecond, this.rateLimitBurst), this.rateLimitMaxRetries, this.rateLimitDefaultRetryAfterMs);
+    }
+
+    /**
+     * @param rateLimitInterceptor - The rate limiter every request passes through, or null for none.
+     * @return - The pooled http client shared by every consumer for the duration of a run.
+     */
+    private PooledHttpClient createHttpClient(RateLimitInterceptor rateLimitInterceptor) {
+        return new PooledHttpClient.PooledHttpClientBuilder()
+                .maxConnectionsTotal(this.httpMaxConnectionsTotal)
+                .maxConnectionsPerRoute(this.httpMaxConnectionsPerRoute)
+                .connectTimeoutMs(this.httpConnectTimeoutMs)
+                .readTimeoutMs(this.httpReadTimeoutMs)
+                .connectionRequestTimeoutMs(this.httpConnectionRequestTimeoutMs)
+                .idleEvictionSeconds(this.httpIdleEvictionSeconds)
+                .keepAliveSeconds(this.httpKeepAliveSeconds)
+                .rateLimitInterceptor(rateLimitInterceptor)
+                .transport(AccountMergeUtils.parseSetting("application.http.transport", this.httpTransport, PooledHttpClient.Transport.class))
+                .build();
     }
 
     @PostConstruct
     protected void init() {
         this.characterSet = AccountMergeUtils.applyCharSet(encoding);
+        RowTrace.setSampleEvery(traceSampleEvery);
+        if ( Objects.isNull(meterRegistry) ) meterRegistry = createMeterRegistry();
+        if ( jfrEnabled ) PipelineEvents.enable();
+        else PipelineEvents.enableIfRecording(); // --jfr enables them for its own recording.
         LOGGER.debug("***************************************************");
         LOGGER.debug("AccountsService:");
         LOGGER.debug("   encoding="+encoding);
         LOGGER.debug("   restStatusApi="+restStatusApi);
         LOGGER.debug("   maxInboundFileSizeMb="+maxInboundFileSizeMb);
         LOGGER.debug("   numOfRowConsumers="+numOfRowConsumers);
+        LOGGER.debug("   streamingMode="+streamingMode);
+        LOGGER.debug("   queueCapacity="+queueCapacity);
+        LOGGER.debug("   queueType="+queueType);
+        LOGGER.debug("   waitStrategy="+waitStrategy);
+        LOGGER.debug("   readerChunkSizeMb="+readerChunkSizeMb);
+        LOGGER.debug("   readerParallelism="+readerParallelism);
+        LOGGER.debug("   statusBatchSize="+statusBatchSize);
+        LOGGER.debug("   statusBulkPath="+statusBulkPath);
+        LOGGER.debug("   statusEngine="+statusEngine);
+        LOGGER.debug("   maxInFlightLookups="+maxInFlightLookups);
+        LOGGER.debug("   statusCache.enabled="+statusCacheEnabled);
+        LOGGER.debug("   statusCache.maxSize="+statusCacheMaxSize);
+        LOGGER.debug("   statusCache.ttlSeconds="+statusCacheTtlSeconds);
+        LOGGER.debug("   statusStore.file="+statusStoreFile);
+        LOGGER.debug("   statusStore.maxStatusAgeSeconds="+maxStatusAgeSeconds);
+        LOGGER.debug("   statusStore.maxEntries="+statusStoreMaxEntries);
+        LOGGER.debug("   concurrencyLimit.enabled="+concurrencyLimitEnabled);
+        LOGGER.debug("   concurrencyLimit.initialLimit="+concurrencyInitialLimit);
+        LOGGER.debug("   concurrencyLimit.minLimit="+concurrencyMinLimit);
+        LOGGER.debug("   concurrencyLimit.maxLimit="+concurrencyMaxLimit);
+        LOGGER.debug("   concurrencyLimit.latencyTolerance="+concurrencyLatencyTolerance);
+        LOGGER.debug("   concurrencyLimit.backoffRatio="+concurrencyBackoffRatio);
+        LOGGER.debug("   hedging.enabled="+hedgingEnabled);
+        LOGGER.debug("   hedging.percentile="+hedgingPercentile);
+        LOGGER.debug("   hedging.budgetPercent="+hedgingBudgetPercent);
+        LOGGER.debug("   hedging.minDelayMs="+hedgingMinDelayMs);
+        LOGGER.debug("   loadBalancing.strategy="+loadBalancingStrategy);
+        LOGGER.debug("   loadBalancing.ejectAfterFailures="+loadBalancingEjectAfterFailures);
+        LOGGER.debug("   loadBalancing.ejectMs="+loadBalancingEjectMs);
+        LOGGER.debug("   retry.maxRetries="+retryMaxRetries);
+        LOGGER.debug("   retry.baseDelayMs="+retryBaseDelayMs);
+        LOGGER.debug("   retry.maxDelayMs="+retryMaxDelayMs);
+        LOGGER.debug("   circuitBreaker.enabled="+circuitBreakerEnabled);
+        LOGGER.debug("   circuitBreaker.failureRatePercent="+circuitBreakerFailureRatePercent);
+        LOGGER.debug("   circuitBreaker.minimumRequests="+circuitBreakerMinimumRequests);
+        LOGGER.debug("   circuitBreaker.windowSize="+circuitBreakerWindowSize);
+        LOGGER.debug("   circuitBreaker.openMs="+circuitBreakerOpenMs);
+        LOGGER.debug("   rateLimit.requestsPerSecond="+rateLimitRequestsPerSecond);
+        LOGGER.debug("   rateLimit.burst="+rateLimitBurst);
+        LOGGER.debug("   rateLimit.maxRetries="+rateLimitMaxRetries);
+        LOGGER.debug("   rateLimit.defaultRetryAfterMs="+rateLimitDefaultRetryAfterMs);
+        LOGGER.debug("   http.maxConnectionsTotal="+httpMaxConnectionsTotal);
+        LOGGER.debug("   http.maxConnectionsPerRoute="+httpMaxConnectionsPerRoute);
+        LOGGER.debug("   http.connectTimeoutMs="+httpConnectTimeoutMs);
+        LOGGER.debug("   http.readTimeoutMs="+httpReadTimeoutMs);
+        LOGGER.debug("   http.connectionRequestTimeoutMs="+httpConnectionRequestTimeoutMs);
+        LOGGER.debug("   http.idleEvictionSeconds="+httpIdleEvictionSeconds);
+        LOGGER.debug("   http.keepAliveSeconds="+httpKeepAliveSeconds);
+        LOGGER.debug("   http.transport="+httpTransport);
+        LOGGER.debug("   trace.sampleEvery="+traceSampleEvery);
+        LOGGER.debug("   metrics.enabled="+metricsEnabled);
+        LOGGER.debug("   metrics.queueSampleIntervalMs="+metricsQueueSampleIntervalMs);
+        LOGGER.debug("   metrics.logIntervalSeconds="+metricsLogIntervalSeconds);
+        LOGGER.debug("   meterRegistry="+meterRegistry.getClass().getSimpleName());
+        LOGGER.debug("   jfr.enabled="+jfrEnabled);
+        LOGGER.debug("   progress.intervalSeconds="+progressIntervalSeconds);
         LOGGER.debug("***************************************************");
     }
 
+    /**
+     * Closes the LoggingMeterRegistry created by init(), which logs the meters a last time.
+     */
+    @PreDestroy
+    protected void destroy() {
+        if ( !Objects.isNull(loggingMeterRegistry) ) loggingMeterRegistry.close();
+    }
+
 }
@@ -1,17 +1,28 @@
 package com.bluereligion.accountmerge.service;
 
+import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
+import com.bluereligion.accountmerge.client.AccountStatusClient;
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.client.ReactiveAccountStatusClient;
+import com.bluereligion.accountmerge.consumer.ReactiveRowConsumer;
 import com.bluereligion.accountmerge.consumer.RowConsumer;
+import com.bluereligion.accountmerge.consumer.VirtualThreadRowConsumer;
 import com.bluereligion.accountmerge.consumer.AccountConsumer;
 import com.bluereligion.accountmerge.dto.Account;
-import com.bluereligion.accountmerge.producer.RowProducer;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.producer.MappedRowProducer;
+import com.bluereligion.accountmerge.queue.RingBuffer;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+import com.bluereligion.accountmerge.queue.WaitStrategy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +33,22 @@ import org.slf4j.LoggerFactory;
  */
 public class AccountsServiceProvider {
 
+    /**
+     * How the accounts are enriched with their status.
+     *  - BLOCKING: numOfRowConsumers threads each calling the REST API with RestTemplate.
+     *  - REACTIVE: a single non-blocking stage calling the REST API with WebClient, up to maxInFlightLookups at once.
+     *  - VIRTUAL: a single stage calling the REST API with RestTemplate on a virtual thread per lookup, up to maxInFlightLookups at once.
+     *             Needs Java 21. On an older JVM each lookup runs on a platform thread instead.
+     */
+    public enum StatusEngine { BLOCKING, REACTIVE, VIRTUAL }
+
+    /**
+     * The queues between the stages.
+     *  - LINKED: LinkedBlockingQueue, which allocates a node and takes a lock on every put and take.
+     *  - RING: RingBuffer, pre-allocated and lock-free, claiming whole batches with a single compare-and-set.
+     */
+    public enum QueueType { LINKED, RING }
+
     private String inboundFilePath;
     protected void setInboundFilePath(final String inboundFilePath) {
         this.inboundFilePath = inboundFilePath;
@@ -47,60 +74,136 @@ public class AccountsServiceProvider {
         this.restStatusApi = restStatusApi;
     }
 
-    private BlockingQueue<String> rowQueue = new LinkedBlockingQueue<>(50);
-    private BlockingQueue<Account> accountQueue = new LinkedBlockingQueue<>(50);
+    private Integer statusBatchSize;
+    protected void setStatusBatchSize(final Integer statusBatchSize) {
+        this.statusBatchSize = statusBatchSize;
+    }
+
+    private String statusBulkPath;
+    protected void setStatusBulkPath(final String statusBulkPath) {
+        this.statusBulkPath = statusBulkPath;
+    }
+
+    private StatusEngine statusEngine = StatusEngine.BLOCKING;
+    protected void setStatusEngine(final StatusEngine statusEngine) {
+        this.statusEngine = statusEngine;
+    }
+
+    private Integer maxInFlightLookups;
+    protected void setMaxInFlightLookups(final Integer maxInFlightLookups) {
+        this.maxInFlightLookups = maxInFlightLookups;
+    }
+
+    private Integer readerChunkSizeMb;
+    protected void setReaderChunkSizeMb(final Integer readerChunkSizeMb) {
+        this.readerChunkSizeMb = readerChunkSizeMb;
+    }
+
+    private Integer readerParallelism;
+    protected void setReaderParallelism(final Integer readerParallelism) {
+        this.readerParallelism = readerParallelism;
+    }
+
+    private AccountStatusLookup accountStatusClient;
+    protected void setAccountStatusClient(final AccountStatusLookup accountStatusClient) {
+        this.accountStatusClient = accountStatusClient;
+    }
+
+    private ReactiveAccountStatusClient reactiveAccountStatusClient;
+    protected void setReactiveAccountStatusClient(final ReactiveAccountStatusClient reactiveAccountStatusClient) {
+        this.reactiveAccountStatusClient = reactiveAccountStatusClient;
+    }
+
+    private PipelineMetrics pipelineMetrics;
+    protected void setPipelineMetrics(final PipelineMetrics pipelineMetrics) {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * The queues are bounded so a slow stage holds back the stages before it, all the way from the writer to the reader.
+     * Memory use therefore depends on the capacity and not on the size of the file.
+     */
+    private BlockingQueue<String> rowQueue;
+    private BlockingQueue<Account> accountQueue;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountsServiceProvider.class);
+    private static final String END_OF_ROWS = new String("--[END OF ROWS]--"); // A distinct instance, so a row with the same text is not the end.
+    private static final Account END_OF_ACCOUNTS = new Account.AccountBuilder().accountName("EndOfAccounts").build();
 
     /**
      * The primary service entry point the kicks-off the processing of the inbound .csv file, calls the REST API for additional details than writes to an outbound .csv file.
+     * All of the stages are started together and run concurrently, handing rows downstream through the bounded queues.
      * @param inbound - Path to the inbound file.
      * @param outbound - Path to the outbound file.
-     * @throws Exception
+     * @return - The combined result of every stage.
+     * @throws ExecutionException - Thrown when any stage fails. The remaining stages are cancelled.
+     * @throws InterruptedException
      */
-    protected void processAccounts(String inbound, String outbound) throws Exception {
-        ExecutorService singleExecutorService = Executors.newSingleThreadExecutor();
-        ExecutorService multipleExecutorService = Executors.newFixedThreadPool(this.numOfRowConsumers);
-
-        Integer rowProducerResult = new Integer(-99);
-        Integer rowConsumerResult = new Integer(-99);
-        Integer accountConsumerResult = new Integer(-99);
-
+    protected PipelineResult processAccounts(String inbound, String outbound) throws ExecutionException, InterruptedException {
+        // The reactive and virtual engines replace the row consumers with a single stage that runs the lookups concurrently.
+        int numOfEnrichers = ( this.statusEngine == StatusEngine.BLOCKING ) ? this.numOfRowConsumers : 1;
+
+        // The end of each queue is only signalled once every stage putting to it has completed.
+        StreamChannel<String> rows = new StreamChannel<>(this.rowQueue, END_OF_ROWS, 1, numOfEnrichers, "rows");
+        StreamChannel<Account> accounts = new StreamChannel<>(this.accountQueue, END_OF_ACCOUNTS, numOfEnrichers, 1, "accounts");
+
+        // One thread for the producer, one per row consumer and one for the account consumer.
+        ExecutorService executorService = Executors.newFixedThreadPool(numOfEnrichers + 2);
+        ReactiveAccountStatusClient ownedReactiveClient = null;
+        PipelineResult result;
+
+        this.pipelineMetrics.watch(rows, accounts);
+        this.pipelineMetrics.setInboundBytes(new File(this.inboundFilePath).length());
+        this.pipelineMetrics.start();
         try {
             LOGGER.debug("Initiating queues and processing Accounts.");
+            PipelineOrchestrator orchestrator = new PipelineOrchestrator(executorService);
 
-            // Reads lines from file.
-            Future<Integer> rowProducerFuture = singleExecutorService.submit(new RowProducer(this.rowQueue, this.inboundFilePath, this.characterSet, this.numOfRowConsumers));
-            rowProducerResult = rowProducerFuture.get();
+            // Reads lines from file, readerParallelism chunks at a time.
+            orchestrator.submit("RowProducer", new MappedRowProducer(rows, this.inboundFilePath, this.characterSet,
+                    this.readerChunkSizeMb * 1024L * 1024L, this.readerParallelism, this.pipelineMetrics));
 
             // Parses rows into account objects and calls REST API.
-            for (int i = 0; i < this.numOfRowConsumers; i++) {
-                Future<Integer> rowConsumerFuture = multipleExecutorService.submit(new RowConsumer(this.rowQueue, this.accountQueue, this.restStatusApi));
-                rowConsumerResult = rowConsumerFuture.get();
+            if ( this.statusEngine == StatusEngine.REACTIVE ) {
+                if ( Objects.isNull(this.reactiveAccountStatusClient) ) {
+                    ownedReactiveClient = new ReactiveAccountStatusClient(this.restStatusApi, this.maxInFlightLookups);
+                    this.reactiveAccountStatusClient = ownedReactiveClient;
+                }
+                orchestrator.submit("ReactiveRowConsumer", new ReactiveRowConsumer(rows, accounts, this.reactiveAccountStatusClient, this.maxInFlightLookups, this.pipelineMetrics));
+            }
+            else if ( this.statusEngine == StatusEngine.VIRTUAL ) {
+                if ( Objects.isNull(this.accountStatusClient) ) this.accountStatusClient = new AccountStatusClient(this.restStatusApi, this.statusBulkPath);
+                orchestrator.submit("VirtualThreadRowConsumer", new VirtualThreadRowConsumer(rows, accounts, this.accountStatusClient, this.statusBatchSize, this.maxInFlightLookups, this.pipelineMetrics));
+            }
+            else {
+                // A single client, and so a single connection pool, is shared by every consumer.
+                if ( Objects.isNull(this.accountStatusClient) ) this.accountStatusClient = new AccountStatusClient(this.restStatusApi, this.statusBulkPath);
+                for (int i = 0; i < this.numOfRowConsumers; i++) {
+                    orchestrator.submit("RowConsumer-" + i, new RowConsumer(rows, accounts, this.accountStatusClient, this.statusBatchSize, this.pipelineMetrics));
+                }
             }
 
             // Writes to outbound .csv file.
-            Future<Integer> accountConsumerFuture = singleExecutorService.submit(new AccountConsumer(this.accountQueue, this.outboundFilePath, this.characterSet));
-            accountConsumerResult = accountConsumerFuture.get();
-
-            LOGGER.debug(String.format("Result from rowProducerFuture=%d", rowProducerResult));
-            LOGGER.debug(String.format("Result from rowConsumerFuture=%d", rowConsumerResult));
-            LOGGER.debug(String.format("Result from accountConsumerFuture=%d", accountConsumerResult));
+            orchestrator.submit("AccountConsumer", new AccountConsumer(accounts, this.outboundFilePath, this.characterSet, this.pipelineMetrics));
 
+            result = orchestrator.await();
+            LOGGER.debug(String.format("Pipeline result=%s", result));
         }
         finally {
 
+            this.pipelineMetrics.close();
             LOGGER.debug("Closing executors.");
-
-            if (singleExecutorService != null)
-                singleExecutorService.shutdown();
-
-            if (multipleExecutorService != null)
-                multipleExecutorService.shutdown();
-
+            executorService.shutdownNow();
+            if ( !Objects.isNull(ownedReactiveClient) ) ownedReactiveClient.close();
             LOGGER.debug("Executors successfully closed.");
         }
+
+        if ( !result.isSuccessful() ) {
+            throw new ExecutionException(String.format("Account processing failed. %s", result), result.getFailure());
+        }
+
         LOGGER.debug("Account processing is completed.");
+        return result;
     }
 
     private AccountsServiceProvider(AccountsServiceProviderBuilder accountsServiceProviderBuilder) {
@@ -109,6 +212,22 @@ public class AccountsServiceProvider {
         this.characterSet = accountsServiceProviderBuilder.characterSet;
         this.numOfRowConsumers = accountsServiceProviderBuilder.numOfRowConsumers;
         this.restStatusApi = accountsServiceProviderBuilder.restStatusApi;
+        this.statusBatchSize = accountsServiceProviderBuilder.statusBatchSize;
+        this.statusBulkPath = accountsServiceProviderBuilder.statusBulkPath;
+        this.statusEngine = accountsServiceProviderBuilder.statusEngine;
+        this.maxInFlightLookups = accountsServiceProviderBuilder.maxInFlightLookups;
+        this.readerChunkSizeMb = accountsServiceProviderBuilder.readerChunkSizeMb;
+        this.readerParallelism = accountsServiceProviderBuilder.readerParallelism;
+        this.accountStatusClient = accountsServiceProviderBuilder.accountStatusClient;
+        this.reactiveAccountStatusClient = accountsServiceProviderBuilder.reactiveAccountStatusClient;
+        this.pipelineMetrics = Objects.isNull(accountsServiceProviderBuilder.pipelineMetrics) ? new PipelineMetrics() : accountsServiceProviderBuilder.pipelineMetrics;
+        this.rowQueue = createQueue(accountsServiceProviderBuilder);
+        this.accountQueue = createQueue(accountsServiceProviderBuilder);
+    }
+
+    private static <E> BlockingQueue<E> createQueue(AccountsServiceProviderBuilder builder) {
+        if ( builder.queueType == QueueType.RING ) return new RingBuffer<>(builder.queueCapacity, builder.waitStrategy);
+        return new LinkedBlockingQueue<>(builder.queueCapacity);
     }
 
     /**
@@ -121,6 +240,18 @@ public class AccountsServiceProvider {
         private Charset characterSet;
         private Integer numOfRowConsumers;
         private String restStatusApi;
+        private Integer statusBatchSize = 1;
+        private String statusBulkPath;
+        private StatusEngine statusEngine = StatusEngine.BLOCKING;
+        private Integer maxInFlightLookups = 256;
+        private AccountStatusLookup accountStatusClient;
+        private ReactiveAccountStatusClient reactiveAccountStatusClient;
+        private PipelineMetrics pipelineMetrics;
+        private Integer queueCapacity = 50;
+        private QueueType queueType = QueueType.LINKED;
+        private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+        private Integer readerChunkSizeMb = 32;
+        private Integer readerParallelism = 4;
 
         public AccountsServiceProviderBuilder inboundFilePath(String inboundFilePath) {
             this.inboundFilePath = inboundFilePath;
@@ -147,6 +278,81 @@ public class AccountsServiceProvider {
             return this;
         }
 
+        public AccountsServiceProviderBuilder statusBatchSize(Integer statusBatchSize) {
+            this.statusBatchSize = statusBatchSize;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder statusBulkPath(String statusBulkPath) {
+            this.statusBulkPath = statusBulkPath;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder statusEngine(StatusEngine statusEngine) {
+            this.statusEngine = statusEngine;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder maxInFlightLookups(Integer maxInFlightLookups) {
+            this.maxInFlightLookups = maxInFlightLookups;
+            return this;
+        }
+
+        /**
+         * The client shared by the row consumers. When not set one is created from restStatusApi and statusBulkPath.
+         */
+        public AccountsServiceProviderBuilder accountStatusClient(AccountStatusLookup accountStatusClient) {
+            this.accountStatusClient = accountStatusClient;
+            return this;
+        }
+
+        /**
+         * The client used by the reactive engine. When not set one is created from restStatusApi and closed after the run.
+         */
+        public AccountsServiceProviderBuilder reactiveAccountStatusClient(ReactiveAccountStatusClient reactiveAccountStatusClient) {
+            this.reactiveAccountStatusClient = reactiveAccountStatusClient;
+            return this;
+        }
+
+        /**
+         * Records what each stage of the run does. When not set the run is measured but nothing is published.
+         */
+        public AccountsServiceProviderBuilder pipelineMetrics(PipelineMetrics pipelineMetrics) {
+            this.pipelineMetrics = pipelineMetrics;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder queueCapacity(Integer queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder queueType(QueueType queueType) {
+            this.queueType = queueType;
+            return this;
+        }
+
+        /**
+         * How the stages wait on a RING queue that is empty or full. Not used by LINKED queues.
+         */
+        public AccountsServiceProviderBuilder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * The size of the chunks the inbound file is split into. Each chunk is read by a single thread.
+         */
+        public AccountsServiceProviderBuilder readerChunkSizeMb(Integer readerChunkSizeMb) {
+            this.readerChunkSizeMb = readerChunkSizeMb;
+            return this;
+        }
+
+        public AccountsServiceProviderBuilder readerParallelism(Integer readerParallelism) {
+            this.readerParallelism = readerParallelism;
+            return this;
+        }
+
         public AccountsServiceProvider build() {
             return new AccountsServiceProvider(this);
         }
@@ -0,0 +1,95 @@
+package com.bluereligion.accountmerge.service;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Runs the stages of the pipeline at the same time and waits for them as a group.
+ * The stages talk to each other through bounded queues, so a stage that fails would otherwise leave its
+ * neighbours blocked forever on a put or a take. When any stage fails every other stage is cancelled (interrupted).
+ *
+ * @see https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ExecutorCompletionService.html
+ */
+public class PipelineOrchestrator {
+
+    private final CompletionService<Integer> completionService;
+    private final Map<Future<Integer>, String> stages = new IdentityHashMap<>();
+    private final List<Future<Integer>> futures = new ArrayList<>();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineOrchestrator.class);
+
+
+    /**
+     * Initializes the orchestrator.
+     * @param executorService - The executor the stages run on. It needs at least one thread per submitted stage.
+     */
+    public PipelineOrchestrator(ExecutorService executorService) {
+        this.completionService = new ExecutorCompletionService<>(executorService);
+    }
+
+    /**
+     * Starts a stage immediately.
+     * @param stageName - The name used to report the stage's outcome.
+     * @param stage - The stage to run.
+     */
+    public void submit(String stageName, Callable<Integer> stage) {
+        LOGGER.debug(String.format("Starting stage=%s", stageName));
+        Future<Integer> future = this.completionService.submit(stage);
+        this.stages.put(future, stageName);
+        this.futures.add(future);
+    }
+
+    /**
+     * Waits for every submitted stage to finish. The first failure cancels all of the stages still running.
+     * @return - The combined outcome of all the stages.
+     * @throws InterruptedException - The waiting thread was interrupted. All stages are cancelled before this is thrown.
+     */
+    public PipelineResult await() throws InterruptedException {
+        PipelineResult result = new PipelineResult();
+
+        try {
+            for (int i = 0; i < this.futures.size(); i++) {
+                Future<Integer> future = this.completionService.take();
+                String stageName = this.stages.get(future);
+
+                try {
+                    result.addResult(stageName, future.get());
+                    LOGGER.debug(String.format("Stage completed=%s", stageName));
+                }
+                catch (CancellationException ex) {
+                    result.addCancelled(stageName);
+                }
+                catch (ExecutionException ex) {
+                    LOGGER.error(String.format("Stage %s failed, cancelling the remaining stages.", stageName), ex.getCause());
+                    result.addFailure(stageName, ex.getCause());
+                    cancelAll();
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            cancelAll();
+            throw ex;
+        }
+        return result;
+    }
+
+    private void cancelAll() {
+        for (Future<Integer> future : this.futures) {
+            future.cancel(true);
+        }
+    }
+
+}
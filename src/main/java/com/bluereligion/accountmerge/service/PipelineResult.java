@@ -0,0 +1,68 @@
+package com.bluereligion.accountmerge.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * The combined outcome of a pipeline run. Holds the return code of every stage that completed,
+ * the stages that were cancelled and the first failure that stopped the run.
+ */
+public class PipelineResult {
+
+    private final Map<String, Integer> results = new LinkedHashMap<>();
+    private final List<String> cancelled = new ArrayList<>();
+
+    private String failedStage;
+    public String getFailedStage() { return failedStage; }
+
+    private Throwable failure;
+    public Throwable getFailure() { return failure; }
+
+    public Map<String, Integer> getResults() { return results; }
+    public List<String> getCancelled() { return cancelled; }
+
+    protected void addResult(String stageName, Integer result) {
+        this.results.put(stageName, result);
+    }
+
+    protected void addCancelled(String stageName) {
+        this.cancelled.add(stageName);
+    }
+
+    protected void addFailure(String stageName, Throwable failure) {
+        if ( Objects.isNull(this.failure) ) {
+            this.failedStage = stageName;
+            this.failure = failure;
+        }
+        else if ( failure != this.failure ) { // A throwable can not suppress itself.
+            this.failure.addSuppressed(failure);
+        }
+    }
+
+    /**
+     * @return - True when every stage completed and returned 0.
+     */
+    public boolean isSuccessful() {
+        if ( !Objects.isNull(this.failure) || !this.cancelled.isEmpty() ) return false;
+        for ( Integer result : this.results.values() ) {
+            if ( Objects.isNull(result) || result != 0 ) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineResult{" +
+                "successful=" + isSuccessful() +
+                ", results=" + results +
+                ", cancelled=" + cancelled +
+                ", failedStage='" + failedStage + '\'' +
+                ", failure='" + ( Objects.isNull(failure) ? null : failure.toString() ) + '\'' +
+                '}';
+    }
+
+}
@@ -1,13 +1,11 @@
 package com.bluereligion.accountmerge.util;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 import com.google.common.base.Strings;
@@ -24,11 +22,11 @@ import org.slf4j.LoggerFactory;
  */
 public class AccountMergeUtils {
 
-    public static final String EOF_MARKER = "--[EOF MARKER]--";
     private static final String DELIMITER = ",";
-    private static final char QUOTE = '"';
     private static final int KILOBYTES = 1024;
+    private static final ThreadLocal<CsvTokenizer> TOKENIZER = ThreadLocal.withInitial(CsvTokenizer::new);
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountMergeUtils.class);
+    private static final RowTrace TRACE = new RowTrace(LOGGER);
 
     /**
      * Apply the desired Character encoding permissible in Java.
@@ -58,17 +56,6 @@ public class AccountMergeUtils {
 
     }
 
-    /**
-     * Formulates the poison account used by the queues in determining when the data processing has completed.
-     * @return - the poison account.
-     */
-    public static Account getPoisonAccount() {
-        return new Account.AccountBuilder()
-                .id(-99999l)
-                .accountName("PoisonAccount")
-                .build();
-    }
-
     /**
      * A file is validated:
      *      1. The fileName param isn't null or empty.
@@ -84,24 +71,42 @@ public class AccountMergeUtils {
      * @throws IOException
      */
     public static boolean validateFile(String fileName, Integer maxInboundFileSizeMb) throws IllegalArgumentException, IOException {
+        return validateFile(fileName, maxInboundFileSizeMb, false);
+    }
+
+    /**
+     * A file is validated as above. In streaming mode the file is processed with flat memory use whatever its size,
+     * so the filesize limit is not applied.
+     *
+     * @param fileName - File to validate
+     * @param maxInboundFileSizeMb - Allowable filesize in megabytes, ignored in streaming mode.
+     * @param streamingMode - If the filesize limit should be skipped.
+     * @return - If the file is deemed valid.
+     * @throws IllegalArgumentException
+     * @throws IOException
+     */
+    public static boolean validateFile(String fileName, Integer maxInboundFileSizeMb, boolean streamingMode) throws IllegalArgumentException, IOException {
 
         if (Strings.isNullOrEmpty(fileName))
             throw new IllegalArgumentException("Filename is null. Please provide filename.");
 
-        if (Objects.isNull(maxInboundFileSizeMb) || maxInboundFileSizeMb == 0)
+        if (!streamingMode && (Objects.isNull(maxInboundFileSizeMb) || maxInboundFileSizeMb == 0))
             throw new IllegalArgumentException("MaxInboundFileSizeMb has not been set in the config. Please provide a valid configuration value.");
 
         if (!Files.exists(Paths.get(fileName))) {
             throw new IllegalArgumentException(String.format("Inbound file %s could not be located. Please ensure that the file exists and is correctly named.", fileName));
         }
 
-        if (FileChannel.open(Paths.get(fileName)).size() == 0) {
+        long size = Files.size(Paths.get(fileName));
+        if (size == 0) {
             throw new IllegalArgumentException("Inbound file exists but is empty. Please check the file and verify that it is complete.");
         }
 
-        long limit = Long.valueOf(maxInboundFileSizeMb * KILOBYTES * KILOBYTES);
-        if (FileChannel.open(Paths.get(fileName)).size() > limit) {
-            throw new IllegalArgumentException(String.format("Inbound file exceeds size limit of %s MBs.  Please use a smaller file.", limit));
+        if (!streamingMode) {
+            long limit = Long.valueOf(maxInboundFileSizeMb * KILOBYTES * KILOBYTES);
+            if (size > limit) {
+                throw new IllegalArgumentException(String.format("Inbound file exceeds size limit of %s MBs.  Please use a smaller file.", limit));
+            }
         }
 
         if (!Files.isReadable(Paths.get(fileName))) {
@@ -111,6 +116,25 @@ public class AccountMergeUtils {
         return true;
     }
 
+    /**
+     * Reads a configuration value naming one of the constants of an enum, in any case.
+     *
+     * @param name - The name of the setting, ie "application.statusEngine", for the error message.
+     * @param value - The configured value.
+     * @param type - The enum the value names a constant of.
+     * @return - The constant named.
+     * @throws IllegalArgumentException - The value is missing or names no constant. The message lists the valid values.
+     */
+    public static <E extends Enum<E>> E parseSetting(String name, String value, Class<E> type) throws IllegalArgumentException {
+
+        if (!Strings.isNullOrEmpty(value)) {
+            for (E constant : type.getEnumConstants()) {
+                if (constant.name().equalsIgnoreCase(value.trim())) return constant;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Invalid %s=%s. Please use one of %s.", name, value, Arrays.toString(type.getEnumConstants()).toLowerCase()));
+    }
+
 
     /**
      * Returns a comma delimited string representing the account.
@@ -164,26 +188,24 @@ public class AccountMergeUtils {
 
 
     /**
-     * Parses a comma delimited row.
+     * Parses a comma delimited row. The row is scrubbed and split in a single pass by this thread's CsvTokenizer,
+     * and Strings are only created for the fields the account holds.
      * @param s - The string to parse.
      * @return - The parsed account represented by s.
      */
     public static Account parseAccount(String s) {
 
-        LOGGER.debug(String.format("Parsing Account using%s", s));
+        if ( TRACE.sample(s) ) LOGGER.debug("Parsing Account using {}", s);
         if ( Strings.isNullOrEmpty(s) || !s.contains(DELIMITER )) return null;
 
-        LOGGER.debug("Delimiter found and removing extra spaces and carriage returns");
-        s = scrubLine(s);
-        LOGGER.debug(String.format("s after removing extra spaces and crria returns%s",s));
-
-        String[] accountInfo = parseLine(s);
+        CsvTokenizer tokenizer = TOKENIZER.get();
+        tokenizer.tokenize(s);
 
         return new Account.AccountBuilder()
-                .id(Long.parseLong(accountInfo[0]))
-                .accountName(accountInfo[1])
-                .firstName(accountInfo[2])
-                .createdOn(accountInfo[3])
+                .id(tokenizer.getLong(0))
+                .accountName(tokenizer.getString(1))
+                .firstName(tokenizer.getString(2))
+                .createdOn(tokenizer.getString(3))
                 .build();
 
     }
@@ -239,52 +261,10 @@ public class AccountMergeUtils {
      * @return An array representing the account's data elements.
      */
     protected static String[] parseLine(String s) {
-        LOGGER.debug(String.format("Begin parsing lines=%s",s));
-        List<String> values = new ArrayList<String>();
-        StringBuilder sb = new StringBuilder();
-        char[] chars = s.toCharArray();
-
-        boolean insideQuote = false;
-        int charsReadSinceOpenQuote = 0;
-
-        for ( char c : chars ) {
-            LOGGER.debug(String.format("Walking chars-c=%s, insideQuote=%s",c,insideQuote));
-            if ( c == QUOTE ) {
-                LOGGER.debug("Found a quote - insideQuote="+insideQuote+", charsReadSinceOpenQuote="+charsReadSinceOpenQuote);
-                if ( insideQuote ) { // Inside an open quote
-                    LOGGER.debug("Inside Open Quote.");
-                    if ( charsReadSinceOpenQuote == 0 ) { // Quote escaped by open quote - """
-                        LOGGER.debug("Escaped Quote found.");
-                        sb.append(c);
-                        charsReadSinceOpenQuote++;
-                        insideQuote = false;
-                    }
-                    else {
-                        LOGGER.debug("End Quote found.");
-                        insideQuote = false;
-                    }
-                }
-                else {
-                    insideQuote = true;
-                    LOGGER.debug("Open Quote Found");}
-            }
-            else {
-                if ( c == DELIMITER.charAt(0) && !insideQuote ) { // To handle a comma inside an open quote
-                    LOGGER.debug("Handling a comma inside an open quote.");
-                    values.add(sb.toString());
-                    sb.setLength(0);
-                    insideQuote = false;
-                    charsReadSinceOpenQuote = 0;
-                }
-                else {
-                    sb.append(c);
-                    if ( insideQuote ) charsReadSinceOpenQuote++;
-                }
-            }
-
-        }
-        values.add(sb.toString());
-        return values.stream().toArray(String[]::new);
+        if ( TRACE.sample(s) ) LOGGER.debug("Begin parsing lines={}", s);
+        CsvTokenizer tokenizer = TOKENIZER.get();
+        tokenizer.tokenize(s, false);
+        return tokenizer.toArray();
     }
 
 }
@@ -0,0 +1,110 @@
+package com.bluereligion.accountmerge.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+
+
+/**
+ * The arguments passed on the command line, split into the positional arguments (the input and output files)
+ * and the optional --name=value options.
+ */
+public class CommandLineOptions {
+
+    public static final String MAX_STATUS_AGE = "max-status-age";
+    public static final String JFR = "jfr";
+    public static final String PROGRESS = "progress";
+
+    private static final List<String> KNOWN_OPTIONS = Arrays.asList(MAX_STATUS_AGE, JFR, PROGRESS);
+    private static final String OPTION_PREFIX = "--";
+
+    private final List<String> positional = new ArrayList<>();
+    public List<String> getPositional() { return Collections.unmodifiableList(positional); }
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private CommandLineOptions() {
+    }
+
+    /**
+     * @param args - The arguments passed on the command line.
+     * @return - The parsed arguments.
+     * @throws IllegalArgumentException - Thrown for an unknown option or an option without a value.
+     */
+    public static CommandLineOptions parse(String... args) throws IllegalArgumentException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions();
+
+        for ( String arg : args ) {
+            if ( !arg.startsWith(OPTION_PREFIX) ) {
+                commandLineOptions.positional.add(arg);
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            String name = ( separator < 0 ) ? arg.substring(OPTION_PREFIX.length()) : arg.substring(OPTION_PREFIX.length(), separator);
+            if ( !KNOWN_OPTIONS.contains(name) )
+                throw new IllegalArgumentException(String.format("Unknown option %s.", arg));
+            if ( separator < 0 || separator == arg.length() - 1 )
+                throw new IllegalArgumentException(String.format("Option %s requires a value, ie %s%s=<value>.", arg, OPTION_PREFIX, name));
+
+            commandLineOptions.options.put(name, arg.substring(separator + 1));
+        }
+        return commandLineOptions;
+    }
+
+    /**
+     * @param name
+     * @return - The value of the option or null when it was not passed.
+     */
+    public String get(String name) {
+        return this.options.get(name);
+    }
+
+    public boolean has(String name) {
+        return this.options.containsKey(name);
+    }
+
+    /**
+     * Reads an option holding a duration. The value is a number with an optional unit: s (default), m, h or d. ie 90s, 30m, 6h, 2d
+     * @param name
+     * @return - The duration in seconds or null when the option was not passed.
+     * @throws IllegalArgumentException - Thrown when the value is not a valid duration.
+     */
+    public Long getDurationSeconds(String name) throws IllegalArgumentException {
+        String value = get(name);
+        if ( Objects.isNull(value) ) return null;
+
+        value = value.trim().toLowerCase();
+        if ( Strings.isNullOrEmpty(value) ) throw new IllegalArgumentException(String.format("Option --%s requires a duration.", name));
+
+        TimeUnit unit = TimeUnit.SECONDS;
+        char suffix = value.charAt(value.length() - 1);
+        if ( Character.isLetter(suffix) ) {
+            value = value.substring(0, value.length() - 1);
+            switch (suffix) {
+                case 's': unit = TimeUnit.SECONDS; break;
+                case 'm': unit = TimeUnit.MINUTES; break;
+                case 'h': unit = TimeUnit.HOURS; break;
+                case 'd': unit = TimeUnit.DAYS; break;
+                default: throw new IllegalArgumentException(String.format("Option --%s has an unknown unit '%s'. Use s, m, h or d.", name, suffix));
+            }
+        }
+
+        try {
+            long amount = Long.parseLong(value);
+            if ( amount < 0 ) throw new NumberFormatException();
+            return unit.toSeconds(amount);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Option --%s is not a valid duration, ie 90s, 30m, 6h or 2d.", name));
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.bluereligion.accountmerge.util;
+
+import java.util.Arrays;
+
+
+/**
+ * Splits a comma delimited row into fields in a single pass, without creating any objects for the row.
+ *
+ * The row is scrubbed and unquoted into a buffer owned by the tokenizer, and each field is recorded as an offset
+ * into that buffer. A String is only created for a field when it is asked for, so fields that never reach the
+ * output cost nothing. The buffer is reused for the next row, so a tokenizer must only be used by one thread at a time.
+ *
+ * The result is the same as AccountMergeUtils.parseLine(AccountMergeUtils.scrubLine(row)):
+ *      1. Line breaks anywhere in the row are dropped.
+ *      2. Leading and trailing commas are dropped.
+ *      3. Commas inside quotes do not split a field, and a doubled quote straight after an opening quote is kept as a quote.
+ */
+public class CsvTokenizer {
+
+    private static final char DELIMITER = ',';
+    private static final char QUOTE = '"';
+
+    private char[] buffer = new char[256];
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private int fieldCount;
+
+
+    /**
+     * Scrubs and tokenizes a row, replacing the fields of the previous row.
+     * @param s - The row to tokenize.
+     * @return - The number of fields found.
+     */
+    public int tokenize(CharSequence s) {
+        return tokenize(s, true);
+    }
+
+    /**
+     * Tokenizes a row, replacing the fields of the previous row.
+     * @param s - The row to tokenize.
+     * @param scrub - If line breaks and leading and trailing commas are dropped, as by AccountMergeUtils.scrubLine.
+     * @return - The number of fields found.
+     */
+    int tokenize(CharSequence s, boolean scrub) {
+        int start = 0;
+        int end = s.length();
+        if ( scrub ) {
+            while ( start < end && isTrimmed(s.charAt(start)) ) start++;
+            while ( end > start && isTrimmed(s.charAt(end - 1)) ) end--;
+        }
+
+        if ( this.buffer.length < end - start ) this.buffer = new char[Math.max(end - start, this.buffer.length * 2)];
+        char[] out = this.buffer;
+        int length = 0;
+        this.fieldCount = 0;
+        int fieldStart = 0;
+
+        boolean insideQuote = false;
+        int charsReadSinceOpenQuote = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if ( scrub && isLineBreak(c) ) continue;
+
+            if ( c == QUOTE ) {
+                if ( insideQuote ) {
+                    if ( charsReadSinceOpenQuote == 0 ) { // Quote escaped by open quote - """
+                        out[length++] = c;
+                        charsReadSinceOpenQuote++;
+                    }
+                    insideQuote = false;
+                }
+                else {
+                    insideQuote = true;
+                }
+            }
+            else if ( c == DELIMITER && !insideQuote ) {
+                addField(fieldStart, length);
+                fieldStart = length;
+                charsReadSinceOpenQuote = 0;
+            }
+            else {
+                out[length++] = c;
+                if ( insideQuote ) charsReadSinceOpenQuote++;
+            }
+        }
+        addField(fieldStart, length);
+        return this.fieldCount;
+    }
+
+    /**
+     * @return - The number of fields in the last row tokenized.
+     */
+    public int getFieldCount() { return this.fieldCount; }
+
+    /**
+     * @param i - The index of the field.
+     * @return - The field as a new String.
+     * @throws ArrayIndexOutOfBoundsException - The row has no such field.
+     */
+    public String getString(int i) {
+        checkField(i);
+        return new String(this.buffer, this.fieldStarts[i], this.fieldEnds[i] - this.fieldStarts[i]);
+    }
+
+    /**
+     * Parses a field as a long without creating a String, unless it is not a plain decimal number.
+     * @param i - The index of the field.
+     * @return - The field as a long.
+     * @throws NumberFormatException - The field is not a long, as for Long.parseLong.
+     * @throws ArrayIndexOutOfBoundsException - The row has no such field.
+     */
+    public long getLong(int i) {
+        checkField(i);
+        int pos = this.fieldStarts[i];
+        int end = this.fieldEnds[i];
+
+        boolean negative = pos < end && this.buffer[pos] == '-';
+        if ( negative || ( pos < end && this.buffer[pos] == '+' ) ) pos++;
+
+        // 18 digits always fit in a long. Anything longer, empty or not a digit is left to Long.parseLong to accept or reject.
+        if ( pos == end || end - pos > 18 ) return Long.parseLong(getString(i));
+
+        long value = 0;
+        for ( ; pos < end; pos++ ) {
+            char c = this.buffer[pos];
+            if ( c < '0' || c > '9' ) return Long.parseLong(getString(i));
+            value = value * 10 + ( c - '0' );
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return - Every field of the last row tokenized as Strings.
+     */
+    public String[] toArray() {
+        String[] fields = new String[this.fieldCount];
+        for (int i = 0; i < this.fieldCount; i++) fields[i] = getString(i);
+        return fields;
+    }
+
+    private void addField(int start, int end) {
+        if ( this.fieldCount == this.fieldStarts.length ) {
+            this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.fieldCount * 2);
+            this.fieldEnds = Arrays.copyOf(this.fieldEnds, this.fieldCount * 2);
+        }
+        this.fieldStarts[this.fieldCount] = start;
+        this.fieldEnds[this.fieldCount] = end;
+        this.fieldCount++;
+    }
+
+    private void checkField(int i) {
+        if ( i < 0 || i >= this.fieldCount ) throw new ArrayIndexOutOfBoundsException(i);
+    }
+
+    /**
+     * @return - True for the characters dropped from either end of a row.
+     */
+    private static boolean isTrimmed(char c) {
+        return c == DELIMITER || isLineBreak(c);
+    }
+
+    /**
+     * @return - True for the characters matched by the \R line break pattern.
+     */
+    static boolean isLineBreak(char c) {
+        return ( c >= '\n' && c <= '\r' ) || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.bluereligion.accountmerge.util;
+
+import java.util.Objects;
+
+import org.slf4j.Logger;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+
+/**
+ * Decides which rows the per-row debug messages of the hot path are logged for.
+ *
+ * Each trace point guards its message with sample(), so a run with DEBUG off pays a single level check per row and
+ * never formats a message or boxes an argument. With DEBUG on roughly one in sampleEvery of the rows is logged. The
+ * decision is made from a hash of the account id, read from the front of the raw row before it is parsed, so a row
+ * that is sampled is logged at every trace point it passes and its whole path through the pipeline can be followed,
+ * without the consumers sharing a counter. A sampleEvery of 1 logs every row.
+ *
+ * The messages themselves use the parameterized slf4j form, so the arguments are only formatted when the logger
+ * writes the event. The messages logged once per run, or once per failure, are not sampled.
+ */
+public final class RowTrace {
+
+    private static volatile int sampleEvery = 1000;
+
+    private final Logger logger;
+
+    /**
+     * @param logger - The logger the trace point writes to.
+     */
+    public RowTrace(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static int getSampleEvery() { return sampleEvery; }
+
+    /**
+     * @param every - Log one in every rows, at least 1. Applies to every trace point.
+     */
+    public static void setSampleEvery(int every) {
+        sampleEvery = Math.max(1, every);
+    }
+
+    /**
+     * @param row - The raw row, as read from the inbound file.
+     * @return - True if the message for this row should be logged.
+     */
+    public boolean sample(CharSequence row) {
+        return this.logger.isDebugEnabled() && isSampled(rowKey(row));
+    }
+
+    /**
+     * @param account - The account parsed from the row.
+     * @return - True if the message for the account's row should be logged.
+     */
+    public boolean sample(Account account) {
+        return this.logger.isDebugEnabled() && isSampled(( Objects.isNull(account) || Objects.isNull(account.getId()) ) ? 0 : account.getId());
+    }
+
+    private static boolean isSampled(long key) {
+        int every = sampleEvery;
+        if ( every == 1 ) return true;
+
+        long h = key; // The finalizer of MurmurHash3, so that consecutive ids spread evenly over the samples.
+        h = ( h ^ ( h >>> 33 ) ) * 0xff51afd7ed558ccdL;
+        h = ( h ^ ( h >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+        h = h ^ ( h >>> 33 );
+        return Math.floorMod(h, (long) every) == 0;
+    }
+
+    /**
+     * @return - The account id the row starts with, quoted or not, so the row and its account sample alike. A row
+     *           that does not start with one is keyed by its hash.
+     */
+    static long rowKey(CharSequence row) {
+        if ( Objects.isNull(row) ) return 0;
+
+        long id = 0;
+        int digits = 0;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if ( c >= '0' && c <= '9' ) {
+                id = id * 10 + ( c - '0' );
+                digits++;
+            }
+            else if ( c != '"' || digits > 0 ) break;
+        }
+        return ( digits > 0 ) ? id : row.toString().hashCode();
+    }
+
+}
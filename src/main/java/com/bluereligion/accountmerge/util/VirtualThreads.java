@@ -0,0 +1,69 @@
+package com.bluereligion.accountmerge.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Creates executors that start a virtual thread per task when the JVM supports them (Java 21 and later).
+ *
+ * The build targets Java 8, so Executors.newVirtualThreadPerTaskExecutor is looked up reflectively rather than
+ * compiled against. On an older JVM, or a JVM where virtual threads are still a preview feature that has not been
+ * enabled, an executor that starts a platform thread per task is returned instead.
+ *
+ * @see https://openjdk.org/jeps/444
+ */
+public class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private VirtualThreads() {}
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return - True when newVirtualThreadPerTaskExecutor returns an executor of virtual threads.
+     */
+    public static boolean isSupported() {
+        ExecutorService executorService = tryCreate();
+        if ( executorService == null ) return false;
+        executorService.shutdown();
+        return true;
+    }
+
+    /**
+     * @return - An executor that starts a new virtual thread for each task, or a new platform thread for each task when
+     * virtual threads are not supported. Either way the number of threads is unbounded, so the caller must limit the tasks submitted.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        ExecutorService executorService = tryCreate();
+        if ( executorService != null ) return executorService;
+
+        LOGGER.warn(String.format("Virtual threads are not supported by Java %s. Using a platform thread per task.", System.getProperty("java.version")));
+        return Executors.newCachedThreadPool();
+    }
+
+    private static ExecutorService tryCreate() {
+        if ( NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null ) return null;
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        }
+        catch (IllegalAccessException | InvocationTargetException ex) {
+            return null; // A preview feature that was not enabled throws UnsupportedOperationException.
+        }
+    }
+
+}
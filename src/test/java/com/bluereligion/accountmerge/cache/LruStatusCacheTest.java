@@ -0,0 +1,83 @@
+package com.bluereligion.accountmerge.cache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class LruStatusCacheTest {
+
+    private static AccountStatus status(String s, long fetchedOn) {
+        return new AccountStatus.AccountStatusBuilder().status(s).statusSetOn("2011-01-12").fetchedOn(fetchedOn).build();
+    }
+
+    @Test
+    public void testGetAndPut() throws Exception {
+        LruStatusCache cache = new LruStatusCache(10, 60);
+        assertNull(cache.get(1l));
+
+        AccountStatus expected = status("good", System.currentTimeMillis());
+        cache.put(1l, expected);
+
+        assertTrue(cache.get(1l).equals(expected));
+        assertTrue(cache.getHits() == 1);
+        assertTrue(cache.getMisses() == 1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        LruStatusCache cache = new LruStatusCache(2, 60);
+        long now = System.currentTimeMillis();
+
+        cache.put(1l, status("one", now));
+        cache.put(2l, status("two", now));
+        cache.get(1l);                       // 2 is now the least recently used
+        cache.put(3l, status("three", now));
+
+        assertTrue(cache.size() == 2);
+        assertTrue(cache.getEvictions() == 1);
+        assertNotNull(cache.get(1l));
+        assertNull(cache.get(2l));
+        assertNotNull(cache.get(3l));
+    }
+
+    @Test
+    public void testSegmentsShareTheMaxSize() throws Exception {
+        LruStatusCache cache = new LruStatusCache(100000, 60);
+        long now = System.currentTimeMillis();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long first = t * 50000l;
+            threads[t] = new Thread(() -> {
+                for (long id = first; id < first + 50000; id++) {
+                    cache.put(id, status("good-" + id, now));
+                    assertTrue(cache.get(id).getStatus().equals("good-" + id));
+                }
+            });
+            threads[t].start();
+        }
+        for ( Thread thread : threads ) thread.join();
+
+        assertTrue(String.valueOf(cache.size()), cache.size() <= 100000 && cache.size() > 95000);
+        assertTrue(cache.getEvictions() == 200000 - cache.size());
+        assertTrue(cache.getHits() == 200000);
+        assertNotNull(cache.get(199999l)); // The most recently used survive.
+    }
+
+    @Test
+    public void testExpiredStatusIsMissing() throws Exception {
+        LruStatusCache cache = new LruStatusCache(10, 60);
+        cache.put(1l, status("stale", System.currentTimeMillis() - 61000l));
+
+        assertNull(cache.get(1l));
+        assertTrue(cache.size() == 0);
+    }
+
+}
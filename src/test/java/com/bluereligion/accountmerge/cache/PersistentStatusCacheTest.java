@@ -0,0 +1,140 @@
+package com.bluereligion.accountmerge.cache;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.dto.AccountStatus;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class PersistentStatusCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AccountStatus status(String s, long fetchedOn) {
+        return new AccountStatus.AccountStatusBuilder().status(s).statusSetOn("2011-01-12").fetchedOn(fetchedOn).build();
+    }
+
+    @Test
+    public void testStatusesSurviveReopening() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("statuses.db");
+        long now = System.currentTimeMillis();
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            cache.put(1l, status("good", now));
+            cache.put(2l, status("poor", now));
+            cache.put(1l, status("closed", now + 1));
+        }
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            assertTrue(cache.size() == 2);
+            assertTrue(cache.get(1l).getStatus().equals("closed"));
+            assertTrue(cache.get(2l).equals(status("poor", now)));
+            assertNull(cache.get(3l));
+        }
+    }
+
+    @Test
+    public void testStaleStatusesAreNotServed() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("statuses.db");
+        long now = System.currentTimeMillis();
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            cache.put(1l, status("old", now - 7200000l));
+            cache.put(2l, status("fresh", now));
+        }
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            assertNull(cache.get(1l));
+            assertTrue(cache.get(2l).getStatus().equals("fresh"));
+        }
+
+        // A longer max age makes the older status usable again, until the store is compacted.
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 10800) ) {
+            assertTrue(cache.get(1l).getStatus().equals("old"));
+        }
+    }
+
+    @Test
+    public void testPartialRecordIsIgnored() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("statuses.db");
+        long now = System.currentTimeMillis();
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            cache.put(1l, status("good", now));
+            cache.put(2l, status("poor", now));
+        }
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+            channel.truncate(Files.size(file) - 3);
+        }
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            assertTrue(cache.size() == 1);
+            assertTrue(cache.get(1l).getStatus().equals("good"));
+            cache.put(3l, status("new", now));
+        }
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            assertTrue(cache.size() == 2);
+            assertTrue(cache.get(3l).getStatus().equals("new"));
+        }
+    }
+
+    @Test
+    public void testStatusesAreFlushedBeforeClose() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("statuses.db");
+        long now = System.currentTimeMillis();
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600) ) {
+            for (long id = 1; id <= 1000; id++) cache.put(id, status("good", now));
+
+            // Read while the first cache is still open, as the next run would after a crash.
+            try ( PersistentStatusCache reopened = new PersistentStatusCache(file, 3600) ) {
+                assertTrue(reopened.size() == 1000);
+            }
+
+            cache.put(1001l, status("good", now));
+            cache.flush();
+            try ( PersistentStatusCache reopened = new PersistentStatusCache(file, 3600) ) {
+                assertTrue(reopened.get(1001l).getStatus().equals("good"));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexIsBoundedByMaxEntries() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("statuses.db");
+        long now = System.currentTimeMillis();
+
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600, 3) ) {
+            for ( long id = 1; id <= 10; id++ ) cache.put(id, status("good-" + id, now));
+            assertTrue(cache.size() == 3);
+            assertTrue(cache.getEvictions() == 7);
+            assertNull(cache.get(1l));
+            assertTrue(cache.get(8l).getStatus().equals("good-8")); // 9 is now the least recently used.
+            cache.put(11l, status("good-11", now));
+            assertNull(cache.get(9l));
+        }
+
+        // The log held 11 records for 3 statuses, so it was compacted to the statuses left in the index.
+        try ( PersistentStatusCache cache = new PersistentStatusCache(file, 3600, 100) ) {
+            assertTrue(cache.size() == 3);
+            assertTrue(cache.get(8l).getStatus().equals("good-8"));
+            assertTrue(cache.get(10l).getStatus().equals("good-10"));
+            assertTrue(cache.get(11l).getStatus().equals("good-11"));
+        }
+    }
+
+}
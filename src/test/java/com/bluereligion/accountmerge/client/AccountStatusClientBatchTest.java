@@ -0,0 +1,174 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class AccountStatusClientBatchTest {
+
+    private static final String BULK_PATH = "/v1/accounts?ids=";
+
+    private static List<Account> accounts(long firstId, int count) {
+        List<Account> accounts = new ArrayList<>();
+        for ( long id = firstId; id < firstId + count; id++ ) {
+            accounts.add(new Account.AccountBuilder().id(id).firstName("Tony").build());
+        }
+        return accounts;
+    }
+
+    @Test
+    public void testBatchUsesOneRequest() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(true) ) {
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl(), BULK_PATH);
+
+            List<Account> actual = asc.callServiceInBatch(accounts(100l, 25));
+
+            assertTrue(server.getBulkCalls() == 1);
+            assertTrue(server.getSingleCalls() == 0);
+            for ( Account a : actual ) {
+                assertTrue(a.getStatus().equals("good-" + a.getId()));
+                assertTrue(a.getStatusSetOn().equals("2011-01-12"));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchReducesRoundTrips() throws Exception {
+        try ( StubStatusServer batched = new StubStatusServer(true); StubStatusServer single = new StubStatusServer(true) ) {
+            AccountStatusClient batchClient = new AccountStatusClient(batched.getServiceUrl(), BULK_PATH);
+            AccountStatusClient singleClient = new AccountStatusClient(single.getServiceUrl());
+
+            for ( int i = 0; i < 4; i++ ) {
+                batchClient.callServiceInBatch(accounts(1l + i * 25, 25));
+                singleClient.callServiceInBatch(accounts(1l + i * 25, 25));
+            }
+
+            System.out.println(String.format("Round trips for 100 accounts: batched=%d, single=%d", batched.getTotalCalls(), single.getTotalCalls()));
+            assertTrue(batched.getTotalCalls() == 4);
+            assertTrue(single.getTotalCalls() == 100);
+        }
+    }
+
+    @Test
+    public void testBatchFallsBackWhenBulkIsUnsupported() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl(), BULK_PATH);
+
+            List<Account> actual = asc.callServiceInBatch(accounts(100l, 10));
+            assertTrue(server.getBulkCalls() == 1);
+            assertTrue(server.getSingleCalls() == 10);
+            for ( Account a : actual ) {
+                assertTrue(a.getStatus().equals("good-" + a.getId()));
+            }
+
+            // The unsupported bulk endpoint is remembered and not tried again.
+            asc.callServiceInBatch(accounts(200l, 10));
+            assertTrue(server.getBulkCalls() == 1);
+            assertTrue(server.getSingleCalls() == 20);
+        }
+    }
+
+    @Test
+    public void testBatchWithUnknownAccount() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(true) ) {
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl(), BULK_PATH);
+
+            List<Account> batch = accounts(100l, 3);
+            batch.add(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).build());
+
+            List<Account> actual = asc.callServiceInBatch(batch);
+            assertTrue(server.getBulkCalls() == 1);
+            assertTrue(server.getSingleCalls() == 1);
+
+            Account unknown = actual.get(3);
+            assertNull(unknown.getStatus());
+            assertTrue(unknown.getMessage().startsWith("404"));
+        }
+    }
+
+    @Test
+    public void testBatchLeaseIsReleasedBeforeTheFallbacks() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(true) ) {
+            EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder().urls(EndpointBalancer.parseUrls(server.getServiceUrl())).build();
+            EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+
+            List<Integer> outstanding = new ArrayList<>();
+            RestTemplate restTemplate = new RestTemplate();
+            restTemplate.getInterceptors().add((request, body, execution) -> {
+                outstanding.add(endpoint.getOutstanding());
+                return execution.execute(request, body);
+            });
+            AccountStatusClient asc = new AccountStatusClient(balancer, BULK_PATH, restTemplate);
+
+            List<Account> batch = accounts(100l, 3);
+            batch.add(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).build());
+            asc.callServiceInBatch(batch);
+
+            // The bulk request, then the single lookup of the account it did not find, each the only one outstanding.
+            assertTrue(outstanding.toString(), outstanding.size() == 2 && outstanding.get(0) == 1 && outstanding.get(1) == 1);
+            assertTrue(endpoint.getOutstanding() == 0);
+        }
+    }
+
+    @Test
+    public void testLookupStatusReportsFailuresWithoutThrowing() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl());
+
+            Account known = new Account.AccountBuilder().id(5l).build();
+            assertTrue(asc.lookupStatus(known) == StatusResult.SUCCESS);
+            assertTrue(known.getStatus().equals("good-5"));
+
+            StatusResult notFound = asc.lookupStatus(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).build());
+            assertTrue(notFound.getOutcome() == StatusResult.Outcome.NOT_FOUND);
+            assertTrue(notFound.getMessage().equals("404 Not Found"));
+
+            server.rejectNext(1, null);
+            StatusResult rejected = asc.lookupStatus(new Account.AccountBuilder().id(6l).build());
+            assertTrue(rejected.getOutcome() == StatusResult.Outcome.TRANSIENT);
+            assertTrue(rejected.getHttpStatus() == 429);
+
+            assertTrue(asc.lookupStatus(null).getOutcome() == StatusResult.Outcome.FATAL);
+        }
+    }
+
+    @Test
+    public void testSharedTemplateIsLeftAlone() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            RestTemplate shared = new RestTemplate();
+            ResponseErrorHandler handler = shared.getErrorHandler();
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl(), null, shared);
+            assertTrue(shared.getErrorHandler() == handler);
+
+            try {
+                asc.callService(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).build());
+                fail("The 404 was not thrown.");
+            }
+            catch (HttpClientErrorException ex) {
+                assertTrue(ex.getRawStatusCode() == 404);
+            }
+
+            try {
+                shared.getForObject(server.getServiceUrl() + "/v1/accounts/" + StubStatusServer.UNKNOWN_ID_FLOOR, String.class);
+                fail("The shared template did not throw for the 404.");
+            }
+            catch (HttpClientErrorException ex) {
+                assertTrue(ex.getRawStatusCode() == 404);
+            }
+        }
+    }
+
+}
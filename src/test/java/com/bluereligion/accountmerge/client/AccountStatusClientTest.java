@@ -1,5 +1,7 @@
 package com.bluereligion.accountmerge.client;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.*;
@@ -10,10 +12,14 @@ import org.mockito.Mockito;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 
@@ -30,6 +36,15 @@ public class AccountStatusClientTest {
     private AccountStatusClient asc = new AccountStatusClient("http://localhost:8080");
     private static final String serviceUrl = "/v1/accounts/";
 
+    /**
+     * Answers every request made through the mocked RestTemplate with the response given.
+     */
+    @SuppressWarnings("unchecked")
+    private void respondWith(ClientHttpResponse response) {
+        Mockito.when(restTemplate.execute(Mockito.anyString(), ArgumentMatchers.any(HttpMethod.class), ArgumentMatchers.any(), ArgumentMatchers.any(ResponseExtractor.class)))
+                .thenAnswer(invocation -> ((ResponseExtractor<Object>) invocation.getArgument(3)).extractData(response));
+    }
+
 
     @Test
     public void testFormulateUrlClean() throws Exception {
@@ -114,10 +129,7 @@ public class AccountStatusClientTest {
                 .statusSetOn("2015-06-07")
                 .build();
 
-        ResponseEntity<JsonNode> responseEntity = new ResponseEntity<JsonNode>(json, HttpStatus.OK);
-
-        Mockito.when(restTemplate.getForEntity(Mockito.anyString(), ArgumentMatchers.any(Class.class)))
-                .thenReturn(responseEntity);
+        respondWith(new MockClientHttpResponse(json.toString().getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
 
         Account actual = asc.callService(expected);
         assertTrue(actual.equals(expected));
@@ -140,10 +152,7 @@ public class AccountStatusClientTest {
                 .statusSetOn("2015-06-07")
                 .build();
 
-        ResponseEntity<JsonNode> responseEntity = new ResponseEntity<JsonNode>(json, HttpStatus.SERVICE_UNAVAILABLE);
-
-        Mockito.when(restTemplate.getForEntity(Mockito.anyString(), ArgumentMatchers.any(Class.class)))
-                .thenReturn(responseEntity);
+        respondWith(new MockClientHttpResponse(json.toString().getBytes(StandardCharsets.UTF_8), HttpStatus.SERVICE_UNAVAILABLE));
 
         String errorMsg = new String();
         boolean classMatch = false;
@@ -186,8 +195,7 @@ public class AccountStatusClientTest {
                 .statusSetOn("2015-06-07")
                 .build();
 
-        Mockito.when(restTemplate.getForEntity(Mockito.anyString(), ArgumentMatchers.any(Class.class)))
-                .thenReturn(null);
+        respondWith(new MockClientHttpResponse(new byte[0], HttpStatus.OK));
 
         String errorMsg = new String();
         boolean classMatch = false;
@@ -202,4 +210,28 @@ public class AccountStatusClientTest {
         assertTrue(classMatch);
     }
 
+    @Test
+    public void testCallServiceAndLookupStatusJudgeTheEndpointAlike() throws Exception {
+        EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder()
+                .urls(EndpointBalancer.parseUrls("http://localhost:1"))
+                .ejectAfterFailures(100)
+                .build();
+        AccountStatusClient client = new AccountStatusClient(balancer, null, new RestTemplate());
+        EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+
+        StatusResult result = client.lookupStatus(new Account.AccountBuilder().id(1l).build());
+        assertTrue(result.getOutcome() == StatusResult.Outcome.TRANSIENT);
+        assertTrue(endpoint.getFailures() == 1);
+
+        try {
+            client.callService(new Account.AccountBuilder().id(2l).build());
+            fail("The connection failure was not thrown.");
+        }
+        catch (ResourceAccessException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().equals(result.getMessage().replace("/1", "/2")));
+        }
+        assertTrue(endpoint.getFailures() == 2);
+        assertTrue(endpoint.getOutstanding() == 0);
+    }
+
 }
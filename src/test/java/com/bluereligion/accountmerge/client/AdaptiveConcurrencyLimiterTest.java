@@ -0,0 +1,177 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A clock that only moves when the test moves it.
+     */
+    private static class ManualTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong(1000 * MILLIS);
+
+        public long read() { return nanos.get(); }
+        void advance(long by) { nanos.addAndGet(by); }
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(ManualTicker ticker, int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimiter.AdaptiveConcurrencyLimiterBuilder()
+                .initialLimit(initialLimit)
+                .minLimit(minLimit)
+                .maxLimit(maxLimit)
+                .latencyTolerance(2.0)
+                .backoffRatio(0.5)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Fills the limit, then completes every request after the same latency.
+     */
+    private static void round(AdaptiveConcurrencyLimiter limiter, ManualTicker ticker, long latencyNanos, boolean failed) throws Exception {
+        List<Long> starts = new ArrayList<>();
+        for (int i = limiter.getLimit(); i > 0; i--) starts.add(limiter.acquire());
+        ticker.advance(latencyNanos);
+        for ( Long start : starts ) {
+            if ( failed ) limiter.onFailure(start);
+            else limiter.onSuccess(start);
+        }
+    }
+
+    @Test
+    public void testLimitRisesWhileLatencyIsFlat() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        AdaptiveConcurrencyLimiter limiter = limiter(ticker, 4, 1, 20);
+
+        round(limiter, ticker, 10 * MILLIS, false);
+        assertTrue(limiter.getLimit() > 4);
+
+        for (int i = 0; i < 10; i++) round(limiter, ticker, 15 * MILLIS, false);
+        assertTrue(limiter.getLimit() == 20);
+        assertTrue(limiter.getInFlight() == 0);
+    }
+
+    @Test
+    public void testLimitBacksOffOnceForABurstOfSlowResponses() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        AdaptiveConcurrencyLimiter limiter = limiter(ticker, 16, 2, 20);
+
+        round(limiter, ticker, 10 * MILLIS, false);
+        int limit = limiter.getLimit();
+
+        round(limiter, ticker, 50 * MILLIS, false); // Every response of the round is slow, but they were all in flight together.
+        assertTrue(limiter.getLimit() == limit / 2);
+
+        for (int i = 0; i < 10; i++) round(limiter, ticker, 50 * MILLIS, true);
+        assertTrue(limiter.getLimit() == 2);
+    }
+
+    @Test
+    public void testBatchesAreJudgedAgainstOtherBatches() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        AdaptiveConcurrencyLimiter limiter = limiter(ticker, 4, 1, 20);
+
+        round(limiter, ticker, 10 * MILLIS, false);
+        int limit = limiter.getLimit();
+
+        // A bulk request is slower than a single lookup at any load, which is not a reason to back off.
+        for (int i = 0; i < 3; i++) {
+            List<Long> starts = new ArrayList<>();
+            for (int j = limiter.getLimit(); j > 0; j--) starts.add(limiter.acquire());
+            ticker.advance(50 * MILLIS);
+            for ( Long start : starts ) limiter.onBatchSuccess(start);
+        }
+        assertTrue(limiter.getLimit() > limit);
+
+        round(limiter, ticker, 10 * MILLIS, false); // Nor are the single lookups judged against the batches.
+        assertTrue(limiter.getLimit() > limit);
+        limit = limiter.getLimit();
+
+        round(limiter, ticker, 50 * MILLIS, false);
+        round(limiter, ticker, 50 * MILLIS, false);
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test(timeout = 5000)
+    public void testAcquireWaitsForAPermit() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        AdaptiveConcurrencyLimiter limiter = limiter(ticker, 1, 1, 1);
+        long start = limiter.acquire();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> waiting = executor.submit(limiter::acquire);
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+
+            limiter.onSuccess(start);
+            limiter.onSuccess(waiting.get(1, TimeUnit.SECONDS));
+            assertTrue(limiter.getInFlight() == 0);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLookupBacksOffOnServerErrorsOnly() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        AdaptiveConcurrencyLimiter limiter = limiter(ticker, 8, 1, 8);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        List<RuntimeException> errors = new ArrayList<>();
+        AccountStatusLookup failing = new AccountStatusLookup() {
+            public Account callService(Account account) {
+                ticker.advance(MILLIS);
+                throw errors.get(0);
+            }
+
+            public List<Account> callServiceInBatch(List<Account> accounts) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        LimitingStatusLookup lookup = new LimitingStatusLookup(failing, limiter, registry);
+        assertTrue(registry.get(LimitingStatusLookup.LIMIT_METRIC).gauge().value() == 8);
+
+        List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account.AccountBuilder().id(1l).build());
+
+        errors.add(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+        lookup.callServiceInBatch(accounts);
+        assertTrue(accounts.get(0).getMessage().contains("404"));
+        assertTrue(limiter.getLimit() == 8);
+
+        errors.set(0, new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+        lookup.callServiceInBatch(accounts);
+        assertTrue(limiter.getLimit() == 4);
+        assertTrue(registry.get(LimitingStatusLookup.LIMIT_METRIC).gauge().value() == 4);
+        assertTrue(registry.get(LimitingStatusLookup.IN_FLIGHT_METRIC).gauge().value() == 0);
+    }
+
+}
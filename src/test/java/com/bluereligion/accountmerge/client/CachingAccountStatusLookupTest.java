@@ -0,0 +1,124 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.cache.LruStatusCache;
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class CachingAccountStatusLookupTest {
+
+    /**
+     * Counts the lookups that reach it and holds each one until released.
+     */
+    private static class CountingLookup
+            implements AccountStatusLookup {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release;
+
+        CountingLookup(CountDownLatch release) {
+            this.release = release;
+        }
+
+        public Account callService(Account account) {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if ( account.getId() < 0 ) throw new IllegalArgumentException("404 Not Found");
+            account.setStatus("good");
+            account.setStatusSetOn("2011-01-12");
+            return account;
+        }
+
+        public List<Account> callServiceInBatch(List<Account> accounts) {
+            for ( Account account : accounts ) {
+                try {
+                    callService(account);
+                }
+                catch (RuntimeException ex) {
+                    account.setMessage(ex.getMessage());
+                }
+            }
+            return accounts;
+        }
+    }
+
+    private static Account account(long id) {
+        return new Account.AccountBuilder().id(id).firstName("Tony").build();
+    }
+
+    @Test
+    public void testRepeatedLookupIsServedFromCache() throws Exception {
+        CountingLookup delegate = new CountingLookup(new CountDownLatch(0));
+        CachingAccountStatusLookup lookup = new CachingAccountStatusLookup(delegate, new LruStatusCache(10, 60));
+
+        lookup.callService(account(1l));
+        Account actual = lookup.callService(account(1l));
+
+        assertTrue(delegate.calls.get() == 1);
+        assertTrue(actual.getStatus().equals("good"));
+        assertTrue(lookup.getCache().getHits() == 1);
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLookup delegate = new CountingLookup(release);
+        CachingAccountStatusLookup lookup = new CachingAccountStatusLookup(delegate, new LruStatusCache(10, 60));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Account>> futures = new ArrayList<>();
+            for ( int i = 0; i < 8; i++ ) {
+                futures.add(executorService.submit(() -> lookup.callService(account(7l))));
+            }
+            while ( lookup.getCoalesced() < 7 ) Thread.sleep(5);
+            release.countDown();
+
+            for ( Future<Account> future : futures ) {
+                assertTrue(future.get().getStatus().equals("good"));
+            }
+            assertTrue(delegate.calls.get() == 1);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLookupIsNotCached() throws Exception {
+        CountingLookup delegate = new CountingLookup(new CountDownLatch(0));
+        CachingAccountStatusLookup lookup = new CachingAccountStatusLookup(delegate, new LruStatusCache(10, 60));
+
+        List<Account> batch = new ArrayList<>();
+        batch.add(account(-1l));
+        batch.add(account(-1l));
+        lookup.callServiceInBatch(batch);
+
+        assertTrue(batch.get(0).getMessage().equals("404 Not Found"));
+        assertTrue(batch.get(1).getMessage().equals("404 Not Found"));
+        assertTrue(delegate.calls.get() == 1);
+        assertTrue(lookup.getCache().size() == 0);
+    }
+
+}
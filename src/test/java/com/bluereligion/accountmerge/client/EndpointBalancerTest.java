@@ -0,0 +1,180 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.common.base.Ticker;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class EndpointBalancerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A clock that only moves when the test moves it.
+     */
+    private static class ManualTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong(1000 * MILLIS);
+
+        public long read() { return nanos.get(); }
+        void advance(long by) { nanos.addAndGet(by); }
+    }
+
+    /**
+     * @return - The lease on the endpoint, once the balancer has picked it.
+     */
+    private static EndpointBalancer.Lease acquire(EndpointBalancer balancer, EndpointBalancer.Endpoint wanted) {
+        for (EndpointBalancer.Lease lease = balancer.acquire(); ; lease = balancer.acquire()) {
+            if ( lease.getEndpoint() == wanted ) return lease;
+            balancer.release(lease, false);
+        }
+    }
+
+    @Test
+    public void testParseUrls() throws Exception {
+        assertTrue(EndpointBalancer.parseUrls(" http://a:8080, ,http://b:8080 ").equals(Arrays.asList("http://a:8080", "http://b:8080")));
+        assertTrue(EndpointBalancer.parseUrls(null).isEmpty());
+    }
+
+    @Test
+    public void testFailingEndpointIsEjectedAndProbedBackIn() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder()
+                .urls(Arrays.asList("http://a", "http://b"))
+                .ejectAfterFailures(2)
+                .ejectMs(1000)
+                .ticker(ticker)
+                .build();
+        EndpointBalancer.Endpoint b = balancer.getEndpoints().get(1);
+
+        for (int i = 0; i < 2; i++) balancer.release(acquire(balancer, b), true);
+        assertFalse(b.isInRotation());
+        for (int i = 0; i < 50; i++) {
+            EndpointBalancer.Lease lease = balancer.acquire();
+            assertTrue(lease.getEndpoint() != b);
+            balancer.release(lease, false);
+        }
+
+        ticker.advance(1000 * MILLIS);
+        List<EndpointBalancer.Lease> picked = new ArrayList<>();
+        for (int i = 0; i < 50; i++) picked.add(balancer.acquire());
+        List<EndpointBalancer.Lease> probes = new ArrayList<>();
+        for ( EndpointBalancer.Lease lease : picked ) if ( lease.getEndpoint() == b ) probes.add(lease);
+        assertTrue(probes.size() == 1); // A single probe.
+        assertTrue(probes.get(0).isProbe());
+
+        balancer.release(probes.get(0), false);
+        assertTrue(b.isInRotation());
+        assertTrue(b.getEjections() == 1);
+    }
+
+    @Test
+    public void testOnlyTheProbeDecidesAnEjectedEndpoint() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder()
+                .urls(Arrays.asList("http://a", "http://b"))
+                .ejectAfterFailures(2)
+                .ejectMs(1000)
+                .ticker(ticker)
+                .build();
+        EndpointBalancer.Endpoint a = balancer.getEndpoints().get(0);
+        EndpointBalancer.Endpoint b = balancer.getEndpoints().get(1);
+
+        // Two requests to b outstanding while it is ejected, and as many to a, since P2C only picks the less busy.
+        List<EndpointBalancer.Lease> busy = new ArrayList<>();
+        EndpointBalancer.Lease early = acquire(balancer, b);
+        busy.add(acquire(balancer, a));
+        EndpointBalancer.Lease later = acquire(balancer, b);
+        busy.add(acquire(balancer, a));
+        for (int i = 0; i < 2; i++) balancer.release(acquire(balancer, b), true);
+        assertFalse(b.isInRotation());
+
+        balancer.release(early, false); // A success from before the ejection does not put b back.
+        assertFalse(b.isInRotation());
+
+        ticker.advance(1000 * MILLIS);
+        EndpointBalancer.Lease probe = acquire(balancer, b);
+        assertTrue(probe.isProbe());
+
+        balancer.release(later, false); // Nor does it end the probe in flight.
+        assertFalse(b.isInRotation());
+        for (int i = 0; i < 50; i++) {
+            EndpointBalancer.Lease lease = balancer.acquire();
+            assertTrue(lease.getEndpoint() != b); // No second probe.
+            balancer.release(lease, false);
+        }
+
+        balancer.release(probe, true);
+        assertFalse(b.isInRotation());
+        assertTrue(b.getEjections() == 1);
+
+        ticker.advance(1000 * MILLIS);
+        probe = acquire(balancer, b);
+        assertTrue(probe.isProbe());
+        balancer.release(probe, false);
+        assertTrue(b.isInRotation());
+        busy.forEach(lease -> balancer.release(lease, false));
+    }
+
+    @Test(timeout = 30000)
+    public void testRequestsFavourTheFasterReplica() throws Exception {
+        String deadUrl;
+        try ( StubStatusServer dead = new StubStatusServer(false) ) {
+            deadUrl = dead.getServiceUrl();
+        }
+
+        try ( StubStatusServer fast = new StubStatusServer(false);
+              StubStatusServer slow = new StubStatusServer(false) ) {
+            slow.setLatencyTail(150, 1);
+
+            EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder()
+                    .urls(Arrays.asList(fast.getServiceUrl(), slow.getServiceUrl(), deadUrl))
+                    .ejectAfterFailures(3)
+                    .ejectMs(60000)
+                    .build();
+            AccountStatusClient client = new AccountStatusClient(balancer, null, new RestTemplate());
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<Integer>> failures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long firstId = 1 + t * 100;
+                failures.add(executor.submit(() -> {
+                    int failed = 0;
+                    for ( long id = firstId; id < firstId + 50; id++ ) {
+                        if ( !client.lookupStatus(new Account.AccountBuilder().id(id).build()).isSuccess() ) failed++;
+                    }
+                    return failed;
+                }));
+            }
+            int failed = 0;
+            for ( Future<Integer> f : failures ) failed += f.get();
+            executor.shutdown();
+
+            EndpointBalancer.Endpoint deadEndpoint = balancer.getEndpoints().get(2);
+            System.out.println(String.format("Failed=%d. %s", failed, balancer));
+            assertFalse(deadEndpoint.isInRotation());
+            assertTrue(failed == deadEndpoint.getFailures());
+            assertTrue(failed <= 3 + 3); // The requests already on their way when it was ejected.
+            assertTrue(fast.getSingleCalls() > slow.getSingleCalls());
+            assertTrue(fast.getSingleCalls() + slow.getSingleCalls() == 200 - failed);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.bluereligion.accountmerge.client;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class HedgingStatusLookupTest {
+
+    private static final long TAIL_MS = 300;
+
+    private static Account account(long id) {
+        return new Account.AccountBuilder().id(id).firstName("Tony").build();
+    }
+
+    /**
+     * Looks up the accounts one at a time.
+     * @return - How many lookups took TAIL_MS or longer.
+     */
+    private static int lookup(AccountStatusLookup lookup, long firstId, int count) {
+        int slow = 0;
+        for ( long id = firstId; id < firstId + count; id++ ) {
+            long start = System.nanoTime();
+            Account account = lookup.callService(account(id));
+            if ( TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= TAIL_MS ) slow++;
+            assertTrue(account.getStatus().equals("good-" + id));
+        }
+        return slow;
+    }
+
+    @Test
+    public void testSlowRequestsAreHedged() throws Exception {
+        int unhedgedSlow;
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            server.setLatencyTail(TAIL_MS, 25);
+            unhedgedSlow = lookup(new AccountStatusClient(server.getServiceUrl()), 1, 200); // Every 25th request is in the tail.
+        }
+
+        try ( StubStatusServer server = new StubStatusServer(false);
+              HedgingStatusLookup hedging = new HedgingStatusLookup(new AccountStatusClient(server.getServiceUrl()), 90, 10, 5) ) {
+            server.setLatencyTail(TAIL_MS, 25);
+
+            lookup(hedging, 1, 100); // No hedging until the percentile can be estimated.
+            assertTrue(hedging.getHedges() == 0);
+
+            int hedgedSlow = lookup(hedging, 101, 200);
+            assertTrue(hedgedSlow < unhedgedSlow / 2);
+            assertTrue(hedging.getHedgesWon() > 0);
+            assertTrue(hedging.getHedges() <= hedging.getLookups() / 10);
+
+            // A losing attempt is cancelled and may never reach the server.
+            assertTrue(server.getSingleCalls() >= hedging.getLookups());
+            assertTrue(server.getSingleCalls() <= hedging.getLookups() + hedging.getHedges());
+        }
+    }
+
+    @Test
+    public void testWonHedgesAreNotRecordedAsFailures() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            // The tail is spent waiting in the client, where an interrupt fails the request as it would on an NIO channel.
+            AtomicInteger requests = new AtomicInteger();
+            RestTemplate restTemplate = new RestTemplate();
+            restTemplate.getInterceptors().add((request, body, execution) -> {
+                if ( requests.incrementAndGet() % 25 == 0 ) {
+                    try {
+                        Thread.sleep(TAIL_MS);
+                    }
+                    catch (InterruptedException ex) {
+                        throw new ClosedByInterruptException();
+                    }
+                }
+                return execution.execute(request, body);
+            });
+
+            EndpointBalancer balancer = new EndpointBalancer.EndpointBalancerBuilder()
+                    .urls(Collections.singletonList(server.getServiceUrl()))
+                    .ejectAfterFailures(1)
+                    .build();
+            CircuitBreaker breaker = new CircuitBreaker.CircuitBreakerBuilder()
+                    .failureRatePercent(1)
+                    .minimumRequests(1)
+                    .windowSize(100)
+                    .build();
+            AccountStatusLookup resilient = new ResilientStatusLookup(new AccountStatusClient(balancer, null, restTemplate), breaker, 0, 1, 10, new SimpleMeterRegistry());
+
+            try ( HedgingStatusLookup hedging = new HedgingStatusLookup(resilient, 90, 10, 5) ) {
+                lookup(hedging, 1, 300);
+                assertTrue(hedging.getHedgesWon() > 0);
+            }
+
+            EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+            for (int i = 0; i < 100 && endpoint.getOutstanding() > 0; i++) Thread.sleep(10); // The losers finish on their own.
+            assertTrue(endpoint.getOutstanding() == 0);
+            assertTrue(endpoint.getFailures() == 0);
+            assertTrue(endpoint.getEjections() == 0);
+            assertTrue(breaker.getState() == CircuitBreaker.State.CLOSED);
+            assertTrue(breaker.getOpened() == 0);
+        }
+    }
+
+    @Test
+    public void testHedgesStayWithinTheBudget() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false);
+              HedgingStatusLookup hedging = new HedgingStatusLookup(new AccountStatusClient(server.getServiceUrl()), 50, 1, 0) ) {
+
+            lookup(hedging, 1, 300); // Half of the requests are beyond the percentile, but only 1% can be hedged.
+            assertTrue(hedging.getHedges() <= 3);
+        }
+    }
+
+    @Test
+    public void testBatchAndErrorsArePassedThrough() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(true);
+              HedgingStatusLookup hedging = new HedgingStatusLookup(new AccountStatusClient(server.getServiceUrl(), "/v1/accounts?ids="), 90, 10, 5) ) {
+
+            List<Account> accounts = new ArrayList<>();
+            accounts.add(account(1));
+            accounts.add(account(StubStatusServer.UNKNOWN_ID_FLOOR));
+            assertTrue(hedging.callServiceInBatch(accounts) == accounts);
+
+            assertTrue(accounts.get(0).getStatus().equals("good-1"));
+            assertTrue(accounts.get(1).getMessage().contains("404"));
+
+            try {
+                hedging.callService(account(StubStatusServer.UNKNOWN_ID_FLOOR));
+                fail("The 404 was not thrown.");
+            }
+            catch (RuntimeException ex) {
+                assertTrue(ex.getMessage().contains("404"));
+            }
+        }
+    }
+
+}
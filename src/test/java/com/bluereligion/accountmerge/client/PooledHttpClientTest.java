@@ -0,0 +1,101 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class PooledHttpClientTest {
+
+    private static final String BULK_PATH = "/v1/accounts?ids=";
+
+    private static boolean http2Available() {
+        try {
+            Class.forName(PooledHttpClient.HTTP2_REQUEST_FACTORY);
+            Class.forName("java.net.http.HttpClient");
+            return true;
+        }
+        catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    private static void lookupOverTransport(PooledHttpClient.Transport transport) throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(true);
+              PooledHttpClient httpClient = new PooledHttpClient.PooledHttpClientBuilder().transport(transport).build() ) {
+            assertTrue(httpClient.getTransport() == transport);
+            AccountStatusClient asc = new AccountStatusClient(
+                    new EndpointBalancer.EndpointBalancerBuilder().urls(EndpointBalancer.parseUrls(server.getServiceUrl())).build(),
+                    BULK_PATH, httpClient.getRestTemplate());
+
+            Account single = new Account.AccountBuilder().id(5l).build();
+            assertTrue(asc.lookupStatus(single).isSuccess());
+            assertTrue(single.getStatus().equals("good-5"));
+
+            // An unknown account keeps the reason phrase in its message, which HTTP/2 does not send.
+            StatusResult notFound = asc.lookupStatus(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).build());
+            assertTrue(notFound.getOutcome() == StatusResult.Outcome.NOT_FOUND);
+            assertTrue(notFound.getMessage().equals("404 Not Found"));
+
+            List<Account> batch = new ArrayList<>();
+            for ( long id = 10; id < 20; id++ ) batch.add(new Account.AccountBuilder().id(id).build());
+            asc.callServiceInBatch(batch);
+            for ( Account a : batch ) assertTrue(a.getStatus().equals("good-" + a.getId()));
+            assertTrue(server.getBulkCalls() == 1);
+        }
+    }
+
+    @Test
+    public void testConnectionsAreReusedUpToThePoolSize() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try ( StubStatusServer server = new StubStatusServer(false);
+              PooledHttpClient httpClient = new PooledHttpClient.PooledHttpClientBuilder().maxConnectionsPerRoute(2).build() ) {
+            AccountStatusClient asc = new AccountStatusClient(server.getServiceUrl(), null, httpClient.getRestTemplate());
+
+            for ( long id = 1; id <= 20; id++ ) assertTrue(asc.lookupStatus(new Account.AccountBuilder().id(id).build()).isSuccess());
+            assertTrue(server.getConnections() == 1); // One after the other, every lookup goes over the same keep-alive connection.
+
+            server.setLatencyTail(20, 1);
+            List<Future<StatusResult>> results = new ArrayList<>();
+            for ( long id = 1; id <= 40; id++ ) {
+                Account account = new Account.AccountBuilder().id(id).build();
+                results.add(executor.submit(() -> asc.lookupStatus(account)));
+            }
+            for ( Future<StatusResult> result : results ) assertTrue(result.get().isSuccess());
+            assertTrue(server.getSingleCalls() == 60);
+            assertTrue(server.getConnections() == 2); // Eight threads, but no more connections than the pool allows.
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHttp1Transport() throws Exception {
+        lookupOverTransport(PooledHttpClient.Transport.HTTP1);
+    }
+
+    /**
+     * The stub server only speaks HTTP/1.1, so the h2c upgrade is declined and the requests fall back to HTTP/1.1.
+     * This covers the HTTP2 transport's request factory and that fallback, not HTTP/2 framing itself.
+     */
+    @Test
+    public void testHttp2TransportFallsBackToHttp1OnAnHttp1Server() throws Exception {
+        Assume.assumeTrue(http2Available()); // Needs Java 11 and the src/java11 classes.
+        lookupOverTransport(PooledHttpClient.Transport.HTTP2);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.bluereligion.accountmerge.client;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class ReactiveAccountStatusClientTest {
+
+    @Test
+    public void testCallServiceClean() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false);
+              ReactiveAccountStatusClient asc = new ReactiveAccountStatusClient(server.getServiceUrl(), 4) ) {
+
+            Account account = new Account.AccountBuilder().id(23232l).firstName("Tony").build();
+            Account actual = asc.callService(account).block();
+
+            assertTrue(actual.getStatus().equals("good-23232"));
+            assertTrue(actual.getStatusSetOn().equals("2011-01-12"));
+            assertNull(actual.getMessage());
+        }
+    }
+
+    @Test
+    public void testCallServiceWithUnknownAccount() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false);
+              ReactiveAccountStatusClient asc = new ReactiveAccountStatusClient(server.getServiceUrl(), 4) ) {
+
+            Account account = new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR).firstName("Tony").build();
+            Account actual = asc.callService(account).block();
+
+            assertNull(actual.getStatus());
+            assertTrue(actual.getMessage().startsWith("404"));
+        }
+    }
+
+    @Test
+    public void testFailedResponsesReleaseTheirConnection() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false);
+              ReactiveAccountStatusClient asc = new ReactiveAccountStatusClient(server.getServiceUrl(), 1) ) {
+
+            for (int i = 0; i < 5; i++) { // A single connection, so a failure that kept it would stall the next lookup.
+                Account unknown = asc.callService(new Account.AccountBuilder().id(StubStatusServer.UNKNOWN_ID_FLOOR + i).build()).block(Duration.ofSeconds(5));
+                assertTrue(unknown.getMessage().equals("404 Not Found"));
+            }
+
+            server.rejectNext(1, null);
+            Account rejected = asc.callService(new Account.AccountBuilder().id(7l).build()).block(Duration.ofSeconds(5));
+            assertNull(rejected.getStatus());
+            assertTrue(rejected.getMessage().startsWith("429"));
+
+            Account account = asc.callService(new Account.AccountBuilder().id(8l).build()).block(Duration.ofSeconds(5));
+            assertTrue(account.getStatus().equals("good-8"));
+            assertNull(account.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class ResilientStatusLookupTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A clock that only moves when the test moves it.
+     */
+    private static class ManualTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong(1000 * MILLIS);
+
+        public long read() { return nanos.get(); }
+        void advance(long by) { nanos.addAndGet(by); }
+    }
+
+    private static CircuitBreaker breaker(Ticker ticker) {
+        return new CircuitBreaker.CircuitBreakerBuilder()
+                .failureRatePercent(50)
+                .minimumRequests(4)
+                .windowSize(10)
+                .openMs(1000)
+                .ticker(ticker)
+                .build();
+    }
+
+    private static Account account(long id) {
+        return new Account.AccountBuilder().id(id).firstName("Tony").build();
+    }
+
+    @Test
+    public void testBreakerOpensAndProbes() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker breaker = breaker(ticker);
+
+        for (int i = 0; i < 3; i++) {
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            assertTrue(permit != null);
+            breaker.release(permit, 0, 1);
+        }
+        assertTrue(breaker.getState() == CircuitBreaker.State.CLOSED); // Fewer than minimumRequests.
+
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        assertTrue(permit != null);
+        breaker.release(permit, 1, 0);
+        assertTrue(breaker.getState() == CircuitBreaker.State.OPEN);
+        assertTrue(breaker.tryAcquire() == null);
+
+        ticker.advance(1000 * MILLIS);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        assertTrue(probe != null && probe.isProbe());
+        assertTrue(breaker.tryAcquire() == null); // One probe at a time.
+        breaker.release(probe, 0, 1);
+        assertTrue(breaker.getState() == CircuitBreaker.State.OPEN);
+
+        ticker.advance(1000 * MILLIS);
+        probe = breaker.tryAcquire();
+        assertTrue(probe != null);
+        breaker.release(probe, 1, 0);
+        assertTrue(breaker.getState() == CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.getOpened() == 2);
+        assertTrue(breaker.getRejected() == 2);
+    }
+
+    @Test
+    public void testOnlyTheProbeDecidesTheHalfOpenBreaker() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        CircuitBreaker breaker = breaker(ticker);
+
+        CircuitBreaker.Permit stale = breaker.tryAcquire(); // Sent while closed, answered after the breaker opened.
+        for (int i = 0; i < 4; i++) breaker.release(breaker.tryAcquire(), 0, 1);
+        assertTrue(breaker.getState() == CircuitBreaker.State.OPEN);
+
+        ticker.advance(1000 * MILLIS);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        breaker.release(stale, 1, 0);
+        assertTrue(breaker.getState() == CircuitBreaker.State.HALF_OPEN);
+
+        breaker.release(probe, 0, 0); // The probe threw.
+        assertTrue(breaker.getState() == CircuitBreaker.State.OPEN);
+
+        ticker.advance(1000 * MILLIS);
+        CircuitBreaker.Permit first = breaker.tryAcquire();
+        breaker.release(probe, 1, 0); // Released twice.
+        assertTrue(breaker.getState() == CircuitBreaker.State.HALF_OPEN);
+        breaker.release(first, 1, 0);
+        assertTrue(breaker.getState() == CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            ResilientStatusLookup lookup = new ResilientStatusLookup(new AccountStatusClient(server.getServiceUrl()), null, 2, 1, 10, registry);
+
+            server.rejectNext(2, null);
+            Account single = account(5l);
+            assertTrue(lookup.lookupStatus(single).isSuccess());
+            assertTrue(single.getStatus().equals("good-5"));
+            assertTrue(server.getSingleCalls() == 3);
+
+            List<Account> batch = new ArrayList<>();
+            for ( long id = 10; id < 13; id++ ) batch.add(account(id));
+            batch.add(account(StubStatusServer.UNKNOWN_ID_FLOOR));
+
+            server.rejectNext(2, null); // The first two accounts of the batch.
+            lookup.callServiceInBatch(batch);
+            for (int i = 0; i < 3; i++) {
+                assertNull(batch.get(i).getMessage());
+                assertTrue(batch.get(i).getStatus().equals("good-" + batch.get(i).getId()));
+            }
+            assertTrue(batch.get(3).getMessage().equals("404 Not Found")); // Not retried.
+            assertTrue(server.getSingleCalls() == 3 + 4 + 2);
+            assertTrue(lookup.getRetries() == 4);
+            assertTrue(registry.get(ResilientStatusLookup.RETRIES_METRIC).functionCounter().count() == 4);
+        }
+    }
+
+    @Test
+    public void testOpenBreakerFailsFast() throws Exception {
+        try ( StubStatusServer server = new StubStatusServer(false) ) {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            ResilientStatusLookup lookup = new ResilientStatusLookup(new AccountStatusClient(server.getServiceUrl()), breaker(new ManualTicker()), 0, 1, 10, registry);
+
+            server.rejectNext(1000, null);
+            List<Account> batch = new ArrayList<>();
+            for ( long id = 1; id <= 10; id++ ) batch.add(account(id));
+
+            lookup.callServiceInBatch(batch.subList(0, 4));
+            assertTrue(lookup.getBreaker().getState() == CircuitBreaker.State.OPEN);
+            assertTrue(registry.get(ResilientStatusLookup.BREAKER_STATE_METRIC).gauge().value() == CircuitBreaker.State.OPEN.ordinal());
+
+            lookup.callServiceInBatch(batch.subList(4, 10));
+            assertTrue(server.getSingleCalls() == 4);
+            assertTrue(batch.get(9).getMessage().equals(ResilientStatusLookup.BREAKER_OPEN_MESSAGE));
+            assertTrue(lookup.getRejected() == 6);
+        }
+    }
+
+    @Test
+    public void testUnbindLeavesTheRegistryToTheNextRun() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CircuitBreaker opened = breaker(new ManualTicker());
+        for (int i = 0; i < 4; i++) opened.release(opened.tryAcquire(), 0, 1);
+        assertTrue(opened.getState() == CircuitBreaker.State.OPEN);
+
+        ResilientStatusLookup first = new ResilientStatusLookup(new AccountStatusClient("http://localhost:1"), opened, 1, 1, 10, registry);
+        assertTrue(registry.get(ResilientStatusLookup.BREAKER_STATE_METRIC).gauge().value() == CircuitBreaker.State.OPEN.ordinal());
+        first.unbind();
+        assertTrue(registry.find(ResilientStatusLookup.BREAKER_STATE_METRIC).meters().isEmpty());
+        assertTrue(registry.find(ResilientStatusLookup.RETRIES_METRIC).meters().isEmpty());
+        assertTrue(registry.find(ResilientStatusLookup.REJECTED_METRIC).meters().isEmpty());
+
+        // Registered again, the meters read the new run rather than the breaker of the first.
+        new ResilientStatusLookup(new AccountStatusClient("http://localhost:1"), breaker(new ManualTicker()), 1, 1, 10, registry);
+        assertTrue(registry.get(ResilientStatusLookup.BREAKER_STATE_METRIC).gauge().value() == CircuitBreaker.State.CLOSED.ordinal());
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class StatusResponseDecoderTest {
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Account account() {
+        return new Account.AccountBuilder().id(23232l).firstName("Tony").build();
+    }
+
+    @Test
+    public void testDecodeMatchesTheTreeBasedPath() throws Exception {
+        String[] bodies = {
+                "{\"account_id\":23232,\"status\":\"poor\",\"created_on\":\"2015-06-07\"}",
+                "{\"account_id\":23232,\"status\":null,\"created_on\":\"2015-06-07\"}",
+                "{\"history\":[{\"status\":\"good\"}],\"status\":7,\"extra\":{\"created_on\":\"x\"},\"created_on\":{\"day\":7}}",
+                "{}",
+                "[1,2]"
+        };
+        ObjectMapper mapper = new ObjectMapper();
+        for ( String json : bodies ) {
+            Account expected = AccountStatusClient.applyResponse(account(), mapper.readTree(json));
+            Account actual = StatusResponseDecoder.decode(body(json)).applyTo(account());
+            assertTrue(json, actual.equals(expected));
+        }
+        assertNull(StatusResponseDecoder.decode(body("")));
+    }
+
+    @Test
+    public void testDecodeBulk() throws Exception {
+        Map<Long, StatusResponseDecoder.Status> statuses = StatusResponseDecoder.decodeBulk(body(
+                "{\"page\":{\"size\":3},\"accounts\":[{\"status\":\"good\",\"account_id\":1},{\"account_id\":\"2\",\"created_on\":\"2011-01-12\"},{\"status\":\"bad\"}]}"));
+        assertTrue(statuses.size() == 2);
+        assertTrue(statuses.get(1l).getStatus().equals("good"));
+        assertNull(statuses.get(2l).getStatus());
+        assertTrue(statuses.get(2l).getStatusSetOn().equals("2011-01-12"));
+
+        assertTrue(StatusResponseDecoder.decodeBulk(body("[{\"account_id\":3,\"status\":\"good\"}]")).get(3l).getStatus().equals("good"));
+        assertTrue(StatusResponseDecoder.decodeBulk(body("{\"error\":\"none\"}")).isEmpty());
+    }
+
+    @Test
+    public void testMalformedBodyLeavesTheAccountUntouched() throws Exception {
+        boolean thrown = false;
+        try {
+            StatusResponseDecoder.decode(body("{\"status\":\"good\",\"created_on\":"));
+        }
+        catch (JsonProcessingException ex) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.bluereligion.accountmerge.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A local stand-in for the Account Status API used by the tests. It counts the requests it receives so that
+ * the number of round trips can be measured, and the client ports it has seen so that connection reuse can be.
+ *
+ *  - GET /v1/accounts/{id} returns the status of a single account.
+ *  - GET /v1/accounts?ids=1,2,3 returns an array of statuses when bulk lookups are enabled, otherwise 404.
+ *
+ * Account ids at or above UNKNOWN_ID_FLOOR are treated as unknown and return 404 or are left out of bulk responses.
+ * A latency tail can be injected with setLatencyTail, making every n-th request slow, and rejectNext answers the next
+ * requests with 429 Too Many Requests.
+ */
+public class StubStatusServer
+        implements AutoCloseable {
+
+    public static final long UNKNOWN_ID_FLOOR = 900000l;
+
+    private final HttpServer server;
+    private final boolean bulkEnabled;
+
+    private final AtomicInteger singleCalls = new AtomicInteger();
+    public int getSingleCalls() { return singleCalls.get(); }
+
+    private final AtomicInteger bulkCalls = new AtomicInteger();
+    public int getBulkCalls() { return bulkCalls.get(); }
+
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    public int getConnections() { return connections.size(); }
+
+    private volatile long tailLatencyMs;
+    private volatile int tailEvery;
+
+    /**
+     * @param tailLatencyMs - How long the slow requests take.
+     * @param tailEvery - Every tailEvery-th request is slow. 0 disables the tail.
+     */
+    public void setLatencyTail(long tailLatencyMs, int tailEvery) {
+        this.tailLatencyMs = tailLatencyMs;
+        this.tailEvery = tailEvery;
+    }
+
+    private final AtomicInteger rejections = new AtomicInteger();
+    private volatile String retryAfter;
+
+    /**
+     * @param count - How many of the next requests are answered with 429.
+     * @param retryAfter - The Retry-After header sent with them, or null for none.
+     */
+    public void rejectNext(int count, String retryAfter) {
+        this.retryAfter = retryAfter;
+        this.rejections.set(count);
+    }
+
+    public StubStatusServer(boolean bulkEnabled) throws IOException {
+        this.bulkEnabled = bulkEnabled;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/v1/accounts", this::handle);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+    }
+
+    public String getServiceUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort();
+    }
+
+    public int getTotalCalls() {
+        return getSingleCalls() + getBulkCalls();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getQuery();
+
+        if ( rejections.getAndUpdate(n -> Math.max(0, n - 1)) > 0 ) {
+            if ( path.startsWith("/v1/accounts/") ) singleCalls.incrementAndGet();
+            else bulkCalls.incrementAndGet();
+            if ( retryAfter != null ) exchange.getResponseHeaders().add("Retry-After", retryAfter);
+            respond(exchange, 429, "{\"error\":\"too many requests\"}");
+            return;
+        }
+
+        if ( path.startsWith("/v1/accounts/") ) {
+            delay(singleCalls.incrementAndGet());
+            long id = Long.parseLong(path.substring("/v1/accounts/".length()));
+            if ( id >= UNKNOWN_ID_FLOOR ) respond(exchange, 404, "{\"error\":\"not found\"}");
+            else respond(exchange, 200, statusJson(id));
+            return;
+        }
+
+        delay(bulkCalls.incrementAndGet());
+        if ( !bulkEnabled || query == null || !query.startsWith("ids=") ) {
+            respond(exchange, 404, "{\"error\":\"not found\"}");
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("[");
+        for ( String s : query.substring("ids=".length()).split(",") ) {
+            long id = Long.parseLong(s);
+            if ( id >= UNKNOWN_ID_FLOOR ) continue;
+            if ( sb.length() > 1 ) sb.append(',');
+            sb.append(statusJson(id));
+        }
+        respond(exchange, 200, sb.append(']').toString());
+    }
+
+    private void delay(int call) {
+        if ( this.tailEvery <= 0 || call % this.tailEvery != 0 ) return;
+        try {
+            Thread.sleep(this.tailLatencyMs);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String statusJson(long id) {
+        return String.format("{\"account_id\":%d,\"status\":\"good-%d\",\"created_on\":\"2011-01-12\"}", id, id);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try ( OutputStream os = exchange.getResponseBody() ) {
+            os.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+
+}
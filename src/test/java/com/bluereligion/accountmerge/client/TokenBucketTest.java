@@ -0,0 +1,102 @@
+package com.bluereligion.accountmerge.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.google.common.base.Ticker;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class TokenBucketTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A clock that only moves when the test moves it.
+     */
+    private static class ManualTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong(1000 * MILLIS);
+
+        public long read() { return nanos.get(); }
+        void advance(long by) { nanos.addAndGet(by); }
+    }
+
+    @Test
+    public void testBurstThenRefillRate() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        TokenBucket bucket = new TokenBucket(100, 5, ticker);
+
+        for (int i = 0; i < 5; i++) assertTrue(bucket.reserve() == 0);
+        assertTrue(bucket.reserve() == 10 * MILLIS);
+        assertTrue(bucket.reserve() == 20 * MILLIS); // Waiting callers are spaced out at the refill rate.
+
+        ticker.advance(20 * MILLIS);
+        assertTrue(bucket.reserve() == 10 * MILLIS);
+
+        ticker.advance(10 * 1000 * MILLIS); // An idle bucket holds no more than the burst.
+        for (int i = 0; i < 5; i++) assertTrue(bucket.reserve() == 0);
+        assertTrue(bucket.reserve() > 0);
+    }
+
+    @Test
+    public void testPauseHoldsBackEveryPermit() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        TokenBucket bucket = new TokenBucket(100, 5, ticker);
+
+        bucket.pause(500 * MILLIS);
+        assertTrue(bucket.reserve() == 510 * MILLIS);
+
+        bucket.pause(100 * MILLIS); // Shorter than the pause in force.
+        ticker.advance(500 * MILLIS);
+        assertTrue(bucket.reserve() == 20 * MILLIS);
+
+        ticker.advance(20 * MILLIS);
+        assertTrue(bucket.reserve() == 10 * MILLIS);
+    }
+
+    @Test
+    public void testRetryAfterParsing() throws Exception {
+        assertTrue(RateLimitInterceptor.retryAfterMs(null, 250) == 250);
+        assertTrue(RateLimitInterceptor.retryAfterMs(" 2 ", 250) == 2000);
+        assertTrue(RateLimitInterceptor.retryAfterMs("soon", 250) == 250);
+        assertTrue(RateLimitInterceptor.retryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT", 250) == 0); // In the past.
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedRequestIsRetriedAfterRetryAfter() throws Exception {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(new TokenBucket(1000, 10), 3, 1000);
+        try ( StubStatusServer server = new StubStatusServer(false);
+              PooledHttpClient httpClient = new PooledHttpClient.PooledHttpClientBuilder().rateLimitInterceptor(interceptor).build() ) {
+            AccountStatusClient client = new AccountStatusClient(server.getServiceUrl(), null, httpClient.getRestTemplate());
+
+            server.rejectNext(2, "1");
+            long start = System.nanoTime();
+            Account account = client.callService(new Account.AccountBuilder().id(7l).firstName("Tony").build());
+
+            assertTrue(account.getStatus().equals("good-7"));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+            assertTrue(interceptor.getRetries() == 2);
+            assertTrue(server.getSingleCalls() == 3);
+
+            server.rejectNext(4, "0"); // More than maxRetries, so the 429 reaches the caller.
+            try {
+                client.callService(new Account.AccountBuilder().id(8l).firstName("Tony").build());
+                fail("Expected the 429 to be passed on.");
+            }
+            catch (RuntimeException ex) {
+                assertTrue(ex.getMessage().contains("429"));
+            }
+            assertTrue(server.getSingleCalls() == 7);
+        }
+    }
+
+}
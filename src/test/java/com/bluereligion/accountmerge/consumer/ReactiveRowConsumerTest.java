@@ -0,0 +1,65 @@
+package com.bluereligion.accountmerge.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.client.ReactiveAccountStatusClient;
+import com.bluereligion.accountmerge.client.StubStatusServer;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class ReactiveRowConsumerTest {
+
+    private static final String END_OF_ROWS = new String("--end--");
+    private static final Account END_OF_ACCOUNTS = new Account.AccountBuilder().accountName("end").build();
+
+    @Test
+    public void testEnrichesEveryRowAgainstTheStatusApi() throws Exception {
+        StreamChannel<String> rowsQueue = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ROWS, 1, 1);
+        StreamChannel<Account> accountsQueue = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ACCOUNTS, 1, 1);
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        rowsQueue.put("-1,stark industries,Tony,5-12-2015"); // Not looked up, the id is not valid.
+        rowsQueue.put(StubStatusServer.UNKNOWN_ID_FLOOR + ",stark industries,Tony,5-12-2015");
+        for (int i = 1; i <= 40; i++) rowsQueue.put(i + ",stark industries,Tony,5-12-2015");
+        rowsQueue.complete();
+
+        try ( StubStatusServer server = new StubStatusServer(false);
+              ReactiveAccountStatusClient client = new ReactiveAccountStatusClient(server.getServiceUrl(), 8) ) {
+            server.setLatencyTail(10, 1);
+            assertTrue(new ReactiveRowConsumer(rowsQueue, accountsQueue, client, 8, metrics).call() == 0);
+            assertTrue(server.getSingleCalls() == 41);
+        }
+
+        List<Account> accounts = new ArrayList<>(accountsQueue.getQueue());
+        assertTrue(accountsQueue.isEnd(accounts.remove(accounts.size() - 1)));
+        assertTrue(accounts.size() == 42);
+
+        for ( Account account : accounts ) {
+            if ( account.getId() == null || account.getId() < 0 ) {
+                assertTrue(account.getStatus() == null);
+            }
+            else if ( account.getId() >= StubStatusServer.UNKNOWN_ID_FLOOR ) {
+                assertTrue(account.getMessage(), account.getMessage().contains("404"));
+            }
+            else {
+                assertTrue(account.getStatus().equals("good-" + account.getId()));
+                assertTrue(account.getStatusSetOn().equals("2011-01-12"));
+            }
+        }
+        assertTrue(metrics.getLookup().getCount() == 41); // Timed per request.
+        assertTrue(metrics.getLookupBatch().getCount() == 0);
+    }
+
+}
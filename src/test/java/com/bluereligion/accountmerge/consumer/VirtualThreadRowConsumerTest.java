@@ -0,0 +1,102 @@
+package com.bluereligion.accountmerge.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class VirtualThreadRowConsumerTest {
+
+    private static final String END_OF_ROWS = new String("--end--");
+    private static final Account END_OF_ACCOUNTS = new Account.AccountBuilder().accountName("end").build();
+
+    /**
+     * Sleeps on every lookup and records the most lookups that were outstanding at once.
+     */
+    private static class SlowLookup implements AccountStatusLookup {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        public Account callService(Account account) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Account> callServiceInBatch(List<Account> accounts) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+            if ( accounts.get(0).getId() == 13 ) throw new IllegalStateException("lookup failed");
+            accounts.forEach(account -> account.setStatus("good"));
+            return accounts;
+        }
+    }
+
+    private static List<Account> run(AccountStatusLookup lookup, int rows, int batchSize, int maxInFlightLookups) throws Exception {
+        StreamChannel<String> rowsQueue = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ROWS, 1, 1);
+        StreamChannel<Account> accountsQueue = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ACCOUNTS, 1, 1);
+
+        rowsQueue.put("-1,stark industries,Tony,5-12-2015"); // Not looked up, the id is not valid.
+        for (int i = 1; i <= rows; i++) rowsQueue.put(i + ",stark industries,Tony,5-12-2015");
+        rowsQueue.complete();
+
+        int result = new VirtualThreadRowConsumer(rowsQueue, accountsQueue, lookup, batchSize, maxInFlightLookups).call();
+        assertTrue(result == 0);
+
+        List<Account> accounts = new ArrayList<>(accountsQueue.getQueue());
+        assertTrue(accountsQueue.isEnd(accounts.remove(accounts.size() - 1)));
+        return accounts;
+    }
+
+    @Test
+    public void testLookupsAreBoundedByMaxInFlight() throws Exception {
+        SlowLookup lookup = new SlowLookup();
+        List<Account> accounts = run(lookup, 12, 1, 4);
+
+        assertTrue(accounts.size() == 13);
+        assertTrue(accounts.stream().filter(account -> "good".equals(account.getStatus())).count() == 12);
+        assertTrue(lookup.maxInFlight.get() > 1);
+        assertTrue(lookup.maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void testBatchedLookups() throws Exception {
+        SlowLookup lookup = new SlowLookup();
+        List<Account> accounts = run(lookup, 12, 5, 2);
+
+        assertTrue(accounts.size() == 13);
+        assertTrue(lookup.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testFailedLookupFailsTheStage() throws Exception {
+        try {
+            run(new SlowLookup(), 20, 1, 4);
+            fail("The failed lookup was not reported.");
+        }
+        catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEveryValueFallsInABucketHoldingIt() throws Exception {
+        int previous = -1;
+        for ( long value = 0; value <= LatencyHistogram.MAX_TRACKABLE_NANOS; value = value * 5 / 4 + 1 ) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(String.valueOf(value), bucket >= previous);
+            assertTrue(String.valueOf(value), LatencyHistogram.highestValueIn(bucket) >= value);
+            assertTrue(String.valueOf(value), bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < value);
+            assertTrue(String.valueOf(value), LatencyHistogram.highestValueIn(bucket) - value <= value / 32);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(histogram.getPercentileNanos(99) == 0);
+
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+        histogram.record(-5); // Recorded as 0.
+
+        assertTrue(histogram.getCount() == 1001);
+        assertTrue(histogram.getMaxNanos() == 1000000);
+        assertTrue(histogram.getPercentileNanos(100) == 1000000);
+        long p50 = histogram.getPercentileNanos(50);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(String.valueOf(p50), p50 >= 500000 && p50 <= 500000 * 33 / 32);
+        assertTrue(String.valueOf(p99), p99 >= 990000 && p99 <= 1000000);
+        assertTrue(histogram.getPercentileNanos(0) == 0);
+    }
+
+    @Test
+    public void testConcurrentRecordingIsNotLost() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) histogram.record(i);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for ( Thread thread : threads ) thread.join();
+
+        assertTrue(histogram.getCount() == 40000);
+        assertTrue(histogram.getTotalNanos() == 4L * (9999L * 10000 / 2));
+        assertTrue(histogram.getMaxNanos() == 9999);
+    }
+
+}
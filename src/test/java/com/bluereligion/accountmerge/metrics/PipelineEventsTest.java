@@ -0,0 +1,118 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.consumer.AccountConsumer;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class PipelineEventsTest {
+
+    private static final String END_OF_ROWS = new String("--end--");
+    private static final Account END_OF_ACCOUNTS = new Account.AccountBuilder().accountName("end").build();
+
+    @After
+    public void tearDown() {
+        PipelineEvents.disable();
+    }
+
+    /**
+     * Reads the names of the events in a recording. The test classes target Java 8, so jdk.jfr is used reflectively.
+     */
+    private static Set<String> eventNames(Path recording) throws Exception {
+        Set<String> names = new HashSet<>();
+        for ( Object event : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, recording) ) {
+            Object type = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getEventType").invoke(event);
+            names.add((String) Class.forName("jdk.jfr.EventType").getMethod("getName").invoke(type));
+        }
+        return names;
+    }
+
+    @Test
+    public void testDisabledEventsDoNothing() throws Exception {
+        PipelineEvents.disable();
+        assertFalse(PipelineEvents.isEnabled());
+
+        PipelineEvents.begin(PipelineEvents.Kind.STATUS_CALL).accountId(1).outcome("SUCCESS").httpStatus(200).commit();
+
+        StreamChannel<String> rows = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ROWS, 1, 1, "rows");
+        rows.put("1,stark industries,Tony,5-12-2015");
+        assertTrue(rows.take().startsWith("1,"));
+    }
+
+    @Test
+    public void testEventsFollowARunningRecording() throws Exception {
+        Assume.assumeTrue(PipelineEvents.enable()); // Needs Java 11 and the src/java11 classes.
+
+        assertFalse(PipelineEvents.enableIfRecording());
+
+        File recordingFile = File.createTempFile("pipeline-events", ".jfr");
+        recordingFile.deleteOnExit();
+        Closeable recording = PipelineEvents.startRecording(recordingFile.toPath());
+        try {
+            PipelineEvents.disable();
+            assertTrue(PipelineEvents.enableIfRecording());
+        }
+        finally {
+            recording.close();
+        }
+
+        assertFalse(PipelineEvents.enableIfRecording());
+    }
+
+    @Test
+    @SuppressWarnings("try") // The recording is only opened and closed around the run.
+    public void testRecordingIncludesThePipelineEvents() throws Exception {
+        Assume.assumeTrue(PipelineEvents.enable()); // Needs Java 11 and the src/java11 classes.
+
+        File recordingFile = File.createTempFile("pipeline-events", ".jfr");
+        File outbound = File.createTempFile("pipeline-events", ".csv");
+        recordingFile.deleteOnExit();
+        outbound.deleteOnExit();
+
+        try ( Closeable recording = PipelineEvents.startRecording(recordingFile.toPath()) ) {
+            StreamChannel<Account> accounts = new StreamChannel<>(new ArrayBlockingQueue<>(1), END_OF_ACCOUNTS, 1, 1, "accounts");
+            Thread writer = new Thread(() -> {
+                try {
+                    Thread.sleep(50); // The second put waits for the writer to take the first account.
+                    new AccountConsumer(accounts, outbound.getPath(), StandardCharsets.UTF_8).call();
+                }
+                catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            writer.start();
+
+            for (long id = 1; id <= 3; id++) accounts.put(new Account.AccountBuilder().id(id).firstName("Tony").build());
+            accounts.complete();
+            writer.join();
+
+            PipelineEvents.begin(PipelineEvents.Kind.STATUS_CALL).accountId(1).accounts(1).endpoint("http://localhost").outcome("SUCCESS").httpStatus(200).commit();
+        }
+
+        Set<String> names = eventNames(recordingFile.toPath());
+        assertTrue(names.toString(), names.contains("com.bluereligion.accountmerge.QueueWait"));
+        assertTrue(names.toString(), names.contains("com.bluereligion.accountmerge.WriterFlush"));
+        assertTrue(names.toString(), names.contains("com.bluereligion.accountmerge.StatusCall"));
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.consumer.AccountConsumer;
+import com.bluereligion.accountmerge.consumer.RowConsumer;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class PipelineMetricsTest {
+
+    private static final String END_OF_ROWS = new String("--end--");
+    private static final Account END_OF_ACCOUNTS = new Account.AccountBuilder().accountName("end").build();
+
+    /**
+     * Sets every status after a short wait.
+     */
+    private static class SlowLookup implements AccountStatusLookup {
+        public Account callService(Account account) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Account> callServiceInBatch(List<Account> accounts) {
+            try {
+                Thread.sleep(2);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            accounts.forEach(account -> account.setStatus("good"));
+            return accounts;
+        }
+    }
+
+    @Test
+    public void testStagesAreCountedAndTimed() throws Exception {
+        StreamChannel<String> rows = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ROWS, 1, 1);
+        StreamChannel<Account> accounts = new StreamChannel<>(new LinkedBlockingQueue<>(), END_OF_ACCOUNTS, 1, 1);
+        File outbound = File.createTempFile("pipeline-metrics", ".csv");
+        outbound.deleteOnExit();
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(1);
+        metrics.bindTo(registry);
+        metrics.watch(rows, accounts);
+        metrics.start();
+
+        rows.put("-1,stark industries,Tony,5-12-2015"); // Parsed and written, but not looked up.
+        for (int i = 1; i <= 20; i++) rows.put(i + ",stark industries,Tony,5-12-2015");
+        rows.complete();
+        assertTrue(registry.get(PipelineMetrics.QUEUE_DEPTH_METRIC).tag("queue", "rows").gauge().value() == 22);
+
+        assertTrue(new RowConsumer(rows, accounts, new SlowLookup(), 5, metrics).call() == 0);
+        assertTrue(new AccountConsumer(accounts, outbound.getPath(), StandardCharsets.UTF_8, metrics).call() == 0);
+        metrics.close();
+
+        assertTrue(metrics.getRowsRead() == 21);
+        assertTrue(metrics.getRowsParsed() == 21);
+        assertTrue(metrics.getRowsEnriched() == 21);
+        assertTrue(metrics.getRowsWritten() == 21);
+        assertTrue(Files.readAllLines(outbound.toPath()).size() == 22);
+
+        assertTrue(metrics.getLookupBatch().getCount() == 5); // 20 accounts in batches of 5.
+        assertTrue(metrics.getLookup().getCount() == 0); // Only the reactive engine times single lookups.
+        assertTrue(metrics.getLookupBatch().getPercentileNanos(50) >= TimeUnit.MILLISECONDS.toNanos(2));
+        assertTrue(metrics.getElapsedSeconds() > 0);
+
+        assertTrue(registry.get(PipelineMetrics.ROWS_METRIC).tag("stage", "written").functionCounter().count() == 21);
+        assertTrue(registry.get(PipelineMetrics.LATENCY_METRIC).tag("stage", "lookup-batch").functionTimer().count() == 5);
+        assertTrue(registry.get(PipelineMetrics.LATENCY_PERCENTILE_METRIC).tag("stage", "lookup-batch").tag("percentile", "99.0").gauge().value() >= 2);
+        assertTrue(registry.get(PipelineMetrics.QUEUE_DEPTH_METRIC).tag("queue", "rows").gauge().value() == 0);
+        assertTrue(metrics.toString(), metrics.toString().contains("written=21"));
+
+        metrics.unbind();
+        assertTrue(registry.find(PipelineMetrics.ROWS_METRIC).meters().isEmpty());
+        assertTrue(registry.find(PipelineMetrics.LATENCY_METRIC).meters().isEmpty());
+    }
+
+    @Test
+    public void testASecondRunPublishesItsOwnMeters() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        PipelineMetrics first = new PipelineMetrics();
+        first.bindTo(registry);
+        for (int i = 0; i < 3; i++) first.recordWrite(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(registry.get(PipelineMetrics.ROWS_METRIC).tag("stage", "written").functionCounter().count() == 3);
+        first.unbind();
+
+        PipelineMetrics second = new PipelineMetrics();
+        second.bindTo(registry);
+        second.recordWrite(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(registry.get(PipelineMetrics.ROWS_METRIC).tag("stage", "written").functionCounter().count() == 1);
+        assertTrue(registry.get(PipelineMetrics.LATENCY_METRIC).tag("stage", "write").functionTimer().count() == 1);
+        second.unbind();
+    }
+
+}
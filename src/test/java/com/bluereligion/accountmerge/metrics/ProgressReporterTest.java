@@ -0,0 +1,82 @@
+package com.bluereligion.accountmerge.metrics;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class ProgressReporterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testTimeLeftIsProjectedFromTheRate() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.setInboundBytes(1000);
+        metrics.recordBytesRead(250);
+        for (int i = 0; i < 50; i++) metrics.recordWrite(1);
+
+        ProgressReporter.Snapshot snapshot = ProgressReporter.Snapshot.take(ProgressReporter.State.RUNNING, metrics, ProgressReporter.Snapshot.initial(0), 10 * SECOND);
+        assertEquals(25.0, snapshot.getPercent(), 0.001);
+        assertEquals(5.0, snapshot.rowsPerSecond, 0.001);
+        assertTrue(snapshot.getEtaSeconds() == 30); // 750 bytes left at 25 bytes a second.
+        assertTrue(snapshot.toLine().contains("ETA 0:00:30"));
+
+        metrics.recordBytesRead(500); // Twice as fast over the next interval.
+        snapshot = ProgressReporter.Snapshot.take(ProgressReporter.State.RUNNING, metrics, snapshot, 20 * SECOND);
+        assertEquals(75.0, snapshot.getPercent(), 0.001);
+        assertTrue(snapshot.getEtaSeconds() == 7); // 250 bytes left at the smoothed 37.5 bytes a second.
+    }
+
+    @Test
+    public void testStalledRunHasNoTimeLeft() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.setInboundBytes(1000);
+        metrics.recordBytesRead(100);
+
+        ProgressReporter.Snapshot snapshot = ProgressReporter.Snapshot.take(ProgressReporter.State.RUNNING, metrics, ProgressReporter.Snapshot.initial(0), 10 * SECOND);
+        snapshot = ProgressReporter.Snapshot.take(ProgressReporter.State.RUNNING, metrics, snapshot, 40 * SECOND);
+        assertTrue(snapshot.getEtaSeconds() == -1);
+        assertTrue(snapshot.getStalledSeconds() == 30);
+        assertTrue(snapshot.toLine().contains("ETA unknown, no progress for 30s"));
+    }
+
+    @Test
+    public void testStatusFileIsFinished() throws Exception {
+        Path statusFile = Files.createTempFile("progress", ".properties");
+        try {
+            PipelineMetrics metrics = new PipelineMetrics();
+            metrics.setInboundBytes(400);
+            metrics.recordBytesRead(400);
+            for (int i = 0; i < 8; i++) metrics.recordWrite(1);
+
+            ProgressReporter progress = new ProgressReporter(metrics, statusFile.toString(), 60);
+            progress.start();
+            progress.stop(true);
+            progress.reportRunning(); // A scheduled report that was waiting while stop() held the lock.
+
+            Properties status = new Properties();
+            status.load(new StringReader(new String(Files.readAllBytes(statusFile), "UTF-8")));
+            assertEquals("FINISHED", status.getProperty("state"));
+            assertEquals("100.0", status.getProperty("percent"));
+            assertEquals("400", status.getProperty("bytesRead"));
+            assertEquals("8", status.getProperty("rowsWritten"));
+            assertEquals("0", status.getProperty("etaSeconds"));
+            assertFalse(Files.exists(statusFile.resolveSibling(statusFile.getFileName() + ".tmp")));
+        }
+        finally {
+            Files.deleteIfExists(statusFile);
+        }
+    }
+
+}
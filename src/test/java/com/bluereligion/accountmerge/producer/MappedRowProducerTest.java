@@ -0,0 +1,154 @@
+package com.bluereligion.accountmerge.producer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.metrics.PipelineMetrics;
+import com.bluereligion.accountmerge.queue.StreamChannel;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class MappedRowProducerTest {
+
+    private static final String CONTENT =
+            "Account ID,Account Name,First Name,Created On\r\n" +
+            "1,stark industries,Tony,5-12-2015\r\n" +
+            "\r\n" +
+            "2,\"wayne, enterprises\",Bruce,6-12-2015\n" +
+            "3,stark\"\"industries,Pepper,7-12-2015\n" +
+            "\n" +
+            "4,daily planet,Clark,8-12-2015\r" +
+            "5,daily planet,Lois,9-12-2015";
+
+    private static final List<String> EXPECTED = sorted(
+            "1,stark industries,Tony,5-12-2015",
+            "2,\"wayne, enterprises\",Bruce,6-12-2015",
+            "3,stark\"\"industries,Pepper,7-12-2015",
+            "4,daily planet,Clark,8-12-2015",
+            "5,daily planet,Lois,9-12-2015");
+
+    /**
+     * Row 2 has a quote that is never closed. Every row still ends at its line break.
+     */
+    private static final String STRAY_QUOTE =
+            "Account ID,Account Name,First Name,Created On\n" +
+            "1,acct 1,Name1,5/12/2015\n" +
+            "2,acct \"2,Name2,5/12/2015\n" +
+            "3,acct 3,Name3,5/12/2015\n" +
+            "4,acct 4,Name4,5/12/2015\n" +
+            "5,\"acct\n5\",Name5,5/12/2015\n";
+
+    private static List<String> sorted(String... rows) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, rows);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static List<String> read(Charset charset, long chunkSizeBytes, int parallelism, int numOfRowConsumers) throws Exception {
+        return read(CONTENT, charset, chunkSizeBytes, parallelism, numOfRowConsumers);
+    }
+
+    /**
+     * @param chunkSizeBytes - The chunk size of the MappedRowProducer, or 0 to read with RowProducer.
+     */
+    private static List<String> read(String content, Charset charset, long chunkSizeBytes, int parallelism, int numOfRowConsumers) throws Exception {
+        Path file = Files.createTempFile("mapped-row-producer", ".csv");
+        try {
+            Files.write(file, content.getBytes(charset));
+            BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+            StreamChannel<String> channel = new StreamChannel<>(queue, new String("--end--"), 1, numOfRowConsumers);
+
+            int result = ( chunkSizeBytes == 0 )
+                    ? new RowProducer(channel, file.toString(), charset).call()
+                    : new MappedRowProducer(channel, file.toString(), charset, chunkSizeBytes, parallelism).call();
+            assertTrue(result == 0);
+            assertTrue(channel.getCompletedProducers() == 1);
+
+            List<String> rows = new ArrayList<>(queue);
+            int markers = 0;
+            for ( Iterator<String> i = rows.iterator(); i.hasNext(); ) {
+                if ( channel.isEnd(i.next()) ) {
+                    i.remove();
+                    markers++;
+                }
+            }
+            assertTrue(markers == numOfRowConsumers);
+
+            Collections.sort(rows);
+            return rows;
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSingleChunk() throws Exception {
+        assertTrue(read(StandardCharsets.UTF_8, 1024 * 1024, 2, 2).equals(EXPECTED));
+    }
+
+    @Test
+    public void testEveryChunkSize() throws Exception {
+        // Moves the chunk boundaries through every position, including between the CR and LF of a line break.
+        assertEquals(EXPECTED, read(CONTENT, StandardCharsets.UTF_8, 0, 1, 1));
+        for (int chunkSize = 1; chunkSize <= CONTENT.length(); chunkSize++) {
+            assertEquals("chunkSize=" + chunkSize, EXPECTED, read(StandardCharsets.UTF_8, chunkSize, 3, 1));
+        }
+    }
+
+    @Test
+    public void testStrayQuoteReadsTheSameRowsAsRowProducer() throws Exception {
+        List<String> expected = read(STRAY_QUOTE, StandardCharsets.UTF_8, 0, 1, 1);
+        assertTrue(expected.size() == 6); // A quoted line break ends the row, as with readLine.
+        assertTrue(expected.contains("2,acct \"2,Name2,5/12/2015"));
+
+        for (int chunkSize = 1; chunkSize <= STRAY_QUOTE.length(); chunkSize++) {
+            assertEquals("chunkSize=" + chunkSize, expected, read(STRAY_QUOTE, StandardCharsets.UTF_8, chunkSize, 3, 1));
+        }
+        assertEquals(expected, read(STRAY_QUOTE, StandardCharsets.UTF_16LE, 8, 3, 1));
+    }
+
+    @Test
+    public void testUtf16IsReadLineByLine() throws Exception {
+        assertFalse(MappedRowProducer.isByteScannable(StandardCharsets.UTF_16LE));
+        assertEquals(EXPECTED, read(StandardCharsets.UTF_16LE, 4, 2, 1));
+    }
+
+    @Test
+    public void testBytesReadAreCounted() throws Exception {
+        // Every byte of the file is counted once, whichever chunk or reader it is read by.
+        for ( Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE } ) {
+            Path file = Files.createTempFile("mapped-row-producer", ".csv");
+            try {
+                Files.write(file, CONTENT.getBytes(charset));
+                for (int chunkSize = 1; chunkSize <= 16; chunkSize++) {
+                    StreamChannel<String> channel = new StreamChannel<>(new LinkedBlockingQueue<>(), new String("--end--"), 1, 1);
+                    PipelineMetrics metrics = new PipelineMetrics();
+
+                    new MappedRowProducer(channel, file.toString(), charset, chunkSize, 3, metrics).call();
+                    assertEquals(charset + " chunkSize=" + chunkSize, Files.size(file), metrics.getBytesRead());
+                }
+            }
+            finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class RingBufferTest {
+
+    @Test
+    public void testCapacityIsRoundedUpToAPowerOfTwo() throws Exception {
+        assertTrue(new RingBuffer<String>(1, WaitStrategy.BLOCKING).getCapacity() == 2);
+        assertTrue(new RingBuffer<String>(50, WaitStrategy.BLOCKING).getCapacity() == 64);
+        assertTrue(new RingBuffer<String>(64, WaitStrategy.BLOCKING).getCapacity() == 64);
+    }
+
+    @Test
+    public void testOfferAndPollInOrder() throws Exception {
+        RingBuffer<String> ring = new RingBuffer<>(4, WaitStrategy.BLOCKING);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer("row" + i));
+        assertFalse(ring.offer("row4"));
+        assertTrue(ring.size() == 4);
+        assertTrue(ring.remainingCapacity() == 0);
+        assertTrue(ring.peek().equals("row0"));
+
+        for (int i = 0; i < 4; i++) assertTrue(ring.poll().equals("row" + i));
+        assertNull(ring.poll());
+        assertNull(ring.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPutAllAndDrainToWrapAround() throws Exception {
+        RingBuffer<String> ring = new RingBuffer<>(4, WaitStrategy.BLOCKING);
+        List<String> drained = new ArrayList<>();
+
+        for (int lap = 0; lap < 5; lap++) {
+            ring.putAll(Arrays.asList("a" + lap, "b" + lap, "c" + lap));
+            drained.clear();
+            assertTrue(ring.drainTo(drained, 2) == 2);
+            assertTrue(ring.drainTo(drained) == 1);
+            assertTrue(drained.equals(Arrays.asList("a" + lap, "b" + lap, "c" + lap)));
+        }
+    }
+
+    @Test
+    public void testOfferTimesOutWhenFull() throws Exception {
+        RingBuffer<String> ring = new RingBuffer<>(2, WaitStrategy.YIELDING);
+        ring.put("a");
+        ring.put("b");
+        assertFalse(ring.offer("c", 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testManyProducersAndConsumers() throws Exception {
+        exchange(new RingBuffer<>(8, WaitStrategy.BLOCKING), 3, 3, 20000);
+        exchange(new RingBuffer<>(8, WaitStrategy.YIELDING), 3, 3, 20000);
+        // Spinning threads only make progress with a core each.
+        if ( Runtime.getRuntime().availableProcessors() >= 6 ) exchange(new RingBuffer<>(8, WaitStrategy.BUSY_SPIN), 3, 3, 20000);
+    }
+
+    @Test(timeout = 5000)
+    public void testTakeIsInterrupted() throws Exception {
+        for ( WaitStrategy waitStrategy : WaitStrategy.values() ) {
+            RingBuffer<String> ring = new RingBuffer<>(2, waitStrategy);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<String> take = executor.submit(() -> ring.take());
+            Thread.sleep(50);
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+            assertTrue(take.isDone());
+        }
+    }
+
+    /**
+     * Every producer puts its own range of numbers, some one at a time and some in batches, while the consumers
+     * take and drain. Every number must come out exactly once.
+     */
+    private static void exchange(RingBuffer<Long> ring, int producers, int consumers, int perProducer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+        long total = (long) producers * perProducer;
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final long base = (long) p * perProducer;
+                futures.add(executor.submit(() -> {
+                    List<Long> batch = new ArrayList<>();
+                    for (long i = 0; i < perProducer; i++) {
+                        if ( i % 2 == 0 ) ring.put(base + i);
+                        else batch.add(base + i);
+                        if ( batch.size() == 5 ) {
+                            ring.putAll(batch);
+                            batch.clear();
+                        }
+                    }
+                    ring.putAll(batch);
+                    return null;
+                }));
+            }
+            for (int c = 0; c < consumers; c++) {
+                futures.add(executor.submit(() -> {
+                    List<Long> drained = new ArrayList<>();
+                    while ( count.get() < total ) {
+                        Long value = ring.poll(10, TimeUnit.MILLISECONDS);
+                        if ( value == null ) continue;
+                        drained.add(value);
+                        ring.drainTo(drained, 7);
+                        for ( Long v : drained ) sum.addAndGet(v);
+                        count.addAndGet(drained.size());
+                        drained.clear();
+                    }
+                    return null;
+                }));
+            }
+            for ( Future<?> future : futures ) future.get(30, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(count.get() == total);
+        assertTrue(sum.get() == total * (total - 1) / 2);
+        assertTrue(ring.isEmpty());
+    }
+
+}
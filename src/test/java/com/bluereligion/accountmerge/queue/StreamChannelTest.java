@@ -0,0 +1,75 @@
+package com.bluereligion.accountmerge.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class StreamChannelTest {
+
+    private static final String END = new String("--[END OF ROWS]--");
+
+    @Test
+    public void testEndsOnlyAfterEveryProducerCompletes() throws Exception {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        StreamChannel<String> channel = new StreamChannel<>(queue, END, 3, 2);
+
+        channel.put("row1");
+        channel.complete();
+        channel.putAll(Arrays.asList("row2", "row3"));
+        channel.complete();
+        assertTrue(queue.size() == 3);
+
+        channel.complete();
+        assertTrue(channel.getCompletedProducers() == 3);
+        assertTrue(queue.size() == 5);
+
+        List<String> drained = new ArrayList<>();
+        channel.drainTo(drained, 10);
+        assertTrue(drained.subList(0, 3).equals(Arrays.asList("row1", "row2", "row3")));
+        assertTrue(channel.isEnd(drained.get(3)));
+        assertTrue(channel.isEnd(drained.get(4)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompletingTooOftenFails() throws Exception {
+        StreamChannel<String> channel = new StreamChannel<>(new LinkedBlockingQueue<>(), END, 1, 1);
+        channel.complete();
+        channel.complete();
+    }
+
+    @Test
+    public void testEndIsRecognisedByIdentity() throws Exception {
+        StreamChannel<String> channel = new StreamChannel<>(new LinkedBlockingQueue<>(), END, 1, 1);
+        assertFalse(channel.isEnd(new String("--[END OF ROWS]--"))); // A row that happens to hold the same text.
+        assertFalse(channel.isEnd(null));
+        assertTrue(channel.isEnd(END));
+    }
+
+    @Test
+    public void testHandBack() throws Exception {
+        StreamChannel<String> channel = new StreamChannel<>(new LinkedBlockingQueue<>(), END, 1, 3);
+        channel.complete();
+
+        List<String> drained = new ArrayList<>();
+        drained.add(channel.take());
+        channel.drainTo(drained, 10);
+        assertTrue(drained.size() == 3);
+
+        channel.handBack(drained.size() - 1);
+        assertTrue(channel.isEnd(channel.take()));
+        assertTrue(channel.isEnd(channel.take()));
+        assertTrue(channel.getQueue().isEmpty());
+    }
+
+}
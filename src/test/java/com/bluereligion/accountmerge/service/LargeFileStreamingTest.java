@@ -0,0 +1,155 @@
+package com.bluereligion.accountmerge.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import com.bluereligion.accountmerge.client.AccountStatusLookup;
+import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.util.AccountMergeUtils;
+
+/**
+ * Streams a generated file through the whole pipeline with the status lookups stubbed out, once for a file an eighth
+ * the size, and checks that the heap the run keeps alive stays under LIVE_HEAP_BOUND_MB for either size.
+ *
+ * The live heap is sampled after a System.gc(), so the garbage the run leaves behind is not counted. A pipeline that
+ * held the rows would keep several times the file size alive, well over the bound for the default 32MB file.
+ *
+ * The file size is set with the accountmerge.largeFileMb system property. The largeFileTest gradle task runs it
+ * against a multi-GB file with a 64MB heap.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class LargeFileStreamingTest {
+
+    private static final long BYTES_PER_MB = 1024l * 1024l;
+    private static final long LIVE_HEAP_BOUND_MB = 24;
+    private static final long SAMPLE_INTERVAL_MS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final AccountStatusLookup STUB_LOOKUP = new AccountStatusLookup() {
+        public Account callService(Account account) {
+            account.setStatus("good");
+            account.setStatusSetOn("2011-01-12");
+            return account;
+        }
+
+        public List<Account> callServiceInBatch(List<Account> accounts) {
+            accounts.forEach(this::callService);
+            return accounts;
+        }
+    };
+
+    @Test
+    public void testStreamingLargeFile() throws Exception {
+        long sizeMb = Long.getLong("accountmerge.largeFileMb", 32l);
+
+        long smallGrowth = stream("small", Math.max(1, sizeMb / 8));
+        long largeGrowth = stream("large", sizeMb);
+
+        assertTrue("small run kept " + smallGrowth / BYTES_PER_MB + " MB alive", smallGrowth < LIVE_HEAP_BOUND_MB * BYTES_PER_MB);
+        assertTrue("large run kept " + largeGrowth / BYTES_PER_MB + " MB alive", largeGrowth < LIVE_HEAP_BOUND_MB * BYTES_PER_MB);
+    }
+
+    /**
+     * @param name - The name of the files.
+     * @param sizeMb - The size of the inbound file.
+     * @return - The most heap the run kept alive above what was alive before it started.
+     */
+    private long stream(String name, long sizeMb) throws Exception {
+        Path inbound = folder.getRoot().toPath().resolve(name + "-input.csv");
+        Path outbound = folder.getRoot().toPath().resolve(name + "-output.csv");
+
+        long rows = generate(inbound, sizeMb * BYTES_PER_MB);
+        assertTrue(AccountMergeUtils.validateFile(inbound.toString(), 1, true));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseline = liveHeap(memory);
+        AtomicLong peakHeap = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while ( !Thread.currentThread().isInterrupted() ) {
+                peakHeap.accumulateAndGet(liveHeap(memory), Math::max);
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                }
+                catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+
+        AccountsServiceProvider accountsServiceProvider = new AccountsServiceProvider.AccountsServiceProviderBuilder()
+                .inboundFilePath(inbound.toString())
+                .outboundFilePath(outbound.toString())
+                .numOfRowConsumers(2)
+                .queueCapacity(50)
+                .characterSet(StandardCharsets.UTF_8)
+                .accountStatusClient(STUB_LOOKUP)
+                .build();
+
+        long start = System.currentTimeMillis();
+        PipelineResult result = accountsServiceProvider.processAccounts(inbound.toString(), outbound.toString());
+        sampler.interrupt();
+        sampler.join();
+
+        System.out.println(String.format("Streamed %d MB (%d rows) in %d ms. Peak live heap=%d MB above a baseline of %d MB, of max %d MB.",
+                sizeMb, rows, System.currentTimeMillis() - start, (peakHeap.get() - baseline) / BYTES_PER_MB, baseline / BYTES_PER_MB,
+                Runtime.getRuntime().maxMemory() / BYTES_PER_MB));
+
+        assertTrue(result.isSuccessful());
+        assertTrue(countLines(outbound) == rows + 1); // plus the header row
+
+        Files.delete(inbound);
+        Files.delete(outbound);
+        return peakHeap.get() - baseline;
+    }
+
+    private static long liveHeap(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long generate(Path file, long bytes) throws Exception {
+        long rows = 0;
+        long written = 0;
+        try ( BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8) ) {
+            writer.write("Account ID,Account Name,First Name,Created On");
+            writer.newLine();
+            while ( written < bytes ) {
+                String row = String.format("%d,\"stark, industries\",Tony,5/12/2015", ++rows);
+                writer.write(row);
+                writer.newLine();
+                written += row.length() + 1;
+            }
+        }
+        return rows;
+    }
+
+    private static long countLines(Path file) throws Exception {
+        long lines = 0;
+        try ( BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8) ) {
+            while ( reader.readLine() != null ) lines++;
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.bluereligion.accountmerge.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class PipelineOrchestratorTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(3);
+
+    @After
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testFailingStageCancelsTheOthers() throws Exception {
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>(); // Never fed, so the consumers block until cancelled.
+        CountDownLatch started = new CountDownLatch(2);
+        IllegalStateException failure = new IllegalStateException("producer failed");
+
+        PipelineOrchestrator orchestrator = new PipelineOrchestrator(executorService);
+        orchestrator.submit("consumer-1", () -> { started.countDown(); queue.take(); return 0; });
+        orchestrator.submit("consumer-2", () -> { started.countDown(); queue.take(); return 0; });
+        orchestrator.submit("producer", () -> { started.await(); throw failure; });
+
+        PipelineResult result = orchestrator.await();
+
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getFailedStage().equals("producer"));
+        assertTrue(result.getFailure() == failure);
+        assertTrue(result.getCancelled().contains("consumer-1"));
+        assertTrue(result.getCancelled().contains("consumer-2"));
+        assertTrue(result.getResults().isEmpty());
+    }
+
+    @Test
+    public void testSameFailureFromTwoStagesIsNotSuppressedByItself() throws Exception {
+        IllegalStateException failure = new IllegalStateException("shared failure");
+        IllegalStateException other = new IllegalStateException("other failure");
+
+        PipelineResult result = new PipelineResult();
+        result.addFailure("consumer-1", failure);
+        result.addFailure("consumer-2", failure);
+        result.addFailure("consumer-3", other);
+
+        assertTrue(result.getFailedStage().equals("consumer-1"));
+        assertTrue(result.getFailure() == failure);
+        assertTrue(failure.getSuppressed().length == 1);
+        assertTrue(failure.getSuppressed()[0] == other);
+    }
+
+}
@@ -12,6 +12,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 
 import com.bluereligion.accountmerge.dto.Account;
+import com.bluereligion.accountmerge.queue.WaitStrategy;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @WebAppConfiguration
@@ -35,10 +36,17 @@ public class AccountMergeUtilsTest {
     }
 
     @Test
-    public void testPoisonAccount() throws Exception {
-        Account p = AccountMergeUtils.getPoisonAccount();
-        assertTrue(p.getId().equals(-99999l));
-        assertTrue(p.getAccountName().equals("PoisonAccount"));
+    public void testParseSetting() throws Exception {
+        assertTrue(AccountMergeUtils.parseSetting("application.waitStrategy", " busy_spin ", WaitStrategy.class) == WaitStrategy.BUSY_SPIN);
+
+        String errorMsg = new String();
+        try {
+            AccountMergeUtils.parseSetting("application.waitStrategy", "spinning", WaitStrategy.class);
+        }
+        catch(IllegalArgumentException ex) {
+            errorMsg = ex.getMessage();
+        }
+        assertTrue(errorMsg, errorMsg.equals("Invalid application.waitStrategy=spinning. Please use one of [blocking, yielding, busy_spin]."));
     }
 
     @Test
@@ -101,6 +109,12 @@ public class AccountMergeUtilsTest {
         assertTrue(errorMsg.equals("Inbound file exceeds size limit of 1048576 MBs.  Please use a smaller file."));
     }
 
+    @Test
+    public void testValidateFileLargeInStreamingMode() throws Exception {
+        assertTrue(AccountMergeUtils.validateFile(Paths.get(resourceDirectory + "/TestLargeFile.csv").toString(), new Integer(1), true));
+        assertTrue(AccountMergeUtils.validateFile(Paths.get(resourceDirectory + "/TestLargeFile.csv").toString(), null, true));
+    }
+
     @Test
     public void testCreateDelimintaedRow() throws Exception {
         Account a = new Account.AccountBuilder()
@@ -0,0 +1,116 @@
+package com.bluereligion.accountmerge.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class CsvTokenizerTest {
+
+    private static final String[] ROWS = {
+            "23232,stark industries,Tony,5-12-2015",
+            "\"23232\",stark industries,Tony,5-12-2015",
+            "23232,\"stark industries\",Tony,\"5-12-2015\"",
+            "23232,stark\"\"industries,Tony,5-12-2015",
+            "23232,\"stark,industries\",Tony,5-12-2015",
+            ",,,23232,stark industries,Tony,5-12-2015,,,",
+            "23232,\"stark\r\nindustries\",Tony,5-12-2015\r\n",
+            "\n,23232,\"\"\"stark\"\",\"industries\",,Tony\u2028,5-12-2015,\"",
+            "23232,\"a\"\"b\",\"\",,",
+            ",,,",
+            ""
+    };
+
+    @Test
+    public void testMatchesScrubAndParseLine() throws Exception {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        for ( String row : ROWS ) {
+            String[] expected = legacyParseLine(AccountMergeUtils.scrubLine(row));
+            tokenizer.tokenize(row);
+            assertTrue(row, Arrays.equals(expected, tokenizer.toArray()));
+            assertTrue(tokenizer.getFieldCount() == expected.length);
+        }
+    }
+
+    @Test
+    public void testBufferIsReused() throws Exception {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        StringBuilder longRow = new StringBuilder("1");
+        for (int i = 0; i < 100; i++) longRow.append(",field").append(i);
+
+        assertTrue(tokenizer.tokenize(longRow) == 101);
+        assertTrue(tokenizer.getString(100).equals("field99"));
+
+        assertTrue(tokenizer.tokenize("2,b") == 2);
+        assertTrue(tokenizer.getString(1).equals("b"));
+    }
+
+    @Test
+    public void testGetLong() throws Exception {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.tokenize("23232,-5,+7,9223372036854775807,-9223372036854775808");
+
+        assertTrue(tokenizer.getLong(0) == 23232l);
+        assertTrue(tokenizer.getLong(1) == -5l);
+        assertTrue(tokenizer.getLong(2) == 7l);
+        assertTrue(tokenizer.getLong(3) == Long.MAX_VALUE);
+        assertTrue(tokenizer.getLong(4) == Long.MIN_VALUE);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testGetLongNotANumber() throws Exception {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.tokenize("23a32,stark industries");
+        tokenizer.getLong(0);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testMissingField() throws Exception {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.tokenize("23232,stark industries");
+        tokenizer.getString(2);
+    }
+
+    /**
+     * The parseLine implementation the tokenizer replaced, kept to check that the semantics have not changed.
+     */
+    private static String[] legacyParseLine(String s) {
+        List<String> values = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean insideQuote = false;
+        int charsReadSinceOpenQuote = 0;
+
+        for ( char c : s.toCharArray() ) {
+            if ( c == '"' ) {
+                if ( insideQuote ) {
+                    if ( charsReadSinceOpenQuote == 0 ) {
+                        sb.append(c);
+                        charsReadSinceOpenQuote++;
+                    }
+                    insideQuote = false;
+                }
+                else insideQuote = true;
+            }
+            else if ( c == ',' && !insideQuote ) {
+                values.add(sb.toString());
+                sb.setLength(0);
+                charsReadSinceOpenQuote = 0;
+            }
+            else {
+                sb.append(c);
+                if ( insideQuote ) charsReadSinceOpenQuote++;
+            }
+        }
+        values.add(sb.toString());
+        return values.toArray(new String[0]);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.bluereligion.accountmerge.util;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.bluereligion.accountmerge.dto.Account;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebAppConfiguration
+public class RowTraceTest {
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(RowTraceTest.class.getName() + ".trace");
+    private final int sampleEvery = RowTrace.getSampleEvery();
+
+    @After
+    public void tearDown() {
+        RowTrace.setSampleEvery(this.sampleEvery);
+        this.logger.setLevel(null);
+    }
+
+    private int sampled(RowTrace trace, int rows) {
+        int sampled = 0;
+        for (int i = 0; i < rows; i++) {
+            if ( trace.sample(i + ",stark industries,Tony,5-12-2015") ) sampled++;
+        }
+        return sampled;
+    }
+
+    @Test
+    public void testNothingIsSampledBelowDebug() throws Exception {
+        RowTrace trace = new RowTrace(this.logger);
+        RowTrace.setSampleEvery(1);
+        this.logger.setLevel(Level.INFO);
+        assertTrue(sampled(trace, 1000) == 0);
+    }
+
+    @Test
+    public void testOneInSampleEveryRowsIsSampled() throws Exception {
+        RowTrace trace = new RowTrace(this.logger);
+        this.logger.setLevel(Level.DEBUG);
+
+        RowTrace.setSampleEvery(1);
+        assertTrue(sampled(trace, 1000) == 1000);
+
+        RowTrace.setSampleEvery(100);
+        int sampled = sampled(trace, 100000);
+        assertTrue(String.valueOf(sampled), sampled > 700 && sampled < 1300);
+
+        RowTrace.setSampleEvery(0);
+        assertTrue(RowTrace.getSampleEvery() == 1);
+    }
+
+    @Test
+    public void testARowIsSampledAlikeAtEveryTracePoint() throws Exception {
+        RowTrace trace = new RowTrace(this.logger);
+        this.logger.setLevel(Level.DEBUG);
+        RowTrace.setSampleEvery(10);
+
+        int sampled = 0;
+        for (long id = 1; id <= 1000; id++) {
+            String row = id + ",stark industries,Tony,5-12-2015";
+            boolean expected = trace.sample(row);
+            for (int i = 0; i < 5; i++) assertTrue(trace.sample(row) == expected);
+            assertTrue(trace.sample("\"" + id + "\",\"stark industries\",Tony,5-12-2015") == expected);
+            assertTrue(trace.sample(new Account.AccountBuilder().id(id).firstName("Tony").build()) == expected);
+            if ( expected ) sampled++;
+        }
+        assertTrue(String.valueOf(sampled), sampled > 50 && sampled < 150);
+
+        assertTrue(trace.sample("header,row") == trace.sample("header,row"));
+    }
+
+}